@@ -0,0 +1,26 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler, bytes allocated per operation are reported next to the scores.
+ * Accepts the usual JMH options, for example:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar MessageCodecBenchmark -p messageType=STATUS -rf json
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
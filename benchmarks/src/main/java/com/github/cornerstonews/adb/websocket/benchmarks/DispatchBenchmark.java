@@ -0,0 +1,97 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cornerstonews.adb.websocket.AdbWebsocket;
+import com.github.cornerstonews.adb.websocket.message.AdbAuthMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Latency of a request from the received message to its reply being written: decoding, dispatch through the device
+ * scheduler, the command against the fake device, encoding and the sender queue. Commands run on the calling thread,
+ * so the score does not include executor hand-offs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DispatchBenchmark {
+
+    @Param({ "json", "cbor" })
+    private String encoding;
+
+    @Param({ "STATUS", "SHELL_COMMAND" })
+    private AdbWebsocketMessageType messageType;
+
+    @Param({ "4096" })
+    private int shellOutputSize;
+
+    private AdbWebsocket websocket;
+    private InMemorySession session;
+    private String textRequest;
+    private ByteBuffer binaryRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        boolean binary = "cbor".equals(encoding);
+        // Applications subclass the endpoint to give it a path, there is nothing to override.
+        websocket = new AdbWebsocket(FakeAdb.newManager(MessageCodecBenchmark.shellOutput(shellOutputSize), 0), Runnable::run) {
+        };
+        session = new InMemorySession("benchmark", binary ? AdbWebsocketMessageCborCodec.SUBPROTOCOL : null);
+
+        AdbWebsocketMessage auth = new AdbAuthMessage(FakeAdb.DEVICE_SERIAL);
+        AdbWebsocketMessage request = newRequest();
+        if (binary) {
+            websocket.onMessage(session, AdbWebsocketMessageCborCodec.encode(auth), true);
+            binaryRequest = AdbWebsocketMessageCborCodec.encode(request);
+        } else {
+            websocket.onMessage(session, JAXBUtils.marshalToJSON(auth), true);
+            textRequest = JAXBUtils.marshalToJSON(request);
+        }
+        if (session.getSentCount() != 1) {
+            throw new IllegalStateException("Authentication was not answered.");
+        }
+    }
+
+    private AdbWebsocketMessage newRequest() {
+        if (messageType == AdbWebsocketMessageType.SHELL_COMMAND) {
+            AdbShellCommandMessage shell = new AdbShellCommandMessage(FakeAdb.DEVICE_SERIAL);
+            shell.setRequestId("request-1");
+            shell.setShellCommand("ls -l /sdcard");
+            return shell;
+        }
+        AdbStatusMessage status = new AdbStatusMessage(FakeAdb.DEVICE_SERIAL);
+        status.setRequestId("request-1");
+        return status;
+    }
+
+    @Benchmark
+    public Object request() throws Exception {
+        if (binaryRequest != null) {
+            websocket.onMessage(session, binaryRequest.duplicate(), true);
+        } else {
+            websocket.onMessage(session, textRequest, true);
+        }
+        return session.getLastSent();
+    }
+}
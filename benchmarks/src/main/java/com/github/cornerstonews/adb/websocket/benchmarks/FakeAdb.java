@@ -0,0 +1,46 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import com.github.cornerstonews.adb.AdbExecutor;
+import com.github.cornerstonews.adb.AdbManager;
+
+/**
+ * ADB driver answering from memory. The driver classes are only created by the driver itself, so they are stubbed
+ * with Mockito; stub only mocks do not record invocations and add a small constant cost to every call.
+ */
+public abstract class FakeAdb {
+
+    public static final String DEVICE_SERIAL = "emulator-5554";
+
+    /**
+     * @param shellOutput  returned by every shell command
+     * @param pulledSize   size of the files written by pullFile
+     * @return manager with a single online device
+     * @throws Exception
+     */
+    public static AdbManager newManager(String shellOutput, long pulledSize) throws Exception {
+        AdbExecutor executor = mock(AdbExecutor.class, withSettings().stubOnly());
+        when(executor.getDeviceSerial()).thenReturn(DEVICE_SERIAL);
+        when(executor.isOnline()).thenReturn(true);
+        when(executor.executeShellCommand(anyString())).thenReturn(shellOutput);
+        doAnswer(invocation -> {
+            try (RandomAccessFile file = new RandomAccessFile(invocation.<String> getArgument(1), "rw")) {
+                file.setLength(pulledSize);
+            }
+            return null;
+        }).when(executor).pullFile(anyString(), anyString());
+
+        AdbManager manager = mock(AdbManager.class, withSettings().stubOnly());
+        when(manager.getDevice(DEVICE_SERIAL)).thenReturn(executor);
+        when(manager.getDevices()).thenReturn(Collections.singletonList(executor));
+        return manager;
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cornerstonews.adb.AdbExecutor;
+import com.github.cornerstonews.adb.websocket.AdbFileTransferProcessor;
+import com.github.cornerstonews.adb.websocket.AdbWebsocketSender;
+import com.github.cornerstonews.adb.websocket.message.AdbFilePullMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFilePushMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+
+/**
+ * Time to move a whole file through the transfer processor: a push writes the received binary messages to the temp
+ * file, a pull reads the staged temp file and sends it to the in-memory session. The device side is faked, so the
+ * scores cover the server's own copying, checksums and framing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    @State(Scope.Thread)
+    public static class Transfer {
+        @Param({ "65536", "1048576", "16777216" })
+        int fileSize;
+
+        @Param({ "false", "true" })
+        boolean chunked;
+    }
+
+    /**
+     * Client the pulled file is sent to, the encoding decides how the data frames are framed.
+     */
+    @State(Scope.Thread)
+    public static class PullClient {
+        @Param({ "json", "cbor" })
+        String encoding;
+
+        AdbExecutor adbExecutor;
+        InMemorySession session;
+
+        @Setup
+        public void setUp(Transfer transfer) throws Exception {
+            adbExecutor = FakeAdb.newManager("", transfer.fileSize).getDevice(FakeAdb.DEVICE_SERIAL);
+            session = new InMemorySession("benchmark", "cbor".equals(encoding) ? AdbWebsocketMessageCborCodec.SUBPROTOCOL : null);
+        }
+    }
+
+    /**
+     * Binary messages of a push as the client sends them, pulls are sent in frames of the processor's own size. The
+     * data of a push is written the same way whatever the encoding of the messages around it.
+     */
+    @State(Scope.Thread)
+    public static class PushMessages {
+        @Param({ "16384", "65536", "262144" })
+        int chunkSize;
+
+        final List<ByteBuffer> messages = new ArrayList<>();
+        final InMemorySession session = new InMemorySession("benchmark", null);
+
+        @Setup
+        public void setUp(Transfer transfer) {
+            byte[] data = new byte[transfer.fileSize];
+            new Random(42).nextBytes(data);
+            CRC32C checksum = new CRC32C();
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                int length = Math.min(chunkSize, data.length - offset);
+                ByteBuffer message = ByteBuffer.allocate((transfer.chunked ? 12 : 0) + length);
+                if (transfer.chunked) {
+                    checksum.reset();
+                    checksum.update(data, offset, length);
+                    message.putLong(offset).putInt((int) checksum.getValue());
+                }
+                message.put(data, offset, length).flip();
+                messages.add(message);
+            }
+        }
+    }
+
+    @Benchmark
+    public long push(Transfer transfer, PushMessages push) throws Exception {
+        AdbFilePushMessage message = new AdbFilePushMessage(FakeAdb.DEVICE_SERIAL);
+        message.setFullPath("/sdcard/benchmark.bin");
+        message.setSize((long) transfer.fileSize);
+        message.setChunked(transfer.chunked);
+        AdbFileTransferProcessor processor = new AdbFileTransferProcessor(message, push.session);
+        try {
+            for (ByteBuffer data : push.messages) {
+                processor.processFilePush(data.duplicate(), true);
+            }
+            return processor.getTransferedSize();
+        } finally {
+            processor.cleanup();
+        }
+    }
+
+    @Benchmark
+    public long pull(Transfer transfer, PullClient client) throws Exception {
+        AdbFilePullMessage message = new AdbFilePullMessage(FakeAdb.DEVICE_SERIAL);
+        message.setFullPath("/sdcard/benchmark.bin");
+        message.setChunked(transfer.chunked);
+        AdbFileTransferProcessor processor = new AdbFileTransferProcessor(message, client.session);
+        try {
+            processor.processFilePull(client.adbExecutor, new AdbWebsocketSender(client.session));
+            return client.session.getSentBytes();
+        } finally {
+            processor.cleanup();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Extension;
+import javax.websocket.MessageHandler;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+/**
+ * Session whose async remote completes every send at once, so a benchmark measures the endpoint and not a network.
+ * Sent messages are counted and the last one is kept for the benchmark to consume.
+ */
+public class InMemorySession implements Session {
+
+    private final String id;
+    private final String subprotocol;
+    private final Map<String, Object> userProperties = new HashMap<>();
+    private final InMemoryRemote remote = new InMemoryRemote();
+    private volatile boolean open = true;
+
+    /**
+     * @param id
+     * @param subprotocol negotiated subprotocol, null for JSON text messages
+     */
+    public InMemorySession(String id, String subprotocol) {
+        this.id = id;
+        this.subprotocol = subprotocol;
+    }
+
+    public long getSentCount() {
+        return remote.sentCount;
+    }
+
+    public long getSentBytes() {
+        return remote.sentBytes;
+    }
+
+    public Object getLastSent() {
+        return remote.lastSent;
+    }
+
+    @Override
+    public RemoteEndpoint.Async getAsyncRemote() {
+        return remote;
+    }
+
+    @Override
+    public RemoteEndpoint.Basic getBasicRemote() {
+        throw new UnsupportedOperationException("Only the async remote is used.");
+    }
+
+    @Override
+    public String getNegotiatedSubprotocol() {
+        return subprotocol;
+    }
+
+    @Override
+    public List<Extension> getNegotiatedExtensions() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public void close(CloseReason closeReason) {
+        open = false;
+    }
+
+    @Override
+    public Map<String, Object> getUserProperties() {
+        return userProperties;
+    }
+
+    @Override
+    public WebSocketContainer getContainer() {
+        return null;
+    }
+
+    @Override
+    public void addMessageHandler(MessageHandler handler) {
+    }
+
+    @Override
+    public <T> void addMessageHandler(Class<T> clazz, MessageHandler.Whole<T> handler) {
+    }
+
+    @Override
+    public <T> void addMessageHandler(Class<T> clazz, MessageHandler.Partial<T> handler) {
+    }
+
+    @Override
+    public Set<MessageHandler> getMessageHandlers() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void removeMessageHandler(MessageHandler handler) {
+    }
+
+    @Override
+    public String getProtocolVersion() {
+        return "13";
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public long getMaxIdleTimeout() {
+        return 0;
+    }
+
+    @Override
+    public void setMaxIdleTimeout(long milliseconds) {
+    }
+
+    @Override
+    public void setMaxBinaryMessageBufferSize(int length) {
+    }
+
+    @Override
+    public int getMaxBinaryMessageBufferSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setMaxTextMessageBufferSize(int length) {
+    }
+
+    @Override
+    public int getMaxTextMessageBufferSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestParameterMap() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public String getQueryString() {
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getPathParameters() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    @Override
+    public Set<Session> getOpenSessions() {
+        return Collections.singleton(this);
+    }
+
+    private static class InMemoryRemote implements RemoteEndpoint.Async {
+        private static final SendResult OK = new SendResult();
+
+        private volatile long sentCount;
+        private volatile long sentBytes;
+        private volatile Object lastSent;
+
+        private void sent(Object message, int size) {
+            sentCount++;
+            sentBytes += size;
+            lastSent = message;
+        }
+
+        @Override
+        public void sendText(String text, SendHandler handler) {
+            sent(text, text.length());
+            handler.onResult(OK);
+        }
+
+        @Override
+        public Future<Void> sendText(String text) {
+            sent(text, text.length());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data, SendHandler handler) {
+            sent(data, data.remaining());
+            handler.onResult(OK);
+        }
+
+        @Override
+        public Future<Void> sendBinary(ByteBuffer data) {
+            sent(data, data.remaining());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendObject(Object data, SendHandler handler) {
+            sent(data, 0);
+            handler.onResult(OK);
+        }
+
+        @Override
+        public Future<Void> sendObject(Object data) {
+            sent(data, 0);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public long getSendTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setSendTimeout(long timeout) {
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean allowed) {
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return false;
+        }
+
+        @Override
+        public void flushBatch() {
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) {
+        }
+    }
+}
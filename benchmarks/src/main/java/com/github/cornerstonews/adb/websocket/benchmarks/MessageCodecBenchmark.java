@@ -0,0 +1,172 @@
+package com.github.cornerstonews.adb.websocket.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFileEntry;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallApk;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatEntry;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketBinaryFrame;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageDecoder;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Marshal and unmarshal throughput of the JSON and CBOR encodings, per message type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MessageCodecBenchmark {
+
+    private static final AdbWebsocketMessageDecoder DECODER = new AdbWebsocketMessageDecoder();
+
+    @Param({ "STATUS", "SHELL_COMMAND", "DIRECTORY_GET", "LOGCAT_SUBSCRIBE", "INSTALL" })
+    private AdbWebsocketMessageType messageType;
+
+    private AdbWebsocketMessage message;
+    private String json;
+    private ByteBuffer cbor;
+
+    @Setup
+    public void setUp() throws Exception {
+        message = newMessage(messageType);
+        json = JAXBUtils.marshalToJSON(message);
+        cbor = AdbWebsocketMessageCborCodec.encode(message);
+    }
+
+    @Benchmark
+    public String marshalJson() throws Exception {
+        return JAXBUtils.marshalToJSON(message);
+    }
+
+    @Benchmark
+    public AdbWebsocketMessage unmarshalJson() throws Exception {
+        return DECODER.decode(json);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeCbor() throws Exception {
+        return AdbWebsocketMessageCborCodec.encode(message);
+    }
+
+    @Benchmark
+    public AdbWebsocketBinaryFrame decodeCbor() throws Exception {
+        return AdbWebsocketMessageCborCodec.decode(cbor.duplicate());
+    }
+
+    /**
+     * @param messageType
+     * @return a reply as the server sends it, with typical content
+     */
+    static AdbWebsocketMessage newMessage(AdbWebsocketMessageType messageType) {
+        switch (messageType) {
+            case STATUS:
+                AdbStatusMessage status = new AdbStatusMessage(FakeAdb.DEVICE_SERIAL);
+                status.setRequestId("request-1");
+                status.setStatus("online");
+                status.setStatusCode(200);
+                status.setMessage("Status successfully executed.");
+                return status;
+
+            case SHELL_COMMAND:
+                AdbShellCommandMessage shell = new AdbShellCommandMessage(FakeAdb.DEVICE_SERIAL);
+                shell.setRequestId("request-1");
+                shell.setShellCommand("ls -l /sdcard");
+                shell.setShellCommandOutput(shellOutput(4096));
+                shell.setStatusCode(200);
+                shell.setMessage("Command successfully executed.");
+                return shell;
+
+            case DIRECTORY_GET:
+                List<AdbFileEntry> entries = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    AdbFileEntry entry = new AdbFileEntry();
+                    entry.setName("file-" + i + ".txt");
+                    entry.setFullPath("/sdcard/file-" + i + ".txt");
+                    entry.setDirectory(false);
+                    entry.setSize(4096L);
+                    entry.setPermissions("-rw-rw----");
+                    entry.setOwner("root");
+                    entry.setGroup("sdcard_rw");
+                    entry.setDate("2026-10-17");
+                    entry.setTime("12:34");
+                    entries.add(entry);
+                }
+                AdbDirectoryGetMessage directory = new AdbDirectoryGetMessage(FakeAdb.DEVICE_SERIAL);
+                directory.setRequestId("request-1");
+                directory.setPath("/sdcard");
+                directory.setEntries(entries);
+                directory.setStatusCode(200);
+                return directory;
+
+            case LOGCAT_SUBSCRIBE:
+                List<AdbLogcatEntry> lines = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    AdbLogcatEntry line = new AdbLogcatEntry();
+                    line.setSequence((long) i);
+                    line.setTimestamp("10-17 12:34:56.789");
+                    line.setPid(1234);
+                    line.setTid(1234 + i % 8);
+                    line.setPriority("I");
+                    line.setTag("ActivityManager");
+                    line.setMessage("Start proc " + i + ":com.example.app/u0a123 for activity");
+                    lines.add(line);
+                }
+                AdbLogcatMessage logcat = new AdbLogcatMessage(FakeAdb.DEVICE_SERIAL);
+                logcat.setRequestId("request-1");
+                logcat.setEntries(lines);
+                logcat.setDropped(0L);
+                logcat.setStatusCode(206);
+                return logcat;
+
+            case INSTALL:
+                AdbInstallMessage install = new AdbInstallMessage(FakeAdb.DEVICE_SERIAL);
+                install.setRequestId("request-1");
+                install.setInstallId("install-1");
+                install.setApks(Arrays.asList(new AdbInstallApk("base.apk", 25_000_000L), new AdbInstallApk("split_config.arm64_v8a.apk", 4_000_000L)));
+                install.setOptions(Arrays.asList("-r", "-g"));
+                install.setTransferredSize(12_000_000L);
+                install.setTotalSize(29_000_000L);
+                install.setStatusCode(206);
+                return install;
+
+            default:
+                throw new IllegalArgumentException("No sample message of type " + messageType);
+        }
+    }
+
+    static String shellOutput(int size) {
+        StringBuilder output = new StringBuilder(size);
+        while (output.length() < size) {
+            output.append("-rw-rw---- 1 root sdcard_rw   4096 2026-10-17 12:34 file-").append(output.length()).append(".txt\n");
+        }
+        output.setLength(size);
+        return output.toString();
+    }
+}
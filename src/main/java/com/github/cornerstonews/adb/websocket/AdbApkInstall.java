@@ -0,0 +1,401 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.message.AdbInstallApk;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallMessage;
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Install of an app streamed into a package manager install session on the device, the APKs are neither staged on the
+ * server nor on device storage. Each APK is written to the session over its own connection as its data arrives, the
+ * APKs of a split app can be uploaded in parallel with their frames interleaved in any order. The session is committed
+ * once every APK has been written completely. Progress is sent every {@link #PROGRESS_INTERVAL} bytes and whenever an
+ * APK is complete.
+ */
+public class AdbApkInstall {
+
+    private static final Logger LOG = LogManager.getLogger(AdbApkInstall.class);
+
+    public static final int MAX_APKS = 64;
+    public static final long PROGRESS_INTERVAL = 1024 * 1024;
+
+    private static final int DEFAULT_TIMEOUT = 1000 * 30;
+    // Committing runs dexopt on the device and can take minutes for large apps.
+    private static final int COMMIT_TIMEOUT = 1000 * 60 * 5;
+    private static final Pattern APK_NAME = Pattern.compile("^[A-Za-z0-9._-]+\\.apk$");
+    private static final Pattern OPTION = Pattern.compile("^--?[a-z][a-z-]*$");
+    private static final Pattern SESSION_ID = Pattern.compile("\\[(\\d+)\\]");
+
+    private static final ExecutorService INSTALL_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-install");
+    private static final Map<String, AdbApkInstall> installs = new ConcurrentHashMap<>();
+
+    private final String installId = UUID.randomUUID().toString();
+    private final Session session;
+    private final String deviceSerial;
+    private final String requestId;
+    private final AdbWebsocketSender sender;
+    private final String packageCommand;
+    private final String sessionId;
+    private final List<ApkWriter> writers = new ArrayList<>();
+    private final long totalSize;
+    // Claimed once by whichever of commit, abort or failure comes first.
+    private final AtomicBoolean finished = new AtomicBoolean();
+    // Only used by the receiving thread of the session.
+    private long transferredSize;
+    private long progressSize;
+    // Guarded by this.
+    private int remainingApks;
+
+    private AdbApkInstall(AdbInstallMessage request, AdbWebsocketSender sender, Session session, String packageCommand, String sessionId, long totalSize) {
+        this.session = session;
+        this.deviceSerial = request.getDeviceSerial();
+        this.requestId = request.getRequestId();
+        this.sender = sender;
+        this.packageCommand = packageCommand;
+        this.sessionId = sessionId;
+        this.totalSize = totalSize;
+        this.remainingApks = request.getApks().size();
+    }
+
+    /**
+     * Creates the install session on the device and opens a connection for every APK.
+     *
+     * @param request
+     * @param sender
+     * @param session
+     * @return
+     * @throws IOException              when the device refused the install
+     * @throws IllegalArgumentException when the APKs or options are invalid
+     */
+    public static AdbApkInstall start(AdbInstallMessage request, AdbWebsocketSender sender, Session session) throws IOException {
+        validate(request);
+
+        // Devices before Android 7 have no cmd, pm does the same a lot slower.
+        String features = AdbServerProtocol.getFeatures(request.getDeviceSerial(), DEFAULT_TIMEOUT);
+        String packageCommand = Arrays.asList(features.split(",")).contains("cmd") ? "cmd package" : "pm";
+        long totalSize = request.getApks().stream().mapToLong(AdbInstallApk::getSize).sum();
+        String options = (request.getOptions() == null) ? "" : " " + String.join(" ", request.getOptions());
+        String output = AdbServerProtocol.exec(request.getDeviceSerial(), packageCommand + " install-create -S " + totalSize + options, DEFAULT_TIMEOUT);
+        Matcher matcher = SESSION_ID.matcher(output);
+        if (!output.startsWith("Success") || !matcher.find()) {
+            throw new IOException("Install session not created: " + output.trim());
+        }
+
+        AdbApkInstall install = new AdbApkInstall(request, sender, session, packageCommand, matcher.group(1), totalSize);
+        try {
+            for (AdbInstallApk apk : request.getApks()) {
+                install.writers.add(install.openWriter(apk));
+            }
+        } catch (IOException e) {
+            install.fail(null, false);
+            throw e;
+        }
+
+        installs.put(install.installId, install);
+        LOG.debug("Session '{}' started install '{}' of {} APKs on device '{}'", session.getId(), install.installId, install.writers.size(), install.deviceSerial);
+        return install;
+    }
+
+    private static void validate(AdbInstallMessage request) {
+        if (request.getApks() == null || request.getApks().isEmpty() || request.getApks().size() > MAX_APKS) {
+            throw new IllegalArgumentException("Install requires 1 to " + MAX_APKS + " APKs.");
+        }
+        for (AdbInstallApk apk : request.getApks()) {
+            if (apk.getName() == null || !APK_NAME.matcher(apk.getName()).matches() || apk.getSize() == null || apk.getSize() <= 0) {
+                throw new IllegalArgumentException("Invalid APK '" + apk.getName() + "', name must end with .apk and size must be set.");
+            }
+        }
+        if (request.getOptions() != null) {
+            for (String option : request.getOptions()) {
+                if (option == null || !OPTION.matcher(option).matches()) {
+                    throw new IllegalArgumentException("Invalid install option '" + option + "'.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param session
+     * @param installId
+     * @return install of the session or null
+     */
+    public static AdbApkInstall get(Session session, String installId) {
+        AdbApkInstall install = (installId == null) ? null : installs.get(installId);
+        return (install == null || install.session != session) ? null : install;
+    }
+
+    /**
+     * Abandons the installs of a closed session.
+     *
+     * @param session
+     */
+    public static void abortAll(Session session) {
+        for (AdbApkInstall install : installs.values()) {
+            if (install.session == session) {
+                install.fail(null, false);
+            }
+        }
+    }
+
+    public String getInstallId() {
+        return installId;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Writes data of an APK to the install session, called by the receiving thread of the session. A complete APK is
+     * closed and checked on the install executor, the last one commits the install.
+     *
+     * @param apk  index of the APK
+     * @param data
+     * @throws IOException when writing failed or the data does not fit the APK
+     */
+    public void write(Integer apk, ByteBuffer data) throws IOException {
+        if (apk == null || apk < 0 || apk >= writers.size()) {
+            throw new IOException("Unknown APK index: " + apk);
+        }
+
+        ApkWriter writer = writers.get(apk);
+        int length = data.remaining();
+        writer.write(data);
+        transferredSize += length;
+        AdbWebsocketMetrics.recordTransferBytes(length);
+
+        if (writer.isComplete()) {
+            INSTALL_EXECUTOR.execute(() -> finishApk(writer));
+            sendProgress();
+        } else if (transferredSize - progressSize >= PROGRESS_INTERVAL) {
+            sendProgress();
+        }
+    }
+
+    /**
+     * Abandons the install on request of the client.
+     *
+     * @return false when the install is already being committed or has ended, it is then left alone
+     */
+    public boolean abort() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        abandon("Install aborted.", true);
+        return true;
+    }
+
+    /**
+     * Abandons the install and sends the client the error.
+     *
+     * @param error
+     */
+    public void fail(String error) {
+        fail(error, false);
+    }
+
+    private ApkWriter openWriter(AdbInstallApk apk) throws IOException {
+        SocketChannel channel = AdbServerProtocol.connectChannel(DEFAULT_TIMEOUT);
+        try {
+            DataInputStream inputStream = new DataInputStream(channel.socket().getInputStream());
+            AdbServerProtocol.sendRequest(inputStream, channel.socket().getOutputStream(), "host:transport:" + deviceSerial);
+            AdbServerProtocol.sendRequest(inputStream, channel.socket().getOutputStream(),
+                    "exec:" + packageCommand + " install-write -S " + apk.getSize() + " " + sessionId + " " + apk.getName() + " -");
+            return new ApkWriter(apk, channel, inputStream);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void finishApk(ApkWriter writer) {
+        boolean commit;
+        try {
+            String output = writer.finish();
+            if (!output.startsWith("Success")) {
+                fail("Install error. Writing " + writer.name + " failed: " + output.trim(), false);
+                return;
+            }
+            synchronized (this) {
+                commit = --remainingApks == 0;
+            }
+        } catch (IOException e) {
+            LOG.error("Error writing APK to install session, Error: '{}'", e.getMessage(), e);
+            fail("Install error. Error: " + e.getMessage(), false);
+            return;
+        }
+
+        if (commit) {
+            commit();
+        }
+    }
+
+    private void commit() {
+        // Claimed before committing, an abort that comes in while the device installs is refused.
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            String output = AdbServerProtocol.exec(deviceSerial, packageCommand + " install-commit " + sessionId, COMMIT_TIMEOUT);
+            installs.remove(installId, this);
+
+            boolean success = output.startsWith("Success");
+            LOG.debug("Install '{}' on device '{}' committed, success: {}", installId, deviceSerial, success);
+            AdbInstallMessage message = newMessage();
+            message.setOutput(output.trim());
+            message.setStatusCode(success ? 200 : 400);
+            message.setMessage(success ? "Install successful." : "Install failed.");
+            sender.sendMessage(message);
+        } catch (IOException | JAXBException e) {
+            LOG.error("Error committing install, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error committing install '{}' on device '{}', Error: '{}'", installId, deviceSerial, e.getMessage());
+            abandon("Install error. Error: " + e.getMessage(), false);
+        }
+    }
+
+    /**
+     * Abandons the install unless it is being committed or has already ended.
+     *
+     * @param reason  sent to the client, or null when the client is gone
+     * @param aborted true when the client asked for it
+     */
+    private void fail(String reason, boolean aborted) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        abandon(reason, aborted);
+    }
+
+    /**
+     * Closes the connections and abandons the install session, the caller has claimed finished.
+     *
+     * @param reason  sent to the client, or null when the client is gone
+     * @param aborted true when the client asked for it
+     */
+    private void abandon(String reason, boolean aborted) {
+        installs.remove(installId, this);
+
+        for (ApkWriter writer : writers) {
+            writer.close();
+        }
+        INSTALL_EXECUTOR.execute(() -> {
+            try {
+                AdbServerProtocol.exec(deviceSerial, packageCommand + " install-abandon " + sessionId, DEFAULT_TIMEOUT);
+            } catch (IOException e) {
+                LOG.debug("Error abandoning install session {} on device '{}', Error: '{}'", sessionId, deviceSerial, e.getMessage());
+            }
+        });
+
+        if (reason == null || !session.isOpen()) {
+            return;
+        }
+        AdbInstallMessage message = newMessage();
+        message.setStatusCode(aborted ? 200 : 400);
+        message.setMessage(reason);
+        try {
+            sender.sendMessage(message);
+        } catch (JAXBException e) {
+            LOG.error("Error sending install error, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private void sendProgress() {
+        progressSize = transferredSize;
+        AdbInstallMessage message = newMessage();
+        List<AdbInstallApk> apks = new ArrayList<>();
+        for (ApkWriter writer : writers) {
+            AdbInstallApk apk = new AdbInstallApk(writer.name, writer.size);
+            apk.setTransferredSize(writer.written);
+            apks.add(apk);
+        }
+        message.setApks(apks);
+        message.setTransferredSize(transferredSize);
+        message.setTotalSize(totalSize);
+        message.setStatusCode(206);
+        try {
+            sender.sendMessage(message);
+        } catch (JAXBException e) {
+            LOG.error("Error sending install progress, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private AdbInstallMessage newMessage() {
+        AdbInstallMessage message = new AdbInstallMessage(deviceSerial);
+        message.setRequestId(requestId);
+        message.setInstallId(installId);
+        return message;
+    }
+
+    private static class ApkWriter {
+        private final String name;
+        private final long size;
+        private final SocketChannel channel;
+        private final DataInputStream inputStream;
+        // Only written by the receiving thread of the session.
+        private volatile long written;
+
+        private ApkWriter(AdbInstallApk apk, SocketChannel channel, DataInputStream inputStream) {
+            this.name = apk.getName();
+            this.size = apk.getSize();
+            this.channel = channel;
+            this.inputStream = inputStream;
+        }
+
+        private void write(ByteBuffer data) throws IOException {
+            if (data.remaining() > size - written) {
+                throw new IOException("More data than the size of " + name + ".");
+            }
+            int length = data.remaining();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            written += length;
+        }
+
+        private boolean isComplete() {
+            return written == size;
+        }
+
+        /**
+         * @return output of the package manager for this APK
+         * @throws IOException
+         */
+        private String finish() throws IOException {
+            try {
+                channel.shutdownOutput();
+                return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing install connection of '{}', Error: '{}'", name, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.websocket.Session;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.AdbExecutor;
+import com.github.cornerstonews.adb.AdbManager;
+import com.github.cornerstonews.adb.websocket.AdbDeviceScheduler.CommandClass;
+import com.github.cornerstonews.adb.websocket.message.AdbBatchMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbRebootMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+
+/**
+ * Runs the command of a {@link AdbBatchMessage} on its devices. At most maxConcurrency devices run at a time, each
+ * device command still waits for its turn in the {@link AdbDeviceScheduler}. A device result is sent as soon as it
+ * completes, the summary once all devices are done.
+ */
+public class AdbBatchRunner {
+
+    private static final Logger LOG = LogManager.getLogger(AdbBatchRunner.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int MAX_CONCURRENCY = 64;
+
+    private final AdbWebsocket websocket;
+    private final AdbManager adbManager;
+    private final Executor executor;
+    private final AdbBatchMessage batch;
+    private final Session session;
+
+    private final AtomicInteger nextDevice = new AtomicInteger();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final List<String> failedDevices = Collections.synchronizedList(new ArrayList<>());
+    private List<String> deviceSerials;
+
+    public AdbBatchRunner(AdbWebsocket websocket, AdbManager adbManager, Executor executor, AdbBatchMessage batch, Session session) {
+        this.websocket = websocket;
+        this.adbManager = adbManager;
+        this.executor = executor;
+        this.batch = batch;
+        this.session = session;
+    }
+
+    /**
+     * Starts the first devices and returns, the remaining devices are started as others complete.
+     *
+     * @param deviceSerials
+     */
+    public void start(List<String> deviceSerials) {
+        this.deviceSerials = deviceSerials;
+        this.remaining.set(deviceSerials.size());
+        if (deviceSerials.isEmpty()) {
+            sendSummary();
+            return;
+        }
+
+        int concurrency = (batch.getMaxConcurrency() == null) ? DEFAULT_MAX_CONCURRENCY : batch.getMaxConcurrency();
+        concurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+        for (int i = 0; i < concurrency; i++) {
+            startNext();
+        }
+    }
+
+    private void startNext() {
+        int index = nextDevice.getAndIncrement();
+        if (index >= deviceSerials.size()) {
+            return;
+        }
+
+        String serial = deviceSerials.get(index);
+        CommandClass commandClass = AdbDeviceScheduler.getCommandClass(batch.getCommand());
+        try {
+            if (commandClass == null) {
+                executor.execute(() -> runOnDevice(serial));
+            } else {
+                AdbDeviceScheduler.execute(serial, commandClass, session, executor, () -> runOnDevice(serial), e -> rejectDevice(serial, e));
+            }
+        } catch (RejectedExecutionException e) {
+            rejectDevice(serial, e);
+        }
+    }
+
+    private void rejectDevice(String serial, RejectedExecutionException e) {
+        LOG.info("Batch command rejected for device '{}', Error: '{}'", serial, e.getMessage());
+        AdbWebsocketMessage result = newResult(serial);
+        websocket.sendError("Device busy. " + e.getMessage(), result, session);
+        completeDevice(serial, false);
+    }
+
+    private void runOnDevice(String serial) {
+        AdbWebsocketMessage result = newResult(serial);
+        boolean success = false;
+        try {
+            AdbExecutor adbExecutor = adbManager.getDevice(serial);
+            if (adbExecutor == null) {
+                websocket.sendError("Device not found.", result, session);
+                return;
+            }
+
+            switch (batch.getCommand()) {
+                case SHELL_COMMAND:
+                    ((AdbShellCommandMessage) result).setShellCommandOutput(adbExecutor.executeShellCommand(batch.getShellCommand()));
+                    websocket.sendSuccess(200, "Command successfully executed.", result, session);
+                    break;
+
+                case REBOOT:
+                    adbExecutor.reboot();
+                    AdbDeviceCache.invalidateDevice(serial);
+                    websocket.sendSuccess(200, "Phone reboot command successfully executed.", result, session);
+                    break;
+
+                default:
+                    boolean online = AdbDeviceCache.getStatusCache().get(serial, key -> adbExecutor.isOnline());
+                    ((AdbStatusMessage) result).setStatus(online ? "online" : "offline");
+                    websocket.sendSuccess(200, "Status successfully executed.", result, session);
+                    break;
+            }
+            success = true;
+        } catch (Exception e) {
+            LOG.error("Error running batch command on device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error running batch command on device '{}', Error: '{}'", serial, e.getMessage());
+            websocket.sendError("Error running command. Error: " + e.getMessage(), result, session);
+        } finally {
+            completeDevice(serial, success);
+        }
+    }
+
+    private AdbWebsocketMessage newResult(String serial) {
+        AdbWebsocketMessage result;
+        switch (batch.getCommand()) {
+            case SHELL_COMMAND:
+                AdbShellCommandMessage shellMessage = new AdbShellCommandMessage(serial);
+                shellMessage.setShellCommand(batch.getShellCommand());
+                result = shellMessage;
+                break;
+            case REBOOT:
+                result = new AdbRebootMessage(serial);
+                break;
+            default:
+                result = new AdbStatusMessage(serial);
+                break;
+        }
+        result.setRequestId(batch.getRequestId());
+        return result;
+    }
+
+    private void completeDevice(String serial, boolean success) {
+        if (success) {
+            succeeded.incrementAndGet();
+        } else {
+            failedDevices.add(serial);
+        }
+
+        if (remaining.decrementAndGet() == 0) {
+            sendSummary();
+        } else {
+            startNext();
+        }
+    }
+
+    private void sendSummary() {
+        batch.setDeviceSerials(deviceSerials);
+        batch.setTotal(deviceSerials.size());
+        batch.setSucceeded(succeeded.get());
+        batch.setFailedDevices(new ArrayList<>(failedDevices));
+        try {
+            websocket.sendSuccess(200, "Batch command completed.", batch, session);
+        } catch (Exception e) {
+            LOG.error("Error sending batch summary, Error: '{}'", e.getMessage(), e);
+        }
+    }
+}
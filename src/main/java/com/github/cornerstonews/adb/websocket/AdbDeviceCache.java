@@ -0,0 +1,94 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.util.Objects;
+
+import com.github.cornerstonews.adb.DeviceDO;
+import com.github.cornerstonews.adb.FileNode;
+import com.github.cornerstonews.util.TtlCache;
+
+/**
+ * Device information, online status and directory listings shared by all sessions, so clients polling many devices do
+ * not query ADB on every request. Entries of a device are invalidated when it is rebooted and listings of a path when a
+ * file is pushed to it. Changes made through shell commands are only seen once the entries expire.
+ */
+public abstract class AdbDeviceCache {
+
+    public static final long DEFAULT_DEVICE_INFO_TTL_MILLIS = 1000 * 30;
+    public static final long DEFAULT_STATUS_TTL_MILLIS = 1000 * 5;
+    public static final long DEFAULT_DIRECTORY_TTL_MILLIS = 1000 * 10;
+
+    private static final TtlCache<String, DeviceDO> deviceInfoCache = new TtlCache<>(DEFAULT_DEVICE_INFO_TTL_MILLIS, 1024);
+    private static final TtlCache<String, Boolean> statusCache = new TtlCache<>(DEFAULT_STATUS_TTL_MILLIS, 1024);
+    private static final TtlCache<DirectoryKey, FileNode> directoryCache = new TtlCache<>(DEFAULT_DIRECTORY_TTL_MILLIS, 4096);
+
+    public static TtlCache<String, DeviceDO> getDeviceInfoCache() {
+        return deviceInfoCache;
+    }
+
+    public static TtlCache<String, Boolean> getStatusCache() {
+        return statusCache;
+    }
+
+    public static TtlCache<DirectoryKey, FileNode> getDirectoryCache() {
+        return directoryCache;
+    }
+
+    public static void invalidateDevice(String deviceSerial) {
+        deviceInfoCache.invalidate(deviceSerial);
+        statusCache.invalidate(deviceSerial);
+        directoryCache.invalidateIf(key -> Objects.equals(key.deviceSerial, deviceSerial));
+        AdbShellCommandCoalescer.invalidateDevice(deviceSerial);
+    }
+
+    /**
+     * Invalidates the listings of the path and of its parent directory.
+     *
+     * @param deviceSerial
+     * @param path
+     */
+    public static void invalidatePath(String deviceSerial, String path) {
+        String normalizedPath = normalize(path);
+        int separator = normalizedPath.lastIndexOf('/');
+        String parent = (separator <= 0) ? "/" : normalizedPath.substring(0, separator);
+        directoryCache.invalidateIf(key -> Objects.equals(key.deviceSerial, deviceSerial) && (key.path.equals(normalizedPath) || key.path.equals(parent)));
+    }
+
+    public static DirectoryKey directoryKey(String deviceSerial, String path, Boolean getChildren) {
+        return new DirectoryKey(deviceSerial, normalize(path), Boolean.TRUE.equals(getChildren));
+    }
+
+    private static String normalize(String path) {
+        String normalizedPath = (path == null) ? "" : path.replaceAll("/+", "/");
+        return (normalizedPath.length() > 1 && normalizedPath.endsWith("/")) ? normalizedPath.substring(0, normalizedPath.length() - 1) : normalizedPath;
+    }
+
+    public static final class DirectoryKey {
+        private final String deviceSerial;
+        private final String path;
+        private final boolean getChildren;
+
+        private DirectoryKey(String deviceSerial, String path, boolean getChildren) {
+            this.deviceSerial = deviceSerial;
+            this.path = path;
+            this.getChildren = getChildren;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DirectoryKey)) {
+                return false;
+            }
+            DirectoryKey other = (DirectoryKey) obj;
+            return getChildren == other.getChildren && Objects.equals(deviceSerial, other.deviceSerial) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceSerial, path, getChildren);
+        }
+    }
+}
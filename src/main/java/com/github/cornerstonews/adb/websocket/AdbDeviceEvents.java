@@ -0,0 +1,137 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
+import com.android.ddmlib.IDevice;
+import com.github.cornerstonews.adb.websocket.message.AdbSubscribeMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Sends device attach, detach and state changes to subscribed sessions. Each event is marshalled once per encoding and
+ * the same frame is queued on every matching session. The events also keep {@link AdbDeviceCache} up to date.
+ *
+ * AdbManager has no listener API, events come from the ddmlib bridge it creates.
+ */
+public abstract class AdbDeviceEvents {
+
+    private static final Logger LOG = LogManager.getLogger(AdbDeviceEvents.class);
+
+    private static final Map<Session, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private static final IDeviceChangeListener LISTENER = new IDeviceChangeListener() {
+        @Override
+        public void deviceConnected(IDevice device) {
+            AdbDeviceCache.invalidateDevice(device.getSerialNumber());
+            publish(AdbSubscribeMessage.EVENT_ADDED, device);
+        }
+
+        @Override
+        public void deviceDisconnected(IDevice device) {
+            AdbDeviceCache.invalidateDevice(device.getSerialNumber());
+            publish(AdbSubscribeMessage.EVENT_REMOVED, device);
+        }
+
+        @Override
+        public void deviceChanged(IDevice device, int changeMask) {
+            if ((changeMask & IDevice.CHANGE_BUILD_INFO) != 0) {
+                AdbDeviceCache.getDeviceInfoCache().invalidate(device.getSerialNumber());
+            }
+            if ((changeMask & IDevice.CHANGE_STATE) != 0) {
+                AdbDeviceCache.getStatusCache().invalidate(device.getSerialNumber());
+                publish(AdbSubscribeMessage.EVENT_STATE_CHANGED, device);
+            }
+        }
+    };
+
+    private static boolean listening;
+
+    /**
+     * @param session
+     * @param sender
+     * @param deviceSerial only send events of this device, null for all devices
+     */
+    public static void subscribe(Session session, AdbWebsocketSender sender, String deviceSerial) {
+        startListening();
+        subscriptions.put(session, new Subscription(sender, deviceSerial));
+    }
+
+    public static void unsubscribe(Session session) {
+        subscriptions.remove(session);
+    }
+
+    public static int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    private static synchronized void startListening() {
+        if (!listening) {
+            AndroidDebugBridge.addDeviceChangeListener(LISTENER);
+            listening = true;
+        }
+    }
+
+    private static void publish(String event, IDevice device) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        String serial = device.getSerialNumber();
+        AdbSubscribeMessage eventMessage = new AdbSubscribeMessage(serial);
+        eventMessage.setEvent(event);
+        eventMessage.setState((device.getState() == null) ? null : device.getState().toString());
+        eventMessage.setStatusCode(200);
+
+        String text;
+        ByteBuffer binary;
+        try {
+            text = JAXBUtils.marshalToJSON(eventMessage);
+            binary = AdbWebsocketMessageCborCodec.encode(eventMessage);
+        } catch (JAXBException e) {
+            LOG.error("Error marshalling device event, Error: '{}'", e.getMessage(), e);
+            return;
+        }
+
+        LOG.debug("Publishing device event '{}' for device '{}'", event, serial);
+        // A newer event of the device replaces a queued one of the same kind, so a burst of changes to a slow client
+        // leaves it with the latest state.
+        String supersedeKey = AdbWebsocketSender.getSupersedeKey(eventMessage);
+        // Runs on the ddmlib listener thread, an event a client has no room for is dropped rather than waited for.
+        subscriptions.forEach((session, subscription) -> {
+            if (subscription.deviceSerial == null || Objects.equals(subscription.deviceSerial, serial)) {
+                AdbWebsocketSender sender = subscription.sender;
+                CompletableFuture<Void> sent = sender.isBinaryProtocol() ? sender.trySendBinary(binary.duplicate(), supersedeKey)
+                        : sender.trySendText(text, supersedeKey);
+                sent.whenComplete((result, error) -> {
+                    if (error instanceof CancellationException) {
+                        LOG.debug("Dropped device event '{}' for session '{}', its queue is full.", event, session.getId());
+                    } else if (error != null) {
+                        LOG.error("Error sending device event to client, Error: '{}'", error.getMessage(), error);
+                    }
+                });
+            }
+        });
+    }
+
+    private static class Subscription {
+        private final AdbWebsocketSender sender;
+        private final String deviceSerial;
+
+        private Subscription(AdbWebsocketSender sender, String deviceSerial) {
+            this.sender = sender;
+            this.deviceSerial = deviceSerial;
+        }
+    }
+}
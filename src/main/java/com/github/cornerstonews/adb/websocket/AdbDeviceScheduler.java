@@ -0,0 +1,283 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+
+/**
+ * Orders the commands all sessions run on a device. Each device has a queue per command class with its own concurrency
+ * limit, so long file syncs and streamed output do not hold up interactive shell commands. Within a class, sessions
+ * take turns, a session queuing many commands does not delay a single command of another session by more than one
+ * command per turn.
+ */
+public abstract class AdbDeviceScheduler {
+
+    private static final Logger LOG = LogManager.getLogger(AdbDeviceScheduler.class);
+
+    public enum CommandClass {
+        SHELL, SYNC, CONTROL,
+        // Commands that run for as long as their output is streamed, such as directory walks and streamed shell commands.
+        STREAM
+    }
+
+    public static final int DEFAULT_MAX_QUEUED_PER_DEVICE = 256;
+
+    private static final Map<String, DeviceQueue> deviceQueues = new ConcurrentHashMap<>();
+    private static final Map<CommandClass, Integer> maxConcurrency = new ConcurrentHashMap<>();
+    private static final LongAdder rejected = new LongAdder();
+    private static volatile int maxQueuedPerDevice = DEFAULT_MAX_QUEUED_PER_DEVICE;
+
+    static {
+        maxConcurrency.put(CommandClass.SHELL, 4);
+        maxConcurrency.put(CommandClass.SYNC, 2);
+        maxConcurrency.put(CommandClass.CONTROL, 1);
+        maxConcurrency.put(CommandClass.STREAM, 4);
+    }
+
+    /**
+     * @param messageType
+     * @return class the message is scheduled in or null if it does not need to wait for the device
+     */
+    public static CommandClass getCommandClass(AdbWebsocketMessageType messageType) {
+        if (messageType == null) {
+            return null;
+        }
+
+        switch (messageType) {
+            case SHELL_COMMAND:
+                return CommandClass.SHELL;
+            case DIRECTORY_GET:
+                return CommandClass.STREAM;
+            case FILE_PULL:
+                return CommandClass.SYNC;
+            case REBOOT:
+                return CommandClass.CONTROL;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param adbMessage
+     * @return class the message is scheduled in or null if it does not need to wait for the device
+     */
+    public static CommandClass getCommandClass(AdbWebsocketMessage adbMessage) {
+        if (adbMessage instanceof AdbShellCommandMessage && Boolean.TRUE.equals(((AdbShellCommandMessage) adbMessage).getStream())) {
+            return CommandClass.STREAM;
+        }
+        return getCommandClass(adbMessage.getMessageType());
+    }
+
+    /**
+     * Queues the command, it runs on the executor once the device has a free slot for its class. The command usually
+     * starts on the thread of the command that freed the slot, after this method returned, so an executor rejecting it
+     * is reported to onRejected rather than thrown.
+     *
+     * @param deviceSerial
+     * @param commandClass
+     * @param owner        session the command belongs to, sessions take turns
+     * @param executor
+     * @param command
+     * @param onRejected   called instead of the command when the executor rejects it, must answer the client
+     * @throws RejectedExecutionException when the queue of the device is full
+     */
+    public static void execute(String deviceSerial, CommandClass commandClass, Object owner, Executor executor, Runnable command,
+            Consumer<RejectedExecutionException> onRejected) {
+        Task task = new Task(owner, executor, command, onRejected);
+        // A queue found idle is removed, it may be removed between the lookup and the submit.
+        while (!deviceQueues.computeIfAbsent(deviceSerial, DeviceQueue::new).submit(commandClass, task)) {
+            LOG.trace("Command queue of device '{}' was removed, retrying.", deviceSerial);
+        }
+    }
+
+    public static int getQueuedCount(String deviceSerial) {
+        DeviceQueue deviceQueue = deviceQueues.get(deviceSerial);
+        return (deviceQueue == null) ? 0 : deviceQueue.getQueuedCount();
+    }
+
+    /**
+     * @return number of queued commands of each device with a queue
+     */
+    public static Map<String, Integer> getQueuedCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        deviceQueues.forEach((deviceSerial, deviceQueue) -> counts.put(deviceSerial, deviceQueue.getQueuedCount()));
+        return counts;
+    }
+
+    public static int getRunningCount(String deviceSerial, CommandClass commandClass) {
+        DeviceQueue deviceQueue = deviceQueues.get(deviceSerial);
+        return (deviceQueue == null) ? 0 : deviceQueue.getRunningCount(commandClass);
+    }
+
+    public static long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public static int getMaxConcurrency(CommandClass commandClass) {
+        return maxConcurrency.get(commandClass);
+    }
+
+    public static void setMaxConcurrency(CommandClass commandClass, int concurrency) {
+        maxConcurrency.put(commandClass, concurrency);
+    }
+
+    public static int getMaxQueuedPerDevice() {
+        return maxQueuedPerDevice;
+    }
+
+    public static void setMaxQueuedPerDevice(int maxQueuedPerDevice) {
+        AdbDeviceScheduler.maxQueuedPerDevice = maxQueuedPerDevice;
+    }
+
+    private static class DeviceQueue {
+        private final String deviceSerial;
+        private final Map<CommandClass, ClassQueue> classQueues = new EnumMap<>(CommandClass.class);
+        private int queued;
+        private int running;
+        // Set once the queue went idle and was removed, detached devices do not keep their queue.
+        private boolean removed;
+
+        private DeviceQueue(String deviceSerial) {
+            this.deviceSerial = deviceSerial;
+            for (CommandClass commandClass : CommandClass.values()) {
+                classQueues.put(commandClass, new ClassQueue());
+            }
+        }
+
+        /**
+         * @param commandClass
+         * @param task
+         * @return false when the queue has been removed, the task has to be submitted to a new one
+         */
+        private boolean submit(CommandClass commandClass, Task task) {
+            List<Task> ready;
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                if (queued >= maxQueuedPerDevice) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Command queue of device is full.");
+                }
+                classQueues.get(commandClass).add(task);
+                queued++;
+                ready = takeReady(commandClass);
+            }
+            start(commandClass, ready);
+            return true;
+        }
+
+        private void complete(CommandClass commandClass) {
+            List<Task> ready;
+            synchronized (this) {
+                classQueues.get(commandClass).running--;
+                running--;
+                ready = takeReady(commandClass);
+                if (queued == 0 && running == 0) {
+                    removed = true;
+                    deviceQueues.remove(deviceSerial, this);
+                }
+            }
+            start(commandClass, ready);
+        }
+
+        private List<Task> takeReady(CommandClass commandClass) {
+            ClassQueue classQueue = classQueues.get(commandClass);
+            List<Task> ready = new ArrayList<>();
+            Task task;
+            while (classQueue.running < maxConcurrency.get(commandClass) && (task = classQueue.next()) != null) {
+                classQueue.running++;
+                running++;
+                queued--;
+                ready.add(task);
+            }
+            return ready;
+        }
+
+        private void start(CommandClass commandClass, List<Task> ready) {
+            for (Task task : ready) {
+                try {
+                    task.executor.execute(() -> {
+                        try {
+                            task.command.run();
+                        } finally {
+                            complete(commandClass);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    LOG.error("Error starting device command, Error: '{}'", e.getMessage(), e);
+                    complete(commandClass);
+                    task.onRejected.accept(e);
+                }
+            }
+        }
+
+        private synchronized int getQueuedCount() {
+            return queued;
+        }
+
+        private synchronized int getRunningCount(CommandClass commandClass) {
+            return classQueues.get(commandClass).running;
+        }
+    }
+
+    private static class ClassQueue {
+        private final Map<Object, ArrayDeque<Task>> ownerTasks = new HashMap<>();
+        // Owners with queued tasks, in the order they get their next turn.
+        private final ArrayDeque<Object> turns = new ArrayDeque<>();
+        private int running;
+
+        private void add(Task task) {
+            ArrayDeque<Task> tasks = ownerTasks.computeIfAbsent(task.owner, key -> new ArrayDeque<>());
+            if (tasks.isEmpty()) {
+                turns.add(task.owner);
+            }
+            tasks.add(task);
+        }
+
+        private Task next() {
+            Object owner = turns.poll();
+            if (owner == null) {
+                return null;
+            }
+
+            ArrayDeque<Task> tasks = ownerTasks.get(owner);
+            Task task = tasks.poll();
+            if (tasks.isEmpty()) {
+                ownerTasks.remove(owner);
+            } else {
+                turns.add(owner);
+            }
+            return task;
+        }
+    }
+
+    private static class Task {
+        private final Object owner;
+        private final Executor executor;
+        private final Runnable command;
+        private final Consumer<RejectedExecutionException> onRejected;
+
+        private Task(Object owner, Executor executor, Runnable command, Consumer<RejectedExecutionException> onRejected) {
+            this.owner = owner;
+            this.executor = executor;
+            this.command = command;
+            this.onRejected = onRejected;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.FileListingService;
+import com.android.ddmlib.FileListingService.FileEntry;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFileEntry;
+
+/**
+ * Lists several paths and their sub directories for a single DIRECTORY_GET request. Every listed directory is sent to
+ * the client as a DIRECTORY_GET message with status code 206 as soon as it has been read from the device, the next
+ * directory is only listed once the previous one has been written. Only the directories still to be walked are kept in
+ * memory, never the whole tree.
+ *
+ * Paths are read with ls rather than the ddmlib FileListingService, which can only reach a path by listing every
+ * ancestor from the root. On devices that are not rooted ancestors such as /data cannot be listed, while the requested
+ * path and everything below it can.
+ */
+public class AdbDirectoryWalker {
+
+    private static final Logger LOG = LogManager.getLogger(AdbDirectoryWalker.class);
+
+    public static final int MAX_DEPTH = 32;
+
+    private static final int MAX_ENTRIES_PER_MESSAGE = 256;
+    private static final Pattern LINK_SEPARATOR = Pattern.compile("\\s->\\s");
+
+    private final AdbDirectoryGetMessage request;
+    private final AdbWebsocketSender sender;
+    private final Pattern globPattern;
+
+    private IDevice device;
+    private long sequence;
+    private boolean cancelled;
+
+    public AdbDirectoryWalker(AdbDirectoryGetMessage request, AdbWebsocketSender sender) {
+        this.request = request;
+        this.sender = sender;
+        this.globPattern = (request.getGlob() == null) ? null : globToPattern(request.getGlob());
+    }
+
+    /**
+     * Walks all requested paths.
+     *
+     * @param device
+     * @return false when sending to the client failed and the walk was cancelled
+     * @throws IOException
+     */
+    public boolean walk(IDevice device) throws IOException {
+        this.device = device;
+        int depth = Math.min((request.getDepth() == null) ? 1 : request.getDepth(), MAX_DEPTH);
+        List<String> paths = (request.getPaths() != null) ? request.getPaths() : List.of(request.getPath());
+
+        for (String path : paths) {
+            AdbFileEntry entry = resolve(path);
+            if (entry == null) {
+                sendEntries(path, null, 404, "Path not found.");
+            } else if (depth == 0 || !Boolean.TRUE.equals(entry.getDirectory())) {
+                List<AdbFileEntry> entries = new ArrayList<>();
+                entries.add(entry);
+                sendEntries(path, entries, 206, null);
+            } else {
+                walkDirectory(entry.getFullPath(), depth);
+            }
+
+            if (cancelled) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    private void walkDirectory(String directory, int depth) throws IOException {
+        Deque<String> directories = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        directories.push(directory);
+        depths.push(depth);
+
+        while (!directories.isEmpty() && !cancelled) {
+            String current = directories.pop();
+            int remainingDepth = depths.pop();
+
+            List<AdbFileEntry> entries = new ArrayList<>();
+            List<String> subDirectories = new ArrayList<>();
+            for (AdbFileEntry child : listChildren(current)) {
+                if (globPattern == null || globPattern.matcher(child.getName()).matches()) {
+                    entries.add(child);
+                    if (entries.size() == MAX_ENTRIES_PER_MESSAGE) {
+                        sendEntries(current, entries, 206, null);
+                        entries = new ArrayList<>();
+                    }
+                }
+                // Links are listed but not followed, they may point back up the tree.
+                if (remainingDepth > 1 && Boolean.TRUE.equals(child.getDirectory()) && !Boolean.TRUE.equals(child.getLink())) {
+                    subDirectories.add(child.getFullPath());
+                }
+            }
+            if (!entries.isEmpty()) {
+                sendEntries(current, entries, 206, null);
+            }
+
+            // Pushed in reverse so sub directories are walked in listing order.
+            for (int i = subDirectories.size() - 1; i >= 0; i--) {
+                directories.push(subDirectories.get(i));
+                depths.push(remainingDepth - 1);
+            }
+        }
+    }
+
+    /**
+     * Reads the entry of the requested path itself, none of its ancestors are listed. A link given as the path, such as
+     * /sdcard, is walked when it points to a directory.
+     *
+     * @param path
+     * @return null when the path does not exist or cannot be read
+     * @throws IOException
+     */
+    private AdbFileEntry resolve(String path) throws IOException {
+        String fullPath = normalize(path);
+        List<AdbFileEntry> entries = list("ls -l -d " + escape(fullPath), fullPath);
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        AdbFileEntry entry = entries.get(0);
+        entry.setFullPath(fullPath);
+        entry.setName(fullPath.equals(FileListingService.FILE_SEPARATOR) ? fullPath : fullPath.substring(fullPath.lastIndexOf('/') + 1));
+        if (Boolean.TRUE.equals(entry.getLink())) {
+            resolveLinks(List.of(entry));
+        }
+        return entry;
+    }
+
+    /**
+     * Marks the links pointing to a directory as directories, with a single ls of all links like ddmlib does.
+     *
+     * @param links
+     * @throws IOException
+     */
+    private void resolveLinks(List<AdbFileEntry> links) throws IOException {
+        StringBuilder command = new StringBuilder("ls -l -d");
+        Map<String, AdbFileEntry> linksByTarget = new HashMap<>();
+        for (AdbFileEntry link : links) {
+            // The trailing separator makes ls describe the target.
+            String target = escape(link.getFullPath()) + FileListingService.FILE_SEPARATOR;
+            command.append(' ').append(target);
+            linksByTarget.put(link.getFullPath() + FileListingService.FILE_SEPARATOR, link);
+        }
+
+        // ls prints the paths as given, they are the names of the parsed entries.
+        for (AdbFileEntry target : list(command.toString(), "")) {
+            AdbFileEntry link = linksByTarget.get(target.getName());
+            if (link != null && Boolean.TRUE.equals(target.getDirectory())) {
+                link.setDirectory(true);
+            }
+        }
+    }
+
+    private static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String segment : path.split(FileListingService.FILE_SEPARATOR)) {
+            if (!segment.isEmpty() && !".".equals(segment)) {
+                normalized.append(FileListingService.FILE_SEPARATOR).append(segment);
+            }
+        }
+        return (normalized.length() == 0) ? FileListingService.FILE_SEPARATOR : normalized.toString();
+    }
+
+    /**
+     * @param path normalized path
+     * @return path for the shell, escaped segment by segment like FileEntry.getFullEscapedPath
+     */
+    private static String escape(String path) {
+        StringBuilder escaped = new StringBuilder();
+        for (String segment : path.split(FileListingService.FILE_SEPARATOR)) {
+            if (!segment.isEmpty()) {
+                escaped.append(FileListingService.FILE_SEPARATOR).append(FileEntry.escape(segment));
+            }
+        }
+        return (escaped.length() == 0) ? FileListingService.FILE_SEPARATOR : escaped.toString();
+    }
+
+    private List<AdbFileEntry> listChildren(String directory) throws IOException {
+        String parent = directory.equals(FileListingService.FILE_SEPARATOR) ? "" : directory;
+        String target = parent.isEmpty() ? FileListingService.FILE_SEPARATOR : escape(directory) + FileListingService.FILE_SEPARATOR;
+        List<AdbFileEntry> children = list("ls -l " + target, parent);
+        List<AdbFileEntry> links = new ArrayList<>();
+        for (AdbFileEntry child : children) {
+            if (Boolean.TRUE.equals(child.getLink())) {
+                links.add(child);
+            }
+        }
+        if (!links.isEmpty()) {
+            resolveLinks(links);
+        }
+        return children;
+    }
+
+    /**
+     * @param command ls command, entries are parsed from its output like the ddmlib FileListingService does
+     * @param parent  path the listed names are relative to
+     * @return
+     * @throws IOException
+     */
+    private List<AdbFileEntry> list(String command, String parent) throws IOException {
+        List<AdbFileEntry> entries = new ArrayList<>();
+        try {
+            device.executeShellCommand(command, new MultiLineReceiver() {
+                @Override
+                public void processNewLines(String[] lines) {
+                    for (String line : lines) {
+                        AdbFileEntry entry = parse(line, parent);
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                    }
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return false;
+                }
+            });
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException e) {
+            throw new IOException("Error listing " + parent + ": " + e.getMessage(), e);
+        }
+        return entries;
+    }
+
+    /**
+     * @param line   ls -l output line
+     * @param parent
+     * @return null for lines that are not an entry, such as the total or an error
+     */
+    static AdbFileEntry parse(String line, String parent) {
+        Matcher matcher = FileListingService.LS_L_PATTERN.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        String permissions = matcher.group(1);
+        String name = matcher.group(7);
+        boolean link = permissions.charAt(0) == 'l';
+        if (link) {
+            name = LINK_SEPARATOR.split(name, 2)[0];
+        }
+        if (".".equals(name) || "..".equals(name)) {
+            return null;
+        }
+
+        AdbFileEntry entry = new AdbFileEntry();
+        entry.setName(name);
+        entry.setFullPath(parent + FileListingService.FILE_SEPARATOR + name);
+        entry.setDirectory(permissions.charAt(0) == 'd');
+        entry.setLink(link);
+        entry.setSize(parseSize(matcher.group(4)));
+        entry.setPermissions(permissions);
+        entry.setOwner(matcher.group(2));
+        entry.setGroup(matcher.group(3));
+        entry.setDate(matcher.group(5));
+        entry.setTime(matcher.group(6));
+        return entry;
+    }
+
+    private static long parseSize(String size) {
+        try {
+            return Long.parseLong(size.trim());
+        } catch (NumberFormatException e) {
+            // Device files list their major and minor numbers instead.
+            return 0;
+        }
+    }
+
+    private void sendEntries(String path, List<AdbFileEntry> entries, int statusCode, String message) {
+        AdbDirectoryGetMessage chunk = new AdbDirectoryGetMessage(request.getDeviceSerial());
+        chunk.setRequestId(request.getRequestId());
+        chunk.setPath(path);
+        chunk.setEntries(entries);
+        chunk.setSequence(sequence++);
+        chunk.setStatusCode(statusCode);
+        chunk.setMessage(message);
+        try {
+            sender.sendMessage(chunk).get();
+        } catch (JAXBException | ExecutionException e) {
+            LOG.error("Error sending directory listing to client, cancelling walk. Error: '{}'", e.getMessage(), e);
+            cancelled = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Converts a shell style glob supporting '*', '?' and '[...]' to a pattern matching a file name.
+     *
+     * @param glob
+     * @return
+     */
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inBrackets = false;
+        for (char c : glob.toCharArray()) {
+            if (inBrackets) {
+                if (c == ']') {
+                    inBrackets = false;
+                } else if (c == '\\' || c == '[') {
+                    regex.append('\\');
+                }
+                regex.append(c == '!' && regex.charAt(regex.length() - 1) == '[' ? '^' : c);
+                continue;
+            }
+
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    inBrackets = true;
+                    regex.append('[');
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    break;
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
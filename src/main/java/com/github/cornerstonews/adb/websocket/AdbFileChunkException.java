@@ -0,0 +1,22 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+
+/**
+ * A chunk of a file transfer was rejected, the transfer itself is still valid and continues from the expected offset.
+ */
+public class AdbFileChunkException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long expectedOffset;
+
+    public AdbFileChunkException(String message, long expectedOffset) {
+        super(message);
+        this.expectedOffset = expectedOffset;
+    }
+
+    public long getExpectedOffset() {
+        return expectedOffset;
+    }
+}
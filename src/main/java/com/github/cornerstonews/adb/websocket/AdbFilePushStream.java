@@ -0,0 +1,183 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes pushed data to the device while it is still being received from the client. Received frames are copied into
+ * a fixed number of chunks which the thread running the push writes to the device sync connection. When all chunks are waiting for the
+ * device, {@link #write(ByteBuffer)} blocks, which stops reading from the websocket and slows the client down.
+ */
+public class AdbFilePushStream {
+
+    private static final Logger LOG = LogManager.getLogger(AdbFilePushStream.class);
+
+    private static final int CHUNK_SIZE = AdbSyncConnection.MAX_DATA_SIZE;
+    private static final int MAX_CHUNKS = 16;
+    private static final int DEFAULT_FILE_MODE = 0644;
+    private static final Chunk END_OF_FILE = new Chunk(new byte[0]);
+    // Offered once the push failed, wakes a writer waiting for a free chunk.
+    private static final Chunk FAILED = new Chunk(new byte[0]);
+
+    private final String deviceSerial;
+    private final String remotePath;
+
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+    private final BlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<>(MAX_CHUNKS + 1);
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private int allocatedChunks;
+    private volatile AdbSyncConnection connection;
+    private Chunk current;
+
+    public AdbFilePushStream(String deviceSerial, String remotePath) {
+        this.deviceSerial = deviceSerial;
+        this.remotePath = remotePath;
+    }
+
+    /**
+     * Opens the sync connection to the device, the data is written to it by {@link #run()}.
+     *
+     * @throws IOException when the connection failed or the push was aborted
+     */
+    public void open() throws IOException {
+        checkFailed();
+        AdbSyncConnection connection = AdbSyncConnection.open(deviceSerial);
+        try {
+            connection.startSend(remotePath, DEFAULT_FILE_MODE);
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        this.connection = connection;
+    }
+
+    /**
+     * Writes the received chunks to the device on the calling thread until the end of the file or an abort.
+     */
+    public void run() {
+        if (connection != null) {
+            writeToDevice(connection);
+        }
+    }
+
+    public void write(ByteBuffer data) throws IOException {
+        try {
+            while (data.hasRemaining()) {
+                checkFailed();
+                if (current == null) {
+                    current = nextFreeChunk();
+                    if (current == FAILED) {
+                        current = null;
+                        awaitCompletion();
+                    }
+                }
+                int length = Math.min(data.remaining(), CHUNK_SIZE - current.length);
+                data.get(current.data, current.length, length);
+                current.length += length;
+                if (current.length == CHUNK_SIZE) {
+                    filledChunks.put(current);
+                    current = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Marks the end of the file, the device confirms the push through {@link #awaitCompletion()}.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        try {
+            if (current != null) {
+                filledChunks.put(current);
+                current = null;
+            }
+            filledChunks.put(END_OF_FILE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException(e);
+        }
+    }
+
+    public void awaitCompletion() throws IOException {
+        try {
+            completion.get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    public void abort() {
+        completion.completeExceptionally(new IOException("File push aborted."));
+        filledChunks.clear();
+        filledChunks.offer(END_OF_FILE);
+        freeChunks.offer(FAILED);
+    }
+
+    private Chunk nextFreeChunk() throws InterruptedException {
+        Chunk chunk = freeChunks.poll();
+        if (chunk == null && allocatedChunks < MAX_CHUNKS) {
+            allocatedChunks++;
+            return new Chunk(new byte[CHUNK_SIZE]);
+        }
+        return (chunk != null) ? chunk : freeChunks.take();
+    }
+
+    private void checkFailed() throws IOException {
+        if (completion.isCompletedExceptionally()) {
+            awaitCompletion();
+        }
+    }
+
+    private void writeToDevice(AdbSyncConnection connection) {
+        try (AdbSyncConnection syncConnection = connection) {
+            Chunk chunk;
+            while ((chunk = filledChunks.take()) != END_OF_FILE) {
+                if (completion.isDone()) {
+                    return;
+                }
+                syncConnection.sendData(chunk.data, 0, chunk.length);
+                chunk.length = 0;
+                freeChunks.offer(chunk);
+            }
+
+            if (!completion.isDone()) {
+                syncConnection.finishSend(System.currentTimeMillis() / 1000);
+                completion.complete(null);
+            }
+        } catch (IOException e) {
+            LOG.error("Error writing file to device '{}', Error: '{}'", deviceSerial, e.getMessage(), e);
+            completion.completeExceptionally(e);
+            freeChunks.offer(FAILED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completion.completeExceptionally(e);
+            freeChunks.offer(FAILED);
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -1,18 +1,21 @@
 package com.github.cornerstonews.adb.websocket;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
-import javax.websocket.RemoteEndpoint.Basic;
 import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,67 +25,285 @@ import com.android.ddmlib.SyncException;
 import com.android.ddmlib.TimeoutException;
 import com.github.cornerstonews.adb.AdbExecutor;
 import com.github.cornerstonews.adb.websocket.message.AdbFileMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFilePullMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFilePushMessage;
+import com.github.cornerstonews.util.ByteBufferPool;
 
 public class AdbFileTransferProcessor {
 
     private static final Logger LOG = LogManager.getLogger(AdbFileTransferProcessor.class);
 
     private static final int BUFFER_SIZE = 1024 * 64;
+    private static final ByteBufferPool BUFFER_POOL = new ByteBufferPool(BUFFER_SIZE, 64);
+
+    // Chunked transfers prefix every binary frame with the offset (long) and CRC32C (int) of its data.
+    private static final int CHUNK_HEADER_SIZE = 12;
+    // Largest chunk that is held while its binary message arrives in parts.
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024 * 4;
     
     private AdbFileMessage adbMessage;
     private String tmpFileName = UUID.randomUUID().toString();
+    private final String transferId = UUID.randomUUID().toString();
 
     private FileOutputStream fos = null;
     private File file;
     private FileChannel fc;
+    private AdbFilePushStream pushStream;
     private long transferedSize;
+    private boolean pulled;
+    private Integer channel;
+    private final Checksum fileChecksum = new CRC32C();
+    private final Checksum chunkChecksum = new CRC32C();
+    // Chunk whose binary message is still arriving in parts, written once the whole chunk has been verified.
+    private ByteBuffer partialChunk;
 
     public AdbFileTransferProcessor(AdbFileMessage adbMessage, Session session) throws FileNotFoundException {
         this.adbMessage = adbMessage;
+        this.adbMessage.setTransferId(transferId);
         String tempPath = System.getProperty("java.io.tmpdir");
         this.file = new File(tempPath + File.separator + tmpFileName);
-        this.fos = new FileOutputStream(file, true);
-        this.fc = fos.getChannel();
+        // Pulled files are written by ddmlib, only pushes need our own output stream.
+        if (adbMessage instanceof AdbFilePushMessage && Boolean.TRUE.equals(((AdbFilePushMessage) adbMessage).getStream())) {
+            this.pushStream = new AdbFilePushStream(adbMessage.getDeviceSerial(), adbMessage.getFullPath());
+        } else if (adbMessage instanceof AdbFilePushMessage) {
+            this.fos = new FileOutputStream(file, true);
+            this.fc = fos.getChannel();
+        }
     }
 
     public AdbFileMessage getAdbMessage() {
         return adbMessage;
     }
 
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public long getTransferedSize() {
+        return transferedSize;
+    }
+
+    public Integer getChannel() {
+        return channel;
+    }
+
+    public void setChannel(Integer channel) {
+        this.channel = channel;
+        this.adbMessage.setChannel(channel);
+    }
+
+    public boolean isPush() {
+        return adbMessage instanceof AdbFilePushMessage;
+    }
+
+    public boolean isStreaming() {
+        return this.pushStream != null;
+    }
+
+    public boolean isMultiplexed() {
+        return Boolean.TRUE.equals(adbMessage.getMultiplexed());
+    }
+
+    /**
+     * Continues a transfer parked by {@link AdbResumableTransfers} for a new request, the request gets the offset the
+     * client has to continue from.
+     *
+     * @param resumeMessage
+     */
+    public void resume(AdbFileMessage resumeMessage) {
+        resumeMessage.setTransferId(transferId);
+        resumeMessage.setFullPath(adbMessage.getFullPath());
+        resumeMessage.setSize(adbMessage.getSize());
+        resumeMessage.setChannel(null);
+        if (resumeMessage.getChecksum() == null) {
+            resumeMessage.setChecksum(adbMessage.getChecksum());
+        }
+        if (resumeMessage instanceof AdbFilePushMessage) {
+            resumeMessage.setOffset(transferedSize);
+        }
+        // The rest of a message that was cut off with the old connection never arrives.
+        this.partialChunk = null;
+        this.adbMessage = resumeMessage;
+    }
+
+    /**
+     * Transfers staged in a temp file can be continued after the connection is lost, streamed pushes can not because
+     * the device side of the sync channel is gone.
+     *
+     * @return
+     */
+    public boolean isResumable() {
+        if (this.pushStream != null || this.file == null) {
+            return false;
+        }
+        return (adbMessage instanceof AdbFilePushMessage) ? !isComplete() : pulled;
+    }
+
+    /**
+     * Opens the device sync connection of a streamed push, pushed data is written to the device as it arrives, without a
+     * temp file.
+     *
+     * @throws IOException
+     */
+    public void openStreamingPush() throws IOException {
+        this.pushStream.open();
+    }
+
+    /**
+     * Writes the data of a streamed push to the device on the calling thread, returns once the file has been written or
+     * the push failed.
+     */
+    public void runStreamingPush() {
+        this.pushStream.run();
+    }
+
+    /**
+     * Processes a part of a binary message of file data. The parts of a chunked message are held until the last one, the
+     * chunk header is only at the start of the message and its checksum covers all parts.
+     *
+     * @param message
+     * @param isLast  false when the container delivers the rest of the message in further parts
+     * @throws IOException
+     */
     public void processFilePush(ByteBuffer message, boolean isLast) throws IOException {
-        fc.write(message);
-        this.transferedSize = fc.size();
+        if (!Boolean.TRUE.equals(adbMessage.getChunked())) {
+            writePushData(message);
+            return;
+        }
+
+        if (isLast && partialChunk == null) {
+            readChunkHeader(message);
+            writePushData(message);
+            return;
+        }
+
+        appendPartialChunk(message);
+        if (!isLast) {
+            return;
+        }
+        ByteBuffer chunk = partialChunk;
+        partialChunk = null;
+        chunk.flip();
+        readChunkHeader(chunk);
+        writePushData(chunk);
+    }
+
+    private void appendPartialChunk(ByteBuffer message) throws AdbFileChunkException {
+        int size = ((partialChunk == null) ? 0 : partialChunk.position()) + message.remaining();
+        if (size > CHUNK_HEADER_SIZE + MAX_CHUNK_SIZE) {
+            partialChunk = null;
+            throw new AdbFileChunkException("Chunk larger than " + MAX_CHUNK_SIZE + " bytes.", transferedSize);
+        }
+
+        if (partialChunk == null || partialChunk.remaining() < message.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(size, (partialChunk == null) ? 0 : partialChunk.capacity() * 2));
+            if (partialChunk != null) {
+                partialChunk.flip();
+                grown.put(partialChunk);
+            }
+            partialChunk = grown;
+        }
+        partialChunk.put(message);
+    }
+
+    /**
+     * Processes file data received in the binary encoding, the message sent with the data has the offset and optionally
+     * the checksum of the chunk instead of a chunk header.
+     *
+     * @param chunk
+     * @param data
+     * @throws IOException
+     */
+    public void processFilePush(AdbFileMessage chunk, ByteBuffer data) throws IOException {
+        if (chunk.getOffset() != null && chunk.getOffset() != transferedSize) {
+            throw new AdbFileChunkException("Chunk offset " + chunk.getOffset() + " does not match expected offset " + transferedSize + ".", transferedSize);
+        }
+        if (chunk.getChecksum() != null && !chunk.getChecksum().equalsIgnoreCase(checksumOf(data))) {
+            throw new AdbFileChunkException("Chunk checksum mismatch at offset " + transferedSize + ".", transferedSize);
+        }
+        writePushData(data);
+    }
+
+    private void writePushData(ByteBuffer message) throws IOException {
+        updateChecksum(fileChecksum, message);
+        AdbWebsocketMetrics.recordTransferBytes(message.remaining());
+        if (this.pushStream != null) {
+            this.transferedSize += message.remaining();
+            this.pushStream.write(message);
+            if (isComplete()) {
+                this.pushStream.finish();
+            }
+            return;
+        }
+
+        while (message.hasRemaining()) {
+            this.transferedSize += fc.write(message);
+        }
 //        if (isLast) {
-        if (isFileValid()) {
+        if (isComplete()) {
             cleanupStreams();
         }
     }
 
+    private void readChunkHeader(ByteBuffer message) throws AdbFileChunkException {
+        if (message.remaining() < CHUNK_HEADER_SIZE) {
+            throw new AdbFileChunkException("Chunk is missing offset and checksum header.", transferedSize);
+        }
+
+        long offset = message.getLong();
+        int checksum = message.getInt();
+        if (offset != transferedSize) {
+            throw new AdbFileChunkException("Chunk offset " + offset + " does not match expected offset " + transferedSize + ".", transferedSize);
+        }
+
+        chunkChecksum.reset();
+        updateChecksum(chunkChecksum, message);
+        if ((int) chunkChecksum.getValue() != checksum) {
+            throw new AdbFileChunkException("Chunk checksum mismatch at offset " + offset + ".", transferedSize);
+        }
+    }
+
+    private static void updateChecksum(Checksum checksum, ByteBuffer data) {
+        checksum.update(data.duplicate());
+    }
+
     public void pushFileToPhone(AdbExecutor adbExecutor) throws IOException, SyncException, AdbCommandRejectedException, TimeoutException {
+        if (this.pushStream != null) {
+            LOG.debug("Waiting for streamed file push to complete: {}", adbMessage.getFullPath());
+            this.pushStream.awaitCompletion();
+            return;
+        }
+
         LOG.debug("Pushing file to phone: {} -> {}", this.file.getCanonicalPath(), adbMessage.getFullPath());
         adbExecutor.pushFile(this.file.getCanonicalPath(), adbMessage.getFullPath());
     }
 
-    public boolean isFileValid() throws IOException {
-        // TODO: Add checksum
-        return this.transferedSize == adbMessage.getSize();
+    public boolean isComplete() {
+        return adbMessage.getSize() != null && this.transferedSize == adbMessage.getSize();
+    }
+
+    /**
+     * @return true when all data has been received and matches the checksum, if the client provided one
+     */
+    public boolean isFileValid() {
+        return isComplete() && (adbMessage.getChecksum() == null || adbMessage.getChecksum().equalsIgnoreCase(getChecksum()));
+    }
+
+    public String getChecksum() {
+        return String.format("%08x", fileChecksum.getValue());
     }
 
     public String pullFileFromPhone(AdbExecutor adbExecutor) throws SyncException, IOException, AdbCommandRejectedException, TimeoutException {
         LOG.debug("Pulling file from phone: {} -> {}", adbMessage.getFullPath(), this.file.getCanonicalPath());
         adbExecutor.pullFile(adbMessage.getFullPath(), this.file.getCanonicalPath());
+        this.pulled = true;
         return this.file.getCanonicalPath();
     }
 
     public void processFilePull(AdbExecutor adbExecutor, OutputStream outputStream) throws FileNotFoundException, IOException {
-        try (BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(this.file.getCanonicalFile()))) {
+        try {
             this.pullFileFromPhone(adbExecutor);
-            
-            int len = 0;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while ((len = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, len);
-            }
+            Files.copy(this.file.toPath(), outputStream);
             outputStream.flush();
         } catch (SyncException | AdbCommandRejectedException | TimeoutException e) {
             throw new IOException(e);
@@ -95,32 +316,120 @@ public class AdbFileTransferProcessor {
         }
     }
 
-    public void processFilePull(AdbExecutor adbExecutor, Basic basicRemote) throws FileNotFoundException, IOException {
-        try (BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(this.file.getCanonicalFile()))) {
-            this.pullFileFromPhone(adbExecutor);
-            
-            long sent = 0;
-            long len = 0;
-            long remaining = this.file.length();
-            int bufferSize = (remaining < BUFFER_SIZE) ? (int) remaining : BUFFER_SIZE;
-            byte[] buffer = new byte[bufferSize];
-            while ((len = inputStream.read(buffer)) > 0) {
-                sent += len;
-                basicRemote.sendBinary(ByteBuffer.wrap(buffer));
-                remaining = this.file.length() - sent;
-                if(remaining > 0 && remaining < BUFFER_SIZE) {
-                    buffer = new byte[(int) remaining];
+    /**
+     * Pulls the file to a temp file and sends it to the client in binary messages of up to 64K. The public ddmlib sync
+     * API only pulls to a local file, so the file is staged on disk and read back through a file channel into a pooled
+     * direct buffer, without copying it to the heap. Sending starts at the requested offset, a resumed transfer reuses
+     * the already staged file. The temp file is kept, the caller cleans up or parks the transfer.
+     *
+     * @param adbExecutor
+     * @param sender
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public void processFilePull(AdbExecutor adbExecutor, AdbWebsocketSender sender) throws FileNotFoundException, IOException {
+        boolean chunked = Boolean.TRUE.equals(adbMessage.getChunked());
+        // The binary encoding carries channel, offset and checksum in the message sent with the data.
+        boolean binaryProtocol = sender.isBinaryProtocol();
+        int headerSize = binaryProtocol ? 0 : (isMultiplexed() ? Integer.BYTES : 0) + (chunked ? CHUNK_HEADER_SIZE : 0);
+        // Decided on the first chunk sent, text files are compressed when the client asked for it.
+        Boolean compress = (adbMessage instanceof AdbFilePullMessage && Boolean.TRUE.equals(((AdbFilePullMessage) adbMessage).getCompress())
+                && sender.isCompression()) ? null : false;
+        long offset = (adbMessage.getOffset() == null) ? 0 : adbMessage.getOffset();
+        ByteBuffer buffer = BUFFER_POOL.acquire();
+        try {
+            if (!this.pulled) {
+                this.pullFileFromPhone(adbExecutor);
+            }
+
+            try (FileChannel fileChannel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+                long size = fileChannel.size();
+                if (offset < 0 || offset > size) {
+                    throw new IOException("Offset " + offset + " is outside of the file, size: " + size);
+                }
+                adbMessage.setSize(size);
+
+                // The file checksum always covers the whole file, include the part the client already has.
+                fileChecksum.reset();
+                while (fileChannel.position() < offset) {
+                    buffer.limit((int) Math.min(buffer.capacity(), offset - fileChannel.position()));
+                    fileChannel.read(buffer);
+                    buffer.flip();
+                    updateChecksum(fileChecksum, buffer);
+                    buffer.clear();
+                }
+
+                this.transferedSize = offset;
+                buffer.position(headerSize);
+                while (fileChannel.read(buffer) > 0) {
+                    buffer.flip();
+                    buffer.position(headerSize);
+                    updateChecksum(fileChecksum, buffer);
+                    AdbWebsocketMetrics.recordTransferBytes(buffer.remaining());
+                    if (binaryProtocol) {
+                        if (compress == null) {
+                            compress = AdbMessageCompression.isTextLike(buffer);
+                        }
+                        AdbFileMessage chunk = newDataMessage(chunked ? checksumOf(buffer) : null);
+                        this.transferedSize += buffer.remaining();
+                        sender.sendMessage(chunk, buffer, compress).get();
+                        buffer.clear();
+                        continue;
+                    }
+                    if (isMultiplexed()) {
+                        buffer.putInt(0, this.channel);
+                    }
+                    if (chunked) {
+                        chunkChecksum.reset();
+                        updateChecksum(chunkChecksum, buffer);
+                        buffer.putLong(headerSize - CHUNK_HEADER_SIZE, this.transferedSize).putInt(headerSize - Integer.BYTES, (int) chunkChecksum.getValue());
+                    }
+                    this.transferedSize += buffer.remaining();
+                    buffer.position(0);
+
+                    // Wait for each chunk to be written before the buffer is reused, this also stops a slow client from
+                    // queuing the whole file in memory.
+                    sender.sendBinary(buffer).get();
+                    buffer.clear();
+                    buffer.position(headerSize);
                 }
+                adbMessage.setChecksum(getChecksum());
             }
-        } catch (SyncException | AdbCommandRejectedException | TimeoutException e) {
+        } catch (SyncException | AdbCommandRejectedException | TimeoutException | ExecutionException | JAXBException e) {
+            throw new IOException(e);
+        } catch (InterruptedException e) {
+            // The container may still be writing from the buffer, leave it to the garbage collector.
+            buffer = null;
+            Thread.currentThread().interrupt();
             throw new IOException(e);
         }
         finally {
-            this.cleanup();
+            BUFFER_POOL.release(buffer);
         }
     }
     
+    private AdbFileMessage newDataMessage(String chunkChecksum) {
+        AdbFilePullMessage chunk = new AdbFilePullMessage(adbMessage.getDeviceSerial());
+        chunk.setRequestId(adbMessage.getRequestId());
+        chunk.setTransferId(transferId);
+        chunk.setChannel(channel);
+        chunk.setOffset(transferedSize);
+        chunk.setChecksum(chunkChecksum);
+        chunk.setStatusCode(206);
+        return chunk;
+    }
+
+    private String checksumOf(ByteBuffer data) {
+        chunkChecksum.reset();
+        updateChecksum(chunkChecksum, data);
+        return String.format("%08x", chunkChecksum.getValue());
+    }
+
     public void cleanup() throws IOException {
+        if (this.pushStream != null) {
+            this.pushStream.abort();
+        }
+
         if (this.file != null && this.file.exists()) {
             this.file.delete();
             this.file = null;
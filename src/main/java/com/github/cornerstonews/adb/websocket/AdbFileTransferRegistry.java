@@ -0,0 +1,136 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File transfers of a session, keyed by the channel assigned to each transfer. Multiplexed transfers prefix their binary
+ * frames with the 4 byte channel so several pushes and pulls can run at the same time. A transfer that is not
+ * multiplexed uses untagged frames and must be the only one in its direction.
+ */
+public class AdbFileTransferRegistry {
+
+    public static final int DEFAULT_MAX_TRANSFERS_PER_SESSION = 4;
+    public static final int DEFAULT_MAX_TRANSFERS_PER_DEVICE = 8;
+
+    // Shared by all sessions, limits the sync channels opened to a single device.
+    private static final Map<String, AtomicInteger> deviceTransfers = new ConcurrentHashMap<>();
+    private static volatile int maxTransfersPerDevice = DEFAULT_MAX_TRANSFERS_PER_DEVICE;
+
+    private final Map<Integer, AdbFileTransferProcessor> transfers = new ConcurrentHashMap<>();
+    private final Map<Integer, String> transferDevices = new ConcurrentHashMap<>();
+    private int maxTransfersPerSession = DEFAULT_MAX_TRANSFERS_PER_SESSION;
+    private int nextChannel = 1;
+
+    /**
+     * Registers the transfer and assigns its channel.
+     *
+     * @param deviceSerial
+     * @param processor
+     * @return null when registered, otherwise the reason the transfer was rejected
+     */
+    public synchronized String register(String deviceSerial, AdbFileTransferProcessor processor) {
+        boolean push = processor.isPush();
+        for (AdbFileTransferProcessor transfer : transfers.values()) {
+            if (transfer.isPush() == push && (!transfer.isMultiplexed() || !processor.isMultiplexed())) {
+                return "Only one file transfer allowed unless transfers are multiplexed.";
+            }
+        }
+
+        if (transfers.size() >= maxTransfersPerSession) {
+            return "Too many file transfers for this session.";
+        }
+
+        AtomicInteger deviceCount = deviceTransfers.computeIfAbsent(deviceSerial, key -> new AtomicInteger());
+        if (deviceCount.incrementAndGet() > maxTransfersPerDevice) {
+            deviceCount.decrementAndGet();
+            return "Too many file transfers for this device.";
+        }
+
+        int channel = nextChannel++;
+        processor.setChannel(channel);
+        transfers.put(channel, processor);
+        transferDevices.put(channel, deviceSerial);
+        return null;
+    }
+
+    public synchronized void unregister(AdbFileTransferProcessor processor) {
+        Integer channel = processor.getChannel();
+        if (channel == null || !transfers.remove(channel, processor)) {
+            return;
+        }
+
+        AtomicInteger deviceCount = deviceTransfers.get(transferDevices.remove(channel));
+        if (deviceCount != null) {
+            deviceCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Finds the push a binary frame belongs to, the channel prefix of multiplexed frames is consumed.
+     *
+     * @param frame
+     * @return push or null when there is no matching push
+     */
+    public AdbFileTransferProcessor getPushFor(ByteBuffer frame) {
+        AdbFileTransferProcessor multiplexedPush = null;
+        for (AdbFileTransferProcessor transfer : transfers.values()) {
+            if (transfer.isPush()) {
+                if (!transfer.isMultiplexed()) {
+                    return transfer;
+                }
+                multiplexedPush = transfer;
+            }
+        }
+
+        if (multiplexedPush == null || frame.remaining() < Integer.BYTES) {
+            return null;
+        }
+        AdbFileTransferProcessor push = transfers.get(frame.getInt());
+        return (push != null && push.isPush()) ? push : null;
+    }
+
+    public AdbFileTransferProcessor getTransfer(String transferId) {
+        for (AdbFileTransferProcessor transfer : transfers.values()) {
+            if (transfer.getTransferId().equals(transferId)) {
+                return transfer;
+            }
+        }
+        return null;
+    }
+
+    public List<AdbFileTransferProcessor> getTransfers() {
+        return new ArrayList<>(transfers.values());
+    }
+
+    public int getMaxTransfersPerSession() {
+        return maxTransfersPerSession;
+    }
+
+    public void setMaxTransfersPerSession(int maxTransfersPerSession) {
+        this.maxTransfersPerSession = maxTransfersPerSession;
+    }
+
+    /**
+     * @return number of transfers of all sessions
+     */
+    public static int getActiveTransferCount() {
+        int count = 0;
+        for (AtomicInteger deviceCount : deviceTransfers.values()) {
+            count += deviceCount.get();
+        }
+        return count;
+    }
+
+    public static int getMaxTransfersPerDevice() {
+        return maxTransfersPerDevice;
+    }
+
+    public static void setMaxTransfersPerDevice(int maxTransfersPerDevice) {
+        AdbFileTransferRegistry.maxTransfersPerDevice = maxTransfersPerDevice;
+    }
+}
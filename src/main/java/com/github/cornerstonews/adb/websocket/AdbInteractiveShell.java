@@ -0,0 +1,267 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.message.AdbShellSessionMessage;
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Interactive shell of a websocket session, at most one per session. Keystrokes are written to the shell as they arrive
+ * and its output is sent back as it is read, the next read waits until the previous output has been written to the
+ * client. Output is sent as frame data to clients of the binary subprotocol and as text otherwise. Shells without input
+ * or output for the idle timeout are closed.
+ */
+public class AdbInteractiveShell {
+
+    private static final Logger LOG = LogManager.getLogger(AdbInteractiveShell.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ExecutorService READER_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-shell-session");
+    private static final ScheduledExecutorService idleExecutor = Executors
+            .newSingleThreadScheduledExecutor(ExecutorUtils.newDaemonThreadFactory("adb-shell-session-idle"));
+    private static final Map<Session, AdbInteractiveShell> shells = new ConcurrentHashMap<>();
+
+    private static volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    static {
+        idleExecutor.scheduleWithFixedDelay(AdbInteractiveShell::closeIdle, 30, 30, TimeUnit.SECONDS);
+    }
+
+    private final AdbShellConnection connection;
+    private final Session session;
+    private final String deviceSerial;
+    private final String requestId;
+    private final AdbWebsocketSender sender;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Incomplete character at the end of the last output, decoded with the next one.
+    private ByteBuffer undecoded;
+    private long sequence;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile String closeReason;
+
+    private AdbInteractiveShell(AdbShellConnection connection, AdbShellSessionMessage request, AdbWebsocketSender sender, Session session) {
+        this.connection = connection;
+        this.session = session;
+        this.deviceSerial = request.getDeviceSerial();
+        this.requestId = request.getRequestId();
+        this.sender = sender;
+    }
+
+    /**
+     * Opens a shell on the device for the session, closing the shell the session had open. Output is only sent once the
+     * shell is started.
+     *
+     * @param request
+     * @param sender
+     * @param session
+     * @return
+     * @throws IOException when the shell could not be opened
+     */
+    public static AdbInteractiveShell open(AdbShellSessionMessage request, AdbWebsocketSender sender, Session session) throws IOException {
+        AdbShellConnection connection = AdbShellConnection.open(request.getDeviceSerial(), request.getRows(), request.getCols());
+        AdbInteractiveShell shell = new AdbInteractiveShell(connection, request, sender, session);
+        AdbInteractiveShell previous = shells.put(session, shell);
+        if (previous != null) {
+            previous.close("Shell replaced by a new shell.");
+        }
+        LOG.debug("Session '{}' opened shell on device '{}', shell v2: {}", session.getId(), request.getDeviceSerial(), connection.isShellV2());
+        return shell;
+    }
+
+    /**
+     * @param session
+     * @return shell of the session or null
+     */
+    public static AdbInteractiveShell get(Session session) {
+        return shells.get(session);
+    }
+
+    /**
+     * Closes the shell of a session, the client is sent the reason with the last message of the shell.
+     *
+     * @param session
+     * @param reason
+     */
+    public static void close(Session session, String reason) {
+        AdbInteractiveShell shell = shells.remove(session);
+        if (shell != null) {
+            shell.close(reason);
+        }
+    }
+
+    public static int getShellCount() {
+        return shells.size();
+    }
+
+    public static long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public static void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        AdbInteractiveShell.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void start() {
+        READER_EXECUTOR.execute(this::readLoop);
+    }
+
+    public void write(byte[] input) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        connection.write(input, 0, input.length);
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @return false when the device cannot resize the terminal
+     * @throws IOException
+     */
+    public boolean resize(int rows, int cols) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        return connection.resize(rows, cols);
+    }
+
+    /**
+     * Sends a signal to the foreground process the way a terminal does, with the control character the pseudo terminal
+     * turns into the signal.
+     *
+     * @param signal INT, QUIT, TSTP or EOF
+     * @throws IOException
+     * @throws IllegalArgumentException for other signals
+     */
+    public void signal(String signal) throws IOException {
+        write(new byte[] { toControlCharacter(signal) });
+    }
+
+    static byte toControlCharacter(String signal) {
+        switch (String.valueOf(signal).toUpperCase()) {
+            case "INT":
+                return 0x03;
+            case "QUIT":
+                return 0x1C;
+            case "TSTP":
+                return 0x1A;
+            case "EOF":
+                return 0x04;
+            default:
+                throw new IllegalArgumentException("Unknown signal '" + signal + "', expected one of INT, QUIT, TSTP, EOF.");
+        }
+    }
+
+    private void close(String reason) {
+        closeReason = reason;
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing shell of device '{}', Error: '{}'", deviceSerial, e.getMessage());
+        }
+    }
+
+    private static void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Session, AdbInteractiveShell> entry : shells.entrySet()) {
+            AdbInteractiveShell shell = entry.getValue();
+            if (now - shell.lastActivity > idleTimeoutMillis && shells.remove(entry.getKey(), shell)) {
+                LOG.debug("Closing idle shell of session '{}' on device '{}'", entry.getKey().getId(), shell.deviceSerial);
+                shell.close("Shell closed after being idle.");
+            }
+        }
+    }
+
+    private void readLoop() {
+        String error = null;
+        try {
+            byte[] output;
+            while ((output = connection.read()) != null) {
+                lastActivity = System.currentTimeMillis();
+                sendOutput(output);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | JAXBException | ExecutionException e) {
+            // Reading fails once the shell has been closed.
+            if (closeReason == null) {
+                LOG.error("Error reading shell of device, Error: '{}'", e.getMessage(), e);
+                LOG.trace("Error reading shell of device '{}', Error: '{}'", deviceSerial, e.getMessage());
+                error = "Shell error. Error: " + e.getMessage();
+            }
+        }
+
+        shells.remove(session, this);
+        close((closeReason != null) ? closeReason : "Shell exited.");
+        if (!session.isOpen()) {
+            return;
+        }
+
+        AdbShellSessionMessage message = newMessage();
+        message.setAction(AdbShellSessionMessage.ACTION_CLOSE);
+        message.setExitCode(connection.getExitCode());
+        message.setStatusCode((error == null) ? 200 : 400);
+        message.setMessage((error == null) ? closeReason : error);
+        try {
+            sender.sendMessage(message);
+        } catch (JAXBException e) {
+            LOG.error("Error sending shell close, Error: '{}'", e.getMessage(), e);
+        }
+        LOG.debug("Shell of session '{}' on device '{}' ended, exit code: {}", session.getId(), deviceSerial, connection.getExitCode());
+    }
+
+    private void sendOutput(byte[] output) throws JAXBException, InterruptedException, ExecutionException {
+        if (sender.isBinaryProtocol()) {
+            AdbShellSessionMessage message = newMessage();
+            message.setStatusCode(206);
+            sender.sendMessage(message, ByteBuffer.wrap(output)).get();
+            return;
+        }
+
+        String text = decode(output);
+        if (text.isEmpty()) {
+            return;
+        }
+        AdbShellSessionMessage message = newMessage();
+        message.setStatusCode(206);
+        message.setOutput(text);
+        sender.sendMessage(message).get();
+    }
+
+    private String decode(byte[] output) {
+        ByteBuffer input = ByteBuffer.wrap(output);
+        if (undecoded != null) {
+            input = ByteBuffer.allocate(undecoded.remaining() + output.length).put(undecoded).put(output);
+            input.flip();
+        }
+        CharBuffer chars = CharBuffer.allocate(input.remaining() + 1);
+        decoder.decode(input, chars, false);
+        undecoded = input.hasRemaining() ? input : null;
+        chars.flip();
+        return chars.toString();
+    }
+
+    private AdbShellSessionMessage newMessage() {
+        AdbShellSessionMessage message = new AdbShellSessionMessage(deviceSerial);
+        message.setRequestId(requestId);
+        message.setSequence(sequence++);
+        return message;
+    }
+}
@@ -0,0 +1,333 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.MultiLineReceiver;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatEntry;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatMessage;
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Tails logcat of a device once for all sessions subscribed to it. Lines are parsed into entries as they arrive and
+ * stored in a ring buffer, each subscriber reads the buffer from its own position and is sent the entries matching its
+ * filters in batches, the next batch once the previous one has been written. A subscriber that falls more than the ring
+ * buffer behind skips the overwritten entries and is told how many it missed, so a slow client never grows memory.
+ *
+ * ddmlib only checks for cancellation when output arrives, the reader of a device nobody subscribes to anymore stops
+ * with the next log line.
+ */
+public class AdbLogcatStream extends MultiLineReceiver {
+
+    private static final Logger LOG = LogManager.getLogger(AdbLogcatStream.class);
+
+    public static final int RING_BUFFER_SIZE = 1024 * 8;
+    public static final int MAX_BATCH_SIZE = 256;
+
+    static final String LOGCAT_COMMAND = "logcat -v threadtime -T 1";
+    static final String PRIORITIES = "VDIWEFS";
+
+    // 01-02 03:04:05.678  1234  5678 I Tag     : message
+    private static final Pattern THREADTIME = Pattern.compile("^(\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d+)\\s+(\\d+)\\s+(\\d+)\\s+([VDIWEFS])\\s+(.*?)\\s*: (.*)$");
+    private static final ExecutorService READER_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-logcat-reader");
+    private static final Map<String, AdbLogcatStream> streams = new ConcurrentHashMap<>();
+
+    private final String deviceSerial;
+    private final Map<Session, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final AdbLogcatEntry[] ring = new AdbLogcatEntry[RING_BUFFER_SIZE];
+    // Guarded by ring, sequence of the next entry added.
+    private long nextSequence;
+    // Guarded by streams.
+    private boolean running;
+    private volatile boolean cancelled;
+
+    private AdbLogcatStream(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    /**
+     * Subscribes the session to the logcat of the device, replacing its previous subscription and filters. Entries logged
+     * from now on are sent.
+     *
+     * @param request
+     * @param sender
+     * @param session
+     * @throws IllegalArgumentException when a filter is invalid
+     */
+    public static void subscribe(AdbLogcatMessage request, AdbWebsocketSender sender, Session session) {
+        Subscriber subscriber = new Subscriber(request, sender);
+        boolean start;
+        synchronized (streams) {
+            AdbLogcatStream stream = streams.computeIfAbsent(request.getDeviceSerial(), AdbLogcatStream::new);
+            subscriber.stream = stream;
+            subscriber.cursor = stream.getNextSequence();
+            stream.subscribers.put(session, subscriber);
+            start = !stream.running;
+            if (start) {
+                stream.running = true;
+                stream.cancelled = false;
+                READER_EXECUTOR.execute(stream::readLoop);
+            }
+        }
+        LOG.debug("Session '{}' subscribed to logcat of device '{}', reader started: {}", session.getId(), request.getDeviceSerial(), start);
+    }
+
+    public static void unsubscribe(String deviceSerial, Session session) {
+        AdbLogcatStream stream = streams.get(deviceSerial);
+        if (stream != null) {
+            stream.subscribers.remove(session);
+        }
+    }
+
+    /**
+     * Removes all logcat subscriptions of a closed session.
+     *
+     * @param session
+     */
+    public static void unsubscribeAll(Session session) {
+        for (AdbLogcatStream stream : streams.values()) {
+            stream.subscribers.remove(session);
+        }
+    }
+
+    public static int getSubscriberCount(String deviceSerial) {
+        AdbLogcatStream stream = streams.get(deviceSerial);
+        return (stream == null) ? 0 : stream.subscribers.size();
+    }
+
+    private void readLoop() {
+        String error = "Logcat ended.";
+        try {
+            // No timeout, logcat may be quiet for a long time.
+            DdmlibDevices.getDevice(deviceSerial).executeShellCommand(LOGCAT_COMMAND, this, 0, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOG.error("Error reading logcat of device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error reading logcat of device '{}', Error: '{}'", deviceSerial, e.getMessage());
+            error = "Logcat error. Error: " + e.getMessage();
+        }
+
+        List<Subscriber> stopped = new ArrayList<>();
+        synchronized (streams) {
+            if (cancelled && !subscribers.isEmpty()) {
+                // Subscribed again while the reader was stopping.
+                cancelled = false;
+                READER_EXECUTOR.execute(this::readLoop);
+                return;
+            }
+            if (!cancelled) {
+                stopped.addAll(subscribers.values());
+            }
+            subscribers.clear();
+            running = false;
+            streams.remove(deviceSerial, this);
+        }
+
+        for (Subscriber subscriber : stopped) {
+            subscriber.sendError(error);
+        }
+        LOG.debug("Logcat reader stopped for device '{}'", deviceSerial);
+    }
+
+    @Override
+    public void processNewLines(String[] lines) {
+        synchronized (ring) {
+            for (String line : lines) {
+                AdbLogcatEntry entry = parse(line);
+                if (entry != null) {
+                    entry.setSequence(nextSequence);
+                    ring[(int) (nextSequence % RING_BUFFER_SIZE)] = entry;
+                    nextSequence++;
+                }
+            }
+        }
+
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.pump();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        if (subscribers.isEmpty()) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * @param line logcat line in threadtime format
+     * @return the entry or null for lines that are not log entries, such as buffer separators
+     */
+    static AdbLogcatEntry parse(String line) {
+        Matcher matcher = THREADTIME.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        AdbLogcatEntry entry = new AdbLogcatEntry();
+        entry.setTimestamp(matcher.group(1));
+        entry.setPid(Integer.valueOf(matcher.group(2)));
+        entry.setTid(Integer.valueOf(matcher.group(3)));
+        entry.setPriority(matcher.group(4));
+        entry.setTag(matcher.group(5));
+        entry.setMessage(matcher.group(6));
+        return entry;
+    }
+
+    private long getNextSequence() {
+        synchronized (ring) {
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Copies the entries from the sequence on, at most one ring buffer.
+     *
+     * @param sequence
+     * @return entries in order, the first one may be later than the sequence when older ones were overwritten
+     */
+    private List<AdbLogcatEntry> readFrom(long sequence) {
+        synchronized (ring) {
+            long from = Math.max(sequence, nextSequence - RING_BUFFER_SIZE);
+            List<AdbLogcatEntry> entries = new ArrayList<>((int) (nextSequence - from));
+            for (long i = from; i < nextSequence; i++) {
+                entries.add(ring[(int) (i % RING_BUFFER_SIZE)]);
+            }
+            return entries;
+        }
+    }
+
+    private static class Subscriber {
+        private final String deviceSerial;
+        private final String requestId;
+        private final AdbWebsocketSender sender;
+        private final Set<String> tags;
+        private final int minPriority;
+        private final Pattern regex;
+        private AdbLogcatStream stream;
+        // Guarded by this.
+        private long cursor;
+        private boolean sending;
+        // Entries of batches the sender dropped, reported with the next batch.
+        private long undelivered;
+
+        private Subscriber(AdbLogcatMessage request, AdbWebsocketSender sender) {
+            this.deviceSerial = request.getDeviceSerial();
+            this.requestId = request.getRequestId();
+            this.sender = sender;
+            this.tags = (request.getTags() == null || request.getTags().isEmpty()) ? null : new HashSet<>(request.getTags());
+            this.minPriority = (request.getMinPriority() == null) ? 0 : toPriority(request.getMinPriority());
+            this.regex = (request.getRegex() == null) ? null : Pattern.compile(request.getRegex());
+        }
+
+        private static int toPriority(String priority) {
+            int index = PRIORITIES.indexOf(priority.trim().toUpperCase());
+            if (priority.trim().length() != 1 || index < 0) {
+                throw new IllegalArgumentException("Unknown priority '" + priority + "', expected one of V, D, I, W, E, F.");
+            }
+            return index;
+        }
+
+        private boolean matches(AdbLogcatEntry entry) {
+            return PRIORITIES.indexOf(entry.getPriority()) >= minPriority
+                    && (tags == null || tags.contains(entry.getTag()))
+                    && (regex == null || regex.matcher(entry.getMessage()).find());
+        }
+
+        /**
+         * Sends the next batch unless one is still being written, called again once it has been.
+         */
+        private void pump() {
+            AdbLogcatMessage batch;
+            synchronized (this) {
+                if (sending) {
+                    return;
+                }
+                batch = nextBatch();
+                if (batch == null) {
+                    return;
+                }
+                sending = true;
+            }
+
+            try {
+                // Runs on the reader thread, which must not wait for a slow client.
+                sender.trySendMessage(batch).whenComplete((result, error) -> {
+                    synchronized (this) {
+                        sending = false;
+                        if (error instanceof CancellationException) {
+                            // Dropped by a full queue, the next line read sends what has accumulated since.
+                            undelivered += batch.getDropped() + batch.getEntries().size();
+                            return;
+                        }
+                    }
+                    if (error == null) {
+                        pump();
+                    }
+                });
+            } catch (JAXBException e) {
+                LOG.error("Error sending logcat entries, Error: '{}'", e.getMessage(), e);
+                synchronized (this) {
+                    sending = false;
+                }
+            }
+        }
+
+        private AdbLogcatMessage nextBatch() {
+            List<AdbLogcatEntry> available = stream.readFrom(cursor);
+            if (available.isEmpty()) {
+                return null;
+            }
+
+            long dropped = available.get(0).getSequence() - cursor + undelivered;
+            List<AdbLogcatEntry> entries = new ArrayList<>();
+            for (AdbLogcatEntry entry : available) {
+                cursor = entry.getSequence() + 1;
+                if (matches(entry)) {
+                    entries.add(entry);
+                    if (entries.size() == MAX_BATCH_SIZE) {
+                        break;
+                    }
+                }
+            }
+            if (entries.isEmpty() && dropped == 0) {
+                return null;
+            }
+
+            undelivered = 0;
+            AdbLogcatMessage batch = new AdbLogcatMessage(deviceSerial);
+            batch.setRequestId(requestId);
+            batch.setEntries(entries);
+            batch.setDropped(dropped);
+            batch.setStatusCode(206);
+            return batch;
+        }
+
+        private void sendError(String error) {
+            AdbLogcatMessage message = new AdbLogcatMessage(deviceSerial);
+            message.setRequestId(requestId);
+            message.setStatusCode(400);
+            message.setMessage(error);
+            try {
+                sender.sendMessage(message);
+            } catch (JAXBException e) {
+                LOG.error("Error sending logcat error, Error: '{}'", e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+
+/**
+ * Adaptive deflate compression of binary encoded messages. Only message types that can grow large are compressed and
+ * only above a size threshold, so small replies such as STATUS are sent as is. A message that does not shrink by at
+ * least {@link #MIN_SAVING_PERCENT} is sent uncompressed as well.
+ */
+public abstract class AdbMessageCompression {
+
+    public static final String DEFLATE = "deflate";
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int MIN_SAVING_PERCENT = 10;
+
+    private static final int TEXT_SAMPLE_SIZE = 512;
+
+    // Deflaters hold native memory until ended, keep a small number of idle ones and end the rest. Thread locals would
+    // keep one per virtual thread.
+    private static final int MAX_POOLED_DEFLATERS = 32;
+    private static final Queue<Deflater> deflaterPool = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+
+    private static final LongAdder compressedMessages = new LongAdder();
+    private static final LongAdder skippedMessages = new LongAdder();
+    private static final LongAdder uncompressedBytes = new LongAdder();
+    private static final LongAdder compressedBytes = new LongAdder();
+    private static final LongAdder compressionNanos = new LongAdder();
+
+    private static volatile Set<AdbWebsocketMessageType> compressedTypes = EnumSet.of(AdbWebsocketMessageType.DEVICES_GET,
+            AdbWebsocketMessageType.DIRECTORY_GET, AdbWebsocketMessageType.SHELL_COMMAND, AdbWebsocketMessageType.BATCH);
+    private static volatile int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param messageType
+     * @param size        encoded size of the message
+     * @return true when the message is worth trying to compress
+     */
+    public static boolean shouldCompress(AdbWebsocketMessageType messageType, int size) {
+        return size >= threshold && messageType != null && compressedTypes.contains(messageType);
+    }
+
+    /**
+     * Compresses the frame with raw deflate.
+     *
+     * @param frame
+     * @return the compressed data or null when compressing did not save enough
+     */
+    public static ByteBuffer compress(ByteBuffer frame) {
+        long start = System.nanoTime();
+        int size = frame.remaining();
+        Deflater deflater = deflaterPool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        byte[] output = new byte[size - size * MIN_SAVING_PERCENT / 100];
+        int length = 0;
+        try {
+            deflater.setInput(frame.duplicate());
+            deflater.finish();
+            while (!deflater.finished() && length < output.length) {
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            boolean worthwhile = deflater.finished();
+
+            uncompressedBytes.add(size);
+            if (!worthwhile) {
+                skippedMessages.increment();
+                compressedBytes.add(size);
+                return null;
+            }
+            compressedMessages.increment();
+            compressedBytes.add(length);
+            return ByteBuffer.wrap(output, 0, length);
+        } finally {
+            deflater.reset();
+            if (!deflaterPool.offer(deflater)) {
+                deflater.end();
+            }
+            compressionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Guesses from the start of the data whether it is text, binary formats such as images and archives are already
+     * compressed or do not compress well.
+     *
+     * @param data
+     * @return
+     */
+    public static boolean isTextLike(ByteBuffer data) {
+        int end = data.position() + Math.min(data.remaining(), TEXT_SAMPLE_SIZE);
+        int control = 0;
+        for (int i = data.position(); i < end; i++) {
+            int b = data.get(i) & 0xff;
+            if (b == 0) {
+                return false;
+            }
+            if (b < 0x20 && b != '\n' && b != '\r' && b != '\t') {
+                control++;
+            }
+        }
+        return control * 20 < (end - data.position());
+    }
+
+    public static long getCompressedCount() {
+        return compressedMessages.sum();
+    }
+
+    /**
+     * @return number of messages tried but sent uncompressed because they did not shrink enough
+     */
+    public static long getSkippedCount() {
+        return skippedMessages.sum();
+    }
+
+    public static long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * @return bytes sent for the tried messages, skipped messages count with their uncompressed size
+     */
+    public static long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return sent bytes per uncompressed byte of the tried messages, 1 when nothing was tried yet
+     */
+    public static double getCompressionRatio() {
+        long uncompressed = uncompressedBytes.sum();
+        return (uncompressed == 0) ? 1 : (double) compressedBytes.sum() / uncompressed;
+    }
+
+    /**
+     * @return time spent compressing, in nanoseconds
+     */
+    public static long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    public static Set<AdbWebsocketMessageType> getCompressedTypes() {
+        return compressedTypes;
+    }
+
+    public static void setCompressedTypes(Set<AdbWebsocketMessageType> compressedTypes) {
+        AdbMessageCompression.compressedTypes = compressedTypes.isEmpty() ? EnumSet.noneOf(AdbWebsocketMessageType.class) : EnumSet.copyOf(compressedTypes);
+    }
+
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold encoded size in bytes from which messages are compressed
+     */
+    public static void setThreshold(int threshold) {
+        AdbMessageCompression.threshold = threshold;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.cornerstonews.adb.websocket;
+
+import com.github.cornerstonews.adb.websocket.AdbWebsocketMetrics.Phase;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+
+/**
+ * Receives every measurement recorded by {@link AdbWebsocketMetrics}, to forward them to a metrics library such as
+ * Micrometer. Called on the hot path, implementations must not block.
+ */
+public interface AdbMetricsListener {
+
+    /**
+     * @param messageType
+     * @param bytes       size of the received message
+     */
+    default void onRequest(AdbWebsocketMessageType messageType, long bytes) {
+    }
+
+    /**
+     * @param messageType  null for data frames that are not a message
+     * @param deviceSerial null when the message is not for a device
+     * @param phase
+     * @param nanos
+     */
+    default void onLatency(AdbWebsocketMessageType messageType, String deviceSerial, Phase phase, long nanos) {
+    }
+
+    default void onBytesSent(long bytes) {
+    }
+
+    default void onTransferBytes(long bytes) {
+    }
+
+    default void onError(AdbWebsocketMessageType messageType, Throwable error) {
+    }
+}
@@ -0,0 +1,286 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.message.AdbForwardMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbForwardOpenMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.util.ByteBufferPool;
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Stream to a socket on a device, opened through the ADB server and multiplexed with the other streams of the session
+ * over its websocket. Each direction has a window: the server sends the client no more bytes than the client granted
+ * and the client sends no more than the server granted, so a stream that is not read does not hold up the others.
+ *
+ * Bytes from the device are read into pooled buffers behind the encoded message and the buffer is sent as the frame,
+ * bytes from the client are written to the device from the received frame. Neither direction copies the bytes.
+ */
+public class AdbPortForward {
+
+    private static final Logger LOG = LogManager.getLogger(AdbPortForward.class);
+
+    public static final int DEFAULT_WINDOW = 1024 * 256;
+    public static final int MAX_STREAMS = 16;
+
+    private static final int BUFFER_SIZE = 1024 * 16;
+    private static final int DEFAULT_TIMEOUT = 1000 * 30;
+    private static final Pattern REMOTE = Pattern.compile("^(tcp:\\d{1,5}|localabstract:.+)$");
+
+    private static final ByteBufferPool BUFFER_POOL = new ByteBufferPool(BUFFER_SIZE, 256);
+    private static final ExecutorService READER_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-forward");
+    private static final Map<Session, Map<Integer, AdbPortForward>> forwards = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextStreamId = new AtomicInteger(1);
+
+    private final int streamId;
+    private final Session session;
+    private final String deviceSerial;
+    private final String remote;
+    private final AdbWebsocketSender sender;
+    private final SocketChannel channel;
+    private final byte[] dataPrefix;
+    // Guarded by this, bytes the client still accepts.
+    private long sendWindow;
+    // Only used by the receiving thread of the session.
+    private long receiveWindow = DEFAULT_WINDOW;
+    private long unacknowledged;
+    private volatile boolean closed;
+
+    private AdbPortForward(AdbForwardOpenMessage request, AdbWebsocketSender sender, Session session, SocketChannel channel) throws JAXBException {
+        this.streamId = nextStreamId.getAndIncrement();
+        this.session = session;
+        this.deviceSerial = request.getDeviceSerial();
+        this.remote = request.getRemote();
+        this.sender = sender;
+        this.channel = channel;
+        this.sendWindow = (request.getWindow() == null) ? DEFAULT_WINDOW : Math.max(1, request.getWindow());
+
+        AdbForwardMessage data = new AdbForwardMessage(deviceSerial);
+        data.setStreamId(streamId);
+        this.dataPrefix = AdbWebsocketMessageCborCodec.encodeDataPrefix(data);
+    }
+
+    /**
+     * Connects to the socket on the device. Bytes are only relayed once the stream is started.
+     *
+     * @param request
+     * @param sender
+     * @param session
+     * @return
+     * @throws IOException              when the device refused the connection
+     * @throws JAXBException
+     * @throws IllegalArgumentException when the remote is not supported or the session has too many streams
+     */
+    public static AdbPortForward open(AdbForwardOpenMessage request, AdbWebsocketSender sender, Session session) throws IOException, JAXBException {
+        if (request.getRemote() == null || !REMOTE.matcher(request.getRemote()).matches()) {
+            throw new IllegalArgumentException("Remote must be tcp:<port> or localabstract:<name>.");
+        }
+        Map<Integer, AdbPortForward> streams = forwards.computeIfAbsent(session, key -> new ConcurrentHashMap<>());
+        if (streams.size() >= MAX_STREAMS) {
+            throw new IllegalArgumentException("Too many forward streams, at most " + MAX_STREAMS + " per connection.");
+        }
+
+        SocketChannel channel = AdbServerProtocol.connectChannel(DEFAULT_TIMEOUT);
+        try {
+            DataInputStream inputStream = new DataInputStream(channel.socket().getInputStream());
+            AdbServerProtocol.sendRequest(inputStream, channel.socket().getOutputStream(), "host:transport:" + request.getDeviceSerial());
+            AdbServerProtocol.sendRequest(inputStream, channel.socket().getOutputStream(), request.getRemote());
+
+            AdbPortForward forward = new AdbPortForward(request, sender, session, channel);
+            streams.put(forward.streamId, forward);
+            LOG.debug("Session '{}' opened forward stream {} to '{}' on device '{}'", session.getId(), forward.streamId, forward.remote, forward.deviceSerial);
+            return forward;
+        } catch (IOException | JAXBException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param session
+     * @param streamId
+     * @return stream of the session or null
+     */
+    public static AdbPortForward get(Session session, Integer streamId) {
+        Map<Integer, AdbPortForward> streams = forwards.get(session);
+        return (streams == null || streamId == null) ? null : streams.get(streamId);
+    }
+
+    /**
+     * Closes all streams of a closed session.
+     *
+     * @param session
+     */
+    public static void closeAll(Session session) {
+        Map<Integer, AdbPortForward> streams = forwards.remove(session);
+        if (streams != null) {
+            for (AdbPortForward forward : new ArrayList<>(streams.values())) {
+                forward.close();
+            }
+        }
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public void start() {
+        READER_EXECUTOR.execute(this::readLoop);
+    }
+
+    /**
+     * Writes bytes of the client to the device, called by the receiving thread of the session. The window of the client
+     * is granted again once half of it has been written.
+     *
+     * @param data
+     * @throws IOException when writing failed or the client sent more than its window
+     * @throws JAXBException
+     */
+    public void write(ByteBuffer data) throws IOException, JAXBException {
+        int length = data.remaining();
+        if (length > receiveWindow) {
+            throw new IOException("Client exceeded the stream window.");
+        }
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+
+        receiveWindow -= length;
+        unacknowledged += length;
+        if (unacknowledged >= DEFAULT_WINDOW / 2) {
+            AdbForwardMessage window = newMessage(AdbForwardMessage.ACTION_WINDOW);
+            window.setWindow((int) unacknowledged);
+            receiveWindow += unacknowledged;
+            unacknowledged = 0;
+            sender.sendMessage(window);
+        }
+    }
+
+    /**
+     * @param increment bytes the client accepts in addition to its window
+     */
+    public synchronized void addWindow(int increment) {
+        sendWindow += Math.max(0, increment);
+        notifyAll();
+    }
+
+    /**
+     * Closes the stream without telling the client, which asked for it or is gone.
+     */
+    public void close() {
+        closed = true;
+        unregister();
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.debug("Error closing forward stream {}, Error: '{}'", streamId, e.getMessage());
+        }
+    }
+
+    private void unregister() {
+        Map<Integer, AdbPortForward> streams = forwards.get(session);
+        if (streams != null) {
+            streams.remove(streamId, this);
+        }
+    }
+
+    private void readLoop() {
+        int dataStart = dataPrefix.length + AdbWebsocketMessageCborCodec.DATA_LENGTH_SIZE;
+        String error = null;
+        try {
+            int window;
+            while ((window = awaitWindow()) > 0) {
+                ByteBuffer buffer = BUFFER_POOL.acquire();
+                buffer.limit(Math.min(buffer.capacity(), dataStart + window)).position(dataStart);
+                int length;
+                try {
+                    length = channel.read(buffer);
+                } catch (IOException e) {
+                    BUFFER_POOL.release(buffer);
+                    throw e;
+                }
+                if (length < 0) {
+                    BUFFER_POOL.release(buffer);
+                    break;
+                }
+
+                buffer.flip();
+                buffer.put(dataPrefix);
+                AdbWebsocketMessageCborCodec.putDataLength(buffer, dataPrefix.length, length);
+                buffer.position(0);
+                synchronized (this) {
+                    sendWindow -= length;
+                }
+                sender.sendBinary(buffer).whenComplete((result, sendError) -> BUFFER_POOL.release(buffer));
+            }
+        } catch (IOException | InterruptedException e) {
+            // Reading fails once the stream has been closed.
+            if (!closed) {
+                LOG.error("Error reading forward stream of device, Error: '{}'", e.getMessage(), e);
+                LOG.trace("Error reading forward stream {} to '{}' of device '{}', Error: '{}'", streamId, remote, deviceSerial, e.getMessage());
+                error = "Forward stream error. Error: " + e.getMessage();
+            }
+        }
+
+        if (closed) {
+            return;
+        }
+        close();
+        sendClose(error);
+    }
+
+    /**
+     * @return bytes that may be read next, 0 once the stream is closed
+     * @throws InterruptedException
+     */
+    private synchronized int awaitWindow() throws InterruptedException {
+        while (sendWindow <= 0 && !closed) {
+            wait();
+        }
+        return closed ? 0 : (int) Math.min(sendWindow, BUFFER_SIZE);
+    }
+
+    /**
+     * Tells the client the device closed the stream.
+     *
+     * @param error or null when the device closed the socket
+     */
+    private void sendClose(String error) {
+        if (!session.isOpen()) {
+            return;
+        }
+        AdbForwardMessage message = newMessage(AdbForwardMessage.ACTION_CLOSE);
+        message.setStatusCode((error == null) ? 200 : 400);
+        message.setMessage((error == null) ? "Forward stream closed by device." : error);
+        try {
+            sender.sendMessage(message);
+        } catch (JAXBException e) {
+            LOG.error("Error sending forward stream close, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private AdbForwardMessage newMessage(String action) {
+        AdbForwardMessage message = new AdbForwardMessage(deviceSerial);
+        message.setStreamId(streamId);
+        message.setAction(action);
+        return message;
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Keeps interrupted file transfers, with their temp file, so a client can resume them from the last received offset
+ * after a reconnect. Parked transfers expire and are cleaned up when they are not resumed in time.
+ */
+public abstract class AdbResumableTransfers {
+
+    private static final Logger LOG = LogManager.getLogger(AdbResumableTransfers.class);
+
+    private static final long EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Map<String, ParkedTransfer> parkedTransfers = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService expiryExecutor = Executors
+            .newSingleThreadScheduledExecutor(ExecutorUtils.newDaemonThreadFactory("adb-websocket-transfer-expiry"));
+
+    static {
+        expiryExecutor.scheduleWithFixedDelay(AdbResumableTransfers::expire, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Parks the transfer if it can be resumed, otherwise it is cleaned up.
+     *
+     * @param deviceSerial
+     * @param processor
+     */
+    public static void park(String deviceSerial, AdbFileTransferProcessor processor) {
+        if (!processor.isResumable()) {
+            cleanup(processor);
+            return;
+        }
+
+        LOG.debug("Parking file transfer '{}' at offset {}", processor.getTransferId(), processor.getTransferedSize());
+        parkedTransfers.put(processor.getTransferId(), new ParkedTransfer(deviceSerial, processor));
+    }
+
+    /**
+     * Takes a parked transfer for the same device and transfer type.
+     *
+     * @param transferId
+     * @param deviceSerial
+     * @param processorType push or pull message class of the new request
+     * @return processor or null when not found or expired
+     */
+    public static AdbFileTransferProcessor resume(String transferId, String deviceSerial, Class<?> processorType) {
+        ParkedTransfer parked = parkedTransfers.get(transferId);
+        if (parked == null || !parked.deviceSerial.equals(deviceSerial) || !processorType.isInstance(parked.processor.getAdbMessage())) {
+            return null;
+        }
+        return parkedTransfers.remove(transferId, parked) ? parked.processor : null;
+    }
+
+    private static void expire() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ParkedTransfer> entry : parkedTransfers.entrySet()) {
+            ParkedTransfer parked = entry.getValue();
+            // Only clean up when the transfer was not resumed in the meantime.
+            if (now - parked.parkedAt > EXPIRY_MILLIS && parkedTransfers.remove(entry.getKey(), parked)) {
+                LOG.debug("Parked file transfer '{}' expired.", parked.processor.getTransferId());
+                cleanup(parked.processor);
+            }
+        }
+    }
+
+    private static void cleanup(AdbFileTransferProcessor processor) {
+        try {
+            processor.cleanup();
+        } catch (IOException e) {
+            LOG.error("Error cleaning up file transfer, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private static class ParkedTransfer {
+        private final String deviceSerial;
+        private final AdbFileTransferProcessor processor;
+        private final long parkedAt = System.currentTimeMillis();
+
+        private ParkedTransfer(String deviceSerial, AdbFileTransferProcessor processor) {
+            this.deviceSerial = deviceSerial;
+            this.processor = processor;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.websocket.Session;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.RawImage;
+import com.github.cornerstonews.adb.websocket.message.AdbScreenStreamMessage;
+import com.github.cornerstonews.util.ExecutorUtils;
+
+/**
+ * Captures the framebuffer of a device and streams it to the sessions watching it. There is one capture loop per device,
+ * shared by all its watchers. A frame is cut in tiles and each tile hashed once, every watcher is then sent the tiles
+ * that changed since the last frame it received, a frame without changes is not sent at all. A watcher whose previous
+ * frame is still being written skips frames and has its frame rate halved, the rate goes back up by one with each
+ * frame written in time. The first frame sent to a watcher has all tiles.
+ */
+public class AdbScreenCapture {
+
+    private static final Logger LOG = LogManager.getLogger(AdbScreenCapture.class);
+
+    public static final int TILE_SIZE = 64;
+    public static final int DEFAULT_MAX_FPS = 10;
+    public static final int MAX_FPS = 30;
+
+    private static final long CAPTURE_TIMEOUT_MILLIS = 1000 * 5;
+    private static final ExecutorService CAPTURE_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-screen-capture");
+    private static final Map<String, AdbScreenCapture> captures = new ConcurrentHashMap<>();
+
+    private final String deviceSerial;
+    private final Map<Session, Watcher> watchers = new ConcurrentHashMap<>();
+    // Guarded by captures, true while the capture loop of this device runs.
+    private boolean running;
+    private long sequence;
+
+    private AdbScreenCapture(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    /**
+     * Adds the session to the watchers of the device, starting the capture loop if it is the first. A session already
+     * watching the device is restarted with a key frame.
+     *
+     * @param request  start message, frames are sent with its requestId
+     * @param sender
+     * @param session
+     */
+    public static void watch(AdbScreenStreamMessage request, AdbWebsocketSender sender, Session session) {
+        int maxFps = (request.getMaxFps() == null) ? DEFAULT_MAX_FPS : Math.max(1, Math.min(request.getMaxFps(), MAX_FPS));
+        Watcher watcher = new Watcher(request.getDeviceSerial(), request.getRequestId(), sender, maxFps);
+        boolean start;
+        synchronized (captures) {
+            AdbScreenCapture capture = captures.computeIfAbsent(request.getDeviceSerial(), AdbScreenCapture::new);
+            capture.watchers.put(session, watcher);
+            start = !capture.running;
+            if (start) {
+                capture.running = true;
+                CAPTURE_EXECUTOR.execute(capture::captureLoop);
+            }
+        }
+        LOG.debug("Session '{}' watching screen of device '{}', capture started: {}", session.getId(), request.getDeviceSerial(), start);
+    }
+
+    public static void unwatch(String deviceSerial, Session session) {
+        AdbScreenCapture capture = captures.get(deviceSerial);
+        if (capture != null) {
+            capture.watchers.remove(session);
+        }
+    }
+
+    /**
+     * Stops all screen streams of a closed session.
+     *
+     * @param session
+     */
+    public static void unwatchAll(Session session) {
+        for (AdbScreenCapture capture : captures.values()) {
+            capture.watchers.remove(session);
+        }
+    }
+
+    public static int getWatcherCount(String deviceSerial) {
+        AdbScreenCapture capture = captures.get(deviceSerial);
+        return (capture == null) ? 0 : capture.watchers.size();
+    }
+
+    private void captureLoop() {
+        try {
+            IDevice device = DdmlibDevices.getDevice(deviceSerial);
+            int fps;
+            while ((fps = getCaptureFps()) > 0) {
+                long start = System.nanoTime();
+                RawImage image = device.getScreenshot(CAPTURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (image == null) {
+                    throw new IOException("Device returned no screen image.");
+                }
+                Frame frame = new Frame(image, sequence++);
+                for (Watcher watcher : watchers.values()) {
+                    watcher.offer(frame);
+                }
+
+                long sleepNanos = TimeUnit.SECONDS.toNanos(1) / fps - (System.nanoTime() - start);
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+            }
+            LOG.debug("Screen capture stopped for device '{}'", deviceSerial);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        } catch (Exception e) {
+            LOG.error("Error capturing screen of device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error capturing screen of device '{}', Error: '{}'", deviceSerial, e.getMessage());
+            for (Watcher watcher : stop()) {
+                watcher.sendError("Screen capture error. Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return frame rate of the fastest watcher, 0 when nobody watches anymore and the loop has to stop
+     */
+    private int getCaptureFps() {
+        synchronized (captures) {
+            if (watchers.isEmpty()) {
+                stop();
+                return 0;
+            }
+        }
+
+        int fps = 1;
+        for (Watcher watcher : watchers.values()) {
+            fps = Math.max(fps, watcher.fps);
+        }
+        return fps;
+    }
+
+    /**
+     * @return the watchers that were still watching
+     */
+    private List<Watcher> stop() {
+        synchronized (captures) {
+            List<Watcher> stopped = new ArrayList<>(watchers.values());
+            watchers.clear();
+            running = false;
+            captures.remove(deviceSerial, this);
+            return stopped;
+        }
+    }
+
+    private static class Frame {
+        private final RawImage image;
+        private final long sequence;
+        private final int columns;
+        private final int rows;
+        private final long[] tileHashes;
+        private final byte[][] tilePixels;
+
+        private Frame(RawImage image, long sequence) {
+            this.image = image;
+            this.sequence = sequence;
+            this.columns = (image.width + TILE_SIZE - 1) / TILE_SIZE;
+            this.rows = (image.height + TILE_SIZE - 1) / TILE_SIZE;
+            this.tileHashes = new long[columns * rows];
+            this.tilePixels = new byte[columns * rows][];
+            hashTiles();
+        }
+
+        private void hashTiles() {
+            int bytesPerPixel = image.bpp / 8;
+            CRC32 crc = new CRC32();
+            for (int tile = 0; tile < tileHashes.length; tile++) {
+                int x = (tile % columns) * TILE_SIZE;
+                int y = (tile / columns) * TILE_SIZE;
+                int rowBytes = Math.min(TILE_SIZE, image.width - x) * bytesPerPixel;
+                crc.reset();
+                for (int row = y; row < Math.min(y + TILE_SIZE, image.height); row++) {
+                    crc.update(image.data, (row * image.width + x) * bytesPerPixel, rowBytes);
+                }
+                tileHashes[tile] = crc.getValue();
+            }
+        }
+
+        /**
+         * Converts the tile to RGBA once, whichever watcher needs it first.
+         */
+        private synchronized byte[] getTilePixels(int tile) {
+            if (tilePixels[tile] == null) {
+                int bytesPerPixel = image.bpp / 8;
+                int x = (tile % columns) * TILE_SIZE;
+                int y = (tile / columns) * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, image.width - x);
+                int tileHeight = Math.min(TILE_SIZE, image.height - y);
+                ByteBuffer pixels = ByteBuffer.allocate(tileWidth * tileHeight * 4);
+                for (int row = y; row < y + tileHeight; row++) {
+                    for (int column = x; column < x + tileWidth; column++) {
+                        int argb = image.getARGB((row * image.width + column) * bytesPerPixel);
+                        pixels.putInt((argb << 8) | (argb >>> 24));
+                    }
+                }
+                tilePixels[tile] = pixels.array();
+            }
+            return tilePixels[tile];
+        }
+    }
+
+    private static class Watcher {
+        private final String deviceSerial;
+        private final String requestId;
+        private final AdbWebsocketSender sender;
+        private final int maxFps;
+        private volatile int fps;
+        private long lastSentNanos;
+        // Frame the client is known to have, null when the next frame has to be a key frame.
+        private volatile Frame lastSent;
+        private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+        private Watcher(String deviceSerial, String requestId, AdbWebsocketSender sender, int maxFps) {
+            this.deviceSerial = deviceSerial;
+            this.requestId = requestId;
+            this.sender = sender;
+            this.maxFps = maxFps;
+            this.fps = maxFps;
+        }
+
+        private void offer(Frame frame) {
+            if (!pending.isDone()) {
+                fps = Math.max(1, fps / 2);
+                return;
+            }
+            if (System.nanoTime() - lastSentNanos < TimeUnit.SECONDS.toNanos(1) / fps) {
+                return;
+            }
+
+            Frame lastSent = this.lastSent;
+            boolean keyFrame = lastSent == null || lastSent.image.width != frame.image.width || lastSent.image.height != frame.image.height;
+            List<Integer> tiles = new ArrayList<>();
+            int size = 0;
+            for (int tile = 0; tile < frame.tileHashes.length; tile++) {
+                if (keyFrame || frame.tileHashes[tile] != lastSent.tileHashes[tile]) {
+                    tiles.add(tile);
+                    size += frame.getTilePixels(tile).length;
+                }
+            }
+            if (tiles.isEmpty()) {
+                return;
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(size);
+            for (int tile : tiles) {
+                data.put(frame.getTilePixels(tile));
+            }
+            data.flip();
+
+            AdbScreenStreamMessage message = new AdbScreenStreamMessage(deviceSerial);
+            message.setRequestId(requestId);
+            message.setWidth(frame.image.width);
+            message.setHeight(frame.image.height);
+            message.setTileSize(TILE_SIZE);
+            message.setTiles(tiles);
+            message.setPixelFormat(AdbScreenStreamMessage.PIXEL_FORMAT_RGBA_8888);
+            message.setSequence(frame.sequence);
+            message.setStatusCode(206);
+            try {
+                lastSentNanos = System.nanoTime();
+                // The tiles are a delta against the frame the client has, a frame that did not arrive leaves it unknown.
+                pending = sender.sendMessage(message, data, true).whenComplete((result, error) -> {
+                    if (error != null) {
+                        this.lastSent = null;
+                        return;
+                    }
+                    this.lastSent = frame;
+                    if (fps < maxFps) {
+                        fps++;
+                    }
+                });
+            } catch (Exception e) {
+                LOG.error("Error sending screen frame, Error: '{}'", e.getMessage(), e);
+                this.lastSent = null;
+            }
+        }
+
+        private void sendError(String error) {
+            AdbScreenStreamMessage message = new AdbScreenStreamMessage(deviceSerial);
+            message.setRequestId(requestId);
+            message.setStatusCode(400);
+            message.setMessage(error);
+            try {
+                sender.sendMessage(message);
+            } catch (Exception e) {
+                LOG.error("Error sending screen capture error, Error: '{}'", e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.android.ddmlib.AndroidDebugBridge;
+
+/**
+ * Requests to the ADB server over its socket, for the services ddmlib does not expose.
+ */
+abstract class AdbServerProtocol {
+
+    private static final int DEFAULT_ADB_PORT = 5037;
+
+    static Socket connect(int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            socket.connect(getAddress(), timeoutMillis);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects with a channel, for connections that read into buffers directly once the requests are sent. The timeout
+     * applies to the streams of {@link SocketChannel#socket()}, reads from the channel block.
+     *
+     * @param timeoutMillis
+     * @return
+     * @throws IOException
+     */
+    static SocketChannel connectChannel(int timeoutMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            socket.connect(getAddress(), timeoutMillis);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static InetSocketAddress getAddress() {
+        InetSocketAddress address = AndroidDebugBridge.getSocketAddress();
+        return (address != null) ? address : new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_ADB_PORT);
+    }
+
+    /**
+     * Sends a request and waits for the server to accept it.
+     *
+     * @param inputStream
+     * @param outputStream
+     * @param request      for example "host:transport:SERIAL"
+     * @throws IOException when the server refused the request
+     */
+    static void sendRequest(DataInputStream inputStream, OutputStream outputStream, String request) throws IOException {
+        byte[] requestBytes = request.getBytes(StandardCharsets.UTF_8);
+        outputStream.write(String.format("%04X", requestBytes.length).getBytes(StandardCharsets.US_ASCII));
+        outputStream.write(requestBytes);
+        outputStream.flush();
+
+        String status = readString(inputStream, 4);
+        if (!"OKAY".equals(status)) {
+            String message = "FAIL".equals(status) ? readLengthPrefixedString(inputStream) : status;
+            throw new IOException("ADB request '" + request + "' failed: " + message);
+        }
+    }
+
+    /**
+     * @param deviceSerial
+     * @param timeoutMillis
+     * @return features the ADB server and device both support, such as "shell_v2"
+     * @throws IOException
+     */
+    static String getFeatures(String deviceSerial, int timeoutMillis) throws IOException {
+        try (Socket socket = connect(timeoutMillis)) {
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            sendRequest(inputStream, socket.getOutputStream(), "host-serial:" + deviceSerial + ":features");
+            return readLengthPrefixedString(inputStream);
+        }
+    }
+
+    /**
+     * Runs a command on the device without a terminal and waits for it to exit.
+     *
+     * @param deviceSerial
+     * @param command
+     * @param timeoutMillis
+     * @return standard output and error of the command
+     * @throws IOException
+     */
+    static String exec(String deviceSerial, String command, int timeoutMillis) throws IOException {
+        try (Socket socket = connect(timeoutMillis)) {
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            sendRequest(inputStream, socket.getOutputStream(), "host:transport:" + deviceSerial);
+            sendRequest(inputStream, socket.getOutputStream(), "exec:" + command);
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static String readLengthPrefixedString(DataInputStream inputStream) throws IOException {
+        return readString(inputStream, Integer.parseInt(readString(inputStream, 4), 16));
+    }
+
+    static String readString(DataInputStream inputStream, int length) throws IOException {
+        byte[] value = new byte[length];
+        inputStream.readFully(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.github.cornerstonews.util.TtlCache;
+
+/**
+ * Runs identical read-only shell commands on a device once. A request for a command that is already running waits for
+ * and shares its output, and the output is cached for a short time to serve repeats. Only commands matching the allow
+ * list and without shell operators are coalesced, their output must not depend on which session asked.
+ */
+public abstract class AdbShellCommandCoalescer {
+
+    public static final long DEFAULT_RESULT_TTL_MILLIS = 1000 * 2;
+
+    private static final Pattern SHELL_OPERATORS = Pattern.compile("[;&|<>`$\\n]");
+
+    private static final Map<CommandKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private static final TtlCache<CommandKey, String> results = new TtlCache<>(DEFAULT_RESULT_TTL_MILLIS, 1024);
+    private static final LongAdder coalesced = new LongAdder();
+
+    private static volatile List<Pattern> allowedCommands = List.of(
+            Pattern.compile("getprop(\\s+[\\w.\\-]+)?"),
+            Pattern.compile("dumpsys\\s+(battery|meminfo|cpuinfo|power)"),
+            Pattern.compile("df(\\s+-[a-zA-Z]+)*(\\s+[\\w/.\\-]+)?"),
+            Pattern.compile("uptime"));
+
+    public static boolean isCoalescable(String shellCommand) {
+        if (shellCommand == null || SHELL_OPERATORS.matcher(shellCommand).find()) {
+            return false;
+        }
+
+        String command = shellCommand.trim();
+        for (Pattern allowedCommand : allowedCommands) {
+            if (allowedCommand.matcher(command).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cached output, waits for an identical running command or runs the command.
+     *
+     * @param deviceSerial
+     * @param shellCommand
+     * @param command      runs the shell command on the device
+     * @return
+     * @throws IOException when the command failed, the cause is the original error
+     */
+    public static String execute(String deviceSerial, String shellCommand, Callable<String> command) throws IOException {
+        CommandKey key = new CommandKey(deviceSerial, shellCommand.trim());
+        String output = results.getIfPresent(key);
+        if (output != null) {
+            return output;
+        }
+
+        CompletableFuture<String> execution = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, execution);
+        if (running != null) {
+            coalesced.increment();
+            return await(running);
+        }
+
+        long loadGeneration = results.getGeneration(key);
+        try {
+            output = command.call();
+            results.put(key, output, loadGeneration);
+            execution.complete(output);
+            return output;
+        } catch (Exception e) {
+            execution.completeExceptionally(e);
+            throw (e instanceof IOException) ? (IOException) e : new IOException(e.getMessage(), e);
+        } finally {
+            inFlight.remove(key, execution);
+        }
+    }
+
+    public static void invalidateDevice(String deviceSerial) {
+        results.invalidateIf(key -> Objects.equals(key.deviceSerial, deviceSerial));
+    }
+
+    public static TtlCache<?, String> getResultCache() {
+        return results;
+    }
+
+    public static long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public static List<Pattern> getAllowedCommands() {
+        return allowedCommands;
+    }
+
+    /**
+     * @param allowedCommands patterns a whole command has to match to be coalesced
+     */
+    public static void setAllowedCommands(List<Pattern> allowedCommands) {
+        AdbShellCommandCoalescer.allowedCommands = List.copyOf(allowedCommands);
+    }
+
+    private static String await(CompletableFuture<String> running) throws IOException {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static final class CommandKey {
+        private final String deviceSerial;
+        private final String shellCommand;
+
+        private CommandKey(String deviceSerial, String shellCommand) {
+            this.deviceSerial = deviceSerial;
+            this.shellCommand = shellCommand;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CommandKey)) {
+                return false;
+            }
+            CommandKey other = (CommandKey) obj;
+            return Objects.equals(deviceSerial, other.deviceSerial) && shellCommand.equals(other.shellCommand);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceSerial, shellCommand);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interactive shell of a device with a pseudo terminal, opened through the ADB server. ddmlib only runs single commands
+ * and cannot write to their input. Devices with the shell v2 protocol get a channel that carries the terminal size and
+ * the exit code, older devices fall back to the raw shell stream where the terminal cannot be resized.
+ */
+public class AdbShellConnection implements Closeable {
+
+    public static final int MAX_DATA_SIZE = 1024 * 16;
+
+    static final String SHELL_V2_FEATURE = "shell_v2";
+
+    private static final int DEFAULT_TIMEOUT = 1000 * 30;
+
+    // Shell v2 packet ids, each packet is the id, the length as little endian int and the data.
+    private static final int ID_STDIN = 0;
+    private static final int ID_STDOUT = 1;
+    private static final int ID_STDERR = 2;
+    private static final int ID_EXIT = 3;
+    private static final int ID_CLOSE_STDIN = 4;
+    private static final int ID_WINDOW_SIZE_CHANGE = 5;
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private final boolean shellV2;
+    private final ByteBuffer header = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile Integer exitCode;
+
+    private AdbShellConnection(Socket socket, boolean shellV2) throws IOException {
+        this.socket = socket;
+        this.inputStream = new DataInputStream(socket.getInputStream());
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), MAX_DATA_SIZE + header.capacity());
+        this.shellV2 = shellV2;
+    }
+
+    /**
+     * @param deviceSerial
+     * @param rows         terminal size, null for the default size of the device
+     * @param cols
+     * @return
+     * @throws IOException
+     */
+    public static AdbShellConnection open(String deviceSerial, Integer rows, Integer cols) throws IOException {
+        boolean shellV2 = Arrays.asList(AdbServerProtocol.getFeatures(deviceSerial, DEFAULT_TIMEOUT).split(",")).contains(SHELL_V2_FEATURE);
+        Socket socket = AdbServerProtocol.connect(DEFAULT_TIMEOUT);
+        try {
+            AdbShellConnection connection = new AdbShellConnection(socket, shellV2);
+            AdbServerProtocol.sendRequest(connection.inputStream, connection.outputStream, "host:transport:" + deviceSerial);
+            AdbServerProtocol.sendRequest(connection.inputStream, connection.outputStream, shellV2 ? "shell,v2,pty:" : "shell:");
+            // An interactive shell can be quiet for as long as its user is.
+            socket.setSoTimeout(0);
+            if (rows != null && cols != null) {
+                connection.resize(rows, cols);
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public boolean isShellV2() {
+        return shellV2;
+    }
+
+    public synchronized void write(byte[] data, int offset, int length) throws IOException {
+        if (!shellV2) {
+            outputStream.write(data, offset, length);
+            outputStream.flush();
+            return;
+        }
+
+        while (length > 0) {
+            int chunkSize = Math.min(length, MAX_DATA_SIZE);
+            writePacket(ID_STDIN, data, offset, chunkSize);
+            offset += chunkSize;
+            length -= chunkSize;
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * @param rows
+     * @param cols
+     * @return false when the device has no shell v2 and the size cannot be changed
+     * @throws IOException
+     */
+    public synchronized boolean resize(int rows, int cols) throws IOException {
+        if (!shellV2) {
+            return false;
+        }
+
+        // Rows and columns in characters followed by the size in pixels, which nothing uses.
+        byte[] size = (rows + "x" + cols + ",0x0\0").getBytes(StandardCharsets.US_ASCII);
+        writePacket(ID_WINDOW_SIZE_CHANGE, size, 0, size.length);
+        outputStream.flush();
+        return true;
+    }
+
+    /**
+     * Closes the input of the shell, an interactive shell exits as with end of file.
+     *
+     * @throws IOException
+     */
+    public synchronized void closeInput() throws IOException {
+        if (!shellV2) {
+            socket.shutdownOutput();
+            return;
+        }
+
+        writePacket(ID_CLOSE_STDIN, null, 0, 0);
+        outputStream.flush();
+    }
+
+    /**
+     * Blocks until the shell writes output, called by a single reader.
+     *
+     * @return output of the shell, null once it exited
+     * @throws IOException
+     */
+    public byte[] read() throws IOException {
+        if (!shellV2) {
+            byte[] buffer = new byte[MAX_DATA_SIZE];
+            int length = inputStream.read(buffer);
+            return (length < 0) ? null : Arrays.copyOf(buffer, length);
+        }
+
+        while (true) {
+            int id;
+            byte[] data;
+            try {
+                id = inputStream.readUnsignedByte();
+                // adbd fills each packet from a single read of the pseudo terminal, a longer length means the stream is corrupt.
+                int length = Integer.reverseBytes(inputStream.readInt());
+                if (length < 0 || length > MAX_DATA_SIZE) {
+                    throw new IOException("Invalid shell packet length: " + length);
+                }
+                data = new byte[length];
+                inputStream.readFully(data);
+            } catch (EOFException e) {
+                return null;
+            }
+
+            if (id == ID_STDOUT || id == ID_STDERR) {
+                return data;
+            }
+            if (id == ID_EXIT) {
+                exitCode = (data.length > 0) ? data[0] & 0xFF : null;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return exit code of the shell, null while it runs or when the device does not report it
+     */
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void writePacket(int id, byte[] data, int offset, int length) throws IOException {
+        header.clear();
+        header.put((byte) id).putInt(length);
+        outputStream.write(header.array(), 0, header.position());
+        if (length > 0) {
+            outputStream.write(data, offset, length);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+
+/**
+ * Sends shell output to the client as it is received from the device. Each chunk is a SHELL_COMMAND message with
+ * status code 206 and an increasing sequence number. Chunks are queued on the session's sender without waiting for them
+ * to be written, the ddmlib reader is only held up when the sender's bounded queue is full. The command is cancelled
+ * as soon as a chunk cannot be sent.
+ */
+public class AdbShellOutputStreamer implements IShellOutputReceiver {
+
+    private static final Logger LOG = LogManager.getLogger(AdbShellOutputStreamer.class);
+
+    static final String EXIT_CODE_MARKER = "__ADB_WEBSOCKET_EXIT_CODE__:";
+
+    private static final int MAX_CHUNK_SIZE = 1024 * 16;
+    // Enough to never split the exit code marker line between two chunks.
+    private static final int HOLD_BACK_SIZE = EXIT_CODE_MARKER.length() + 16;
+
+    private final AdbShellCommandMessage request;
+    private final AdbWebsocketSender sender;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder pending = new StringBuilder();
+    private ByteBuffer undecoded = ByteBuffer.allocate(0);
+
+    private long sequence;
+    private volatile boolean cancelled;
+
+    public AdbShellOutputStreamer(AdbShellCommandMessage request, AdbWebsocketSender sender) {
+        this.request = request;
+        this.sender = sender;
+    }
+
+    /**
+     * Appends an echo of the exit code to the command, ddmlib does not report it.
+     *
+     * @param shellCommand
+     * @return
+     */
+    public static String withExitCode(String shellCommand) {
+        return shellCommand + "\necho " + EXIT_CODE_MARKER + "$?";
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (cancelled) {
+            return;
+        }
+
+        ByteBuffer input = ByteBuffer.allocate(undecoded.remaining() + length);
+        input.put(undecoded).put(data, offset, length).flip();
+        CharBuffer output = CharBuffer.allocate(input.remaining());
+        decoder.decode(input, output, false);
+        undecoded = input.slice();
+        pending.append(output.flip());
+
+        sendPending(pending.length() - HOLD_BACK_SIZE);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sends the remaining output once the command has completed.
+     *
+     * @return exit code of the command or null if it could not be read
+     */
+    public Integer finish() {
+        CharBuffer output = CharBuffer.allocate(undecoded.remaining() + 1);
+        decoder.decode(undecoded, output, true);
+        decoder.flush(output);
+        pending.append(output.flip());
+
+        Integer exitCode = null;
+        int markerIndex = pending.lastIndexOf(EXIT_CODE_MARKER);
+        if (markerIndex >= 0) {
+            try {
+                exitCode = Integer.valueOf(pending.substring(markerIndex + EXIT_CODE_MARKER.length()).trim());
+            } catch (NumberFormatException e) {
+                LOG.debug("Unable to read exit code of shell command: '{}'", request.getShellCommand());
+            }
+            pending.setLength(markerIndex);
+        }
+
+        sendPending(pending.length());
+        return exitCode;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    private void sendPending(int length) {
+        while (!cancelled && length > 0) {
+            int chunkSize = Math.min(length, MAX_CHUNK_SIZE);
+            sendChunk(pending.substring(0, chunkSize));
+            pending.delete(0, chunkSize);
+            length -= chunkSize;
+        }
+    }
+
+    private void sendChunk(String output) {
+        AdbShellCommandMessage chunk = new AdbShellCommandMessage(request.getDeviceSerial());
+        chunk.setRequestId(request.getRequestId());
+        chunk.setStream(Boolean.TRUE);
+        chunk.setSequence(sequence++);
+        chunk.setShellCommandOutput(output);
+        chunk.setStatusCode(206);
+        try {
+            sender.sendMessage(chunk).whenComplete((result, error) -> {
+                if (error != null) {
+                    cancel(error);
+                }
+            });
+        } catch (JAXBException e) {
+            cancel(e);
+        }
+    }
+
+    private void cancel(Throwable error) {
+        if (!cancelled) {
+            LOG.error("Error sending shell output to client, cancelling command. Error: '{}'", error.getMessage(), error);
+            cancelled = true;
+        }
+    }
+}
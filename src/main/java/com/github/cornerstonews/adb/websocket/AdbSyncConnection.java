@@ -0,0 +1,114 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection to the sync service of a device through the ADB server. ddmlib can only push from a local file, this
+ * connection lets data be written to the device while it is still being received.
+ */
+public class AdbSyncConnection implements Closeable {
+
+    public static final int MAX_DATA_SIZE = 1024 * 64;
+
+    private static final int DEFAULT_TIMEOUT = 1000 * 30;
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+    private AdbSyncConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.inputStream = new DataInputStream(socket.getInputStream());
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), MAX_DATA_SIZE + header.capacity());
+    }
+
+    public static AdbSyncConnection open(String deviceSerial) throws IOException {
+        return open(deviceSerial, DEFAULT_TIMEOUT);
+    }
+
+    public static AdbSyncConnection open(String deviceSerial, int timeoutMillis) throws IOException {
+        Socket socket = AdbServerProtocol.connect(timeoutMillis);
+        try {
+            AdbSyncConnection connection = new AdbSyncConnection(socket);
+            connection.sendHostRequest("host:transport:" + deviceSerial);
+            connection.sendHostRequest("sync:");
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts sending a file, followed by {@link #sendData(byte[], int, int)} and {@link #finishSend(long)}.
+     *
+     * @param remotePath
+     * @param mode       unix permissions of the file, for example 0644
+     * @throws IOException
+     */
+    public void startSend(String remotePath, int mode) throws IOException {
+        byte[] pathAndMode = (remotePath + "," + (mode & 0777)).getBytes(StandardCharsets.UTF_8);
+        writeHeader("SEND", pathAndMode.length);
+        outputStream.write(pathAndMode);
+    }
+
+    public void sendData(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int chunkSize = Math.min(length, MAX_DATA_SIZE);
+            writeHeader("DATA", chunkSize);
+            outputStream.write(data, offset, chunkSize);
+            offset += chunkSize;
+            length -= chunkSize;
+        }
+    }
+
+    /**
+     * Completes the file and waits for the device to confirm it has been written.
+     *
+     * @param lastModifiedSeconds
+     * @throws IOException
+     */
+    public void finishSend(long lastModifiedSeconds) throws IOException {
+        writeHeader("DONE", (int) lastModifiedSeconds);
+        outputStream.flush();
+        readSyncStatus();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void sendHostRequest(String request) throws IOException {
+        AdbServerProtocol.sendRequest(inputStream, outputStream, request);
+    }
+
+    private void writeHeader(String id, int value) throws IOException {
+        header.clear();
+        header.put(id.getBytes(StandardCharsets.US_ASCII)).putInt(value);
+        outputStream.write(header.array(), 0, header.position());
+    }
+
+    private void readSyncStatus() throws IOException {
+        byte[] response = new byte[8];
+        inputStream.readFully(response);
+        ByteBuffer status = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+        String id = new String(response, 0, 4, StandardCharsets.US_ASCII);
+        int length = status.getInt(4);
+        if ("FAIL".equals(id)) {
+            throw new IOException("Sync failed: " + AdbServerProtocol.readString(inputStream, length));
+        }
+        if (!"OKAY".equals(id)) {
+            throw new IOException("Unexpected sync response: " + id);
+        }
+    }
+}
@@ -3,8 +3,14 @@ package com.github.cornerstonews.adb.websocket;
 import java.io.IOException;
 //import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
@@ -19,18 +25,34 @@ import org.apache.logging.log4j.Logger;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
+import com.github.cornerstonews.adb.AdbExecutor;
 import com.github.cornerstonews.adb.AdbManager;
 import com.github.cornerstonews.adb.CornerstoneADBException;
 import com.github.cornerstonews.adb.FileNode;
+import com.github.cornerstonews.adb.websocket.AdbDeviceCache.DirectoryKey;
+import com.github.cornerstonews.adb.websocket.AdbDeviceScheduler.CommandClass;
+import com.github.cornerstonews.adb.websocket.AdbWebsocketMetrics.Phase;
 import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbFilePullMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbFilePushMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbForwardMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbForwardOpenMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbRebootMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbScreenStreamMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellSessionMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbSubscribeMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketBinaryFrame;
 import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageDecoder;
 import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+import com.github.cornerstonews.util.ExecutorUtils;
 import com.github.cornerstonews.util.JAXBUtils;
+import com.github.cornerstonews.util.TtlCache;
 import com.google.common.base.Objects;
 
 //@ServerEndpoint(value = "/adb")
@@ -38,14 +60,50 @@ public abstract class AdbWebsocket {
 
     private static final Logger LOG = LogManager.getLogger(AdbWebsocket.class);
 
+    protected static final AdbWebsocketMessageDecoder MESSAGE_DECODER = new AdbWebsocketMessageDecoder();
+    private static final int MAX_BINARY_MESSAGE_SIZE = 1024 * 1024 * 4;
+
+    // Shared by all sessions unless an executor is provided, ADB commands block while waiting on the device.
+    private static final Executor DEFAULT_COMMAND_EXECUTOR = ExecutorUtils.newThreadPerTaskExecutor("adb-websocket-command");
+    private static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 64;
+
+    static {
+        try {
+            JAXBUtils.preloadContexts(AdbWebsocketMessageType.getMessageClasses());
+        } catch (JAXBException e) {
+            LOG.error("Error preloading JAXB contexts for websocket messages, Error: '{}'", e.getMessage(), e);
+        }
+        AdbWebsocketMetrics.registerMBean();
+    }
+
     protected AdbManager adbManager;
-    protected String deviceSerial;
+    protected volatile String deviceSerial;
+
+    private final Executor commandExecutor;
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private int maxRequestsInFlight = DEFAULT_MAX_REQUESTS_IN_FLIGHT;
+    private AdbWebsocketSender sender;
+    // Binary encoding messages received in several parts, only touched by the container thread of the session.
+    private ByteBuffer partialFrame;
+    // Push the first part of a file data message was routed to, later parts start with file data and not a channel.
+    // Null with partialPushMessage set drops the rest of a rejected message. Only touched by the container thread.
+    private AdbFileTransferProcessor partialPush;
+    private boolean partialPushMessage;
 
-    private AdbFileTransferProcessor filePullProcessor;
-    private AdbFileTransferProcessor filePushProcessor;
+    private final AdbFileTransferRegistry fileTransfers = new AdbFileTransferRegistry();
 
     public AdbWebsocket(AdbManager adbManager) {
+        this(adbManager, DEFAULT_COMMAND_EXECUTOR);
+    }
+
+    /**
+     * @param adbManager
+     * @param commandExecutor executor running the ADB commands, so the websocket container threads are never blocked by
+     *                        a device
+     */
+    public AdbWebsocket(AdbManager adbManager, Executor commandExecutor) {
         this.adbManager = adbManager;
+        this.commandExecutor = commandExecutor;
     }
 
     /**
@@ -71,7 +129,20 @@ public abstract class AdbWebsocket {
     public void onClose(Session session, CloseReason reason) {
         LOG.info("Connection closed for device, Reason: '{}'", reason);
         LOG.trace("Connection closed for device '{}', Reason: '{}'", getDeviceSerial(), reason);
+        AdbDeviceEvents.unsubscribe(session);
+        AdbScreenCapture.unwatchAll(session);
+        AdbLogcatStream.unsubscribeAll(session);
+        AdbInteractiveShell.close(session, "Connection closed.");
+        AdbPortForward.closeAll(session);
+        AdbApkInstall.abortAll(session);
 
+        // Completed pushes are still being written to the device and pulls park themselves when sending fails.
+        for (AdbFileTransferProcessor processor : this.fileTransfers.getTransfers()) {
+            if (processor.isPush() && !processor.isComplete()) {
+                this.fileTransfers.unregister(processor);
+                AdbResumableTransfers.park(this.deviceSerial, processor);
+            }
+        }
     }
 
     /**
@@ -83,6 +154,7 @@ public abstract class AdbWebsocket {
      */
     @OnError
     public void onError(Session session, Throwable t) {
+        AdbWebsocketMetrics.recordError(null, t);
         LOG.error("Connection Error with device, Error: '{}'", t.getMessage(), t);
         LOG.trace("Connection Error with device: '{}', Error: '{}'", getDeviceSerial(), t.getMessage());
     }
@@ -97,24 +169,48 @@ public abstract class AdbWebsocket {
      */
     @OnMessage
     public void onMessage(Session session, String message, boolean isLast) {
-        LOG.info("Received a string message.");
         LOG.debug("Message received: '{}'", message);
 
         AdbWebsocketMessage adbMessage;
         try {
-            adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbWebsocketMessage.class);
+            adbMessage = decodeTextMessage(message);
 
             if (adbMessage == null || adbMessage.getMessageType() == null) {
                 LOG.info("Invalid message received, rejecting and sending error client. Message is not Adb Websocket Message Type. ");
                 sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", adbMessage, session);
                 return;
             }
-        } catch (JAXBException e) {
+        } catch (DecodeException e) {
             LOG.info("Error unmarshalling message: '{}', Error: '{}'", message, e.getMessage(), e);
             sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", null, session);
             return;
         }
 
+        onAdbMessage(adbMessage, session);
+    }
+
+    /**
+     * Decodes a JSON text message and records its size and decoding time.
+     *
+     * @param message
+     * @return
+     * @throws DecodeException
+     */
+    protected AdbWebsocketMessage decodeTextMessage(String message) throws DecodeException {
+        long start = System.nanoTime();
+        AdbWebsocketMessage adbMessage = MESSAGE_DECODER.decode(message);
+        AdbWebsocketMetrics.recordRequest((adbMessage == null) ? null : adbMessage.getMessageType(), message.length(), System.nanoTime() - start);
+        return adbMessage;
+    }
+
+    /**
+     * Handles a decoded message, whichever encoding it was received in.
+     *
+     * @param adbMessage
+     * @param session
+     */
+    protected void onAdbMessage(AdbWebsocketMessage adbMessage, Session session) {
+        // Authentication only looks up the device and is kept in order with the messages that follow it.
         try {
             if (AdbWebsocketMessageType.AUTH == adbMessage.getMessageType() || this.deviceSerial == null) {
                 authenticate(adbMessage, session);
@@ -125,49 +221,165 @@ public abstract class AdbWebsocket {
                 sendError("Authentication Failure. Device serial does not match with authenticated device.", adbMessage, session);
                 return;
             }
+        } catch (JAXBException | IOException | CornerstoneADBException e) {
+            AdbWebsocketMetrics.recordError(adbMessage.getMessageType(), e);
+            LOG.error("Error processing message for device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error processing message for device serial '{}', Error: '{}'", adbMessage.getDeviceSerial(), e.getMessage());
+
+            sendError("Error processing message. Error: " + e.getMessage(), adbMessage, session);
+            return;
+        }
+
+        // Keystrokes and stream control are handled in the order they were received, not dispatched.
+        if (isShellControl(adbMessage)) {
+            processShellSession((AdbShellSessionMessage) adbMessage, session);
+            return;
+        }
+        if (AdbWebsocketMessageType.FORWARD == adbMessage.getMessageType()) {
+            handleForward((AdbForwardMessage) adbMessage, null, session);
+            return;
+        }
 
+        dispatch(adbMessage, session);
+    }
+
+    /**
+     * @param adbMessage
+     * @return true for shell session messages handled on the container thread, all but opening a shell which connects to
+     *         the device
+     */
+    protected static boolean isShellControl(AdbWebsocketMessage adbMessage) {
+        return AdbWebsocketMessageType.SHELL_SESSION == adbMessage.getMessageType()
+                && !AdbShellSessionMessage.ACTION_OPEN.equals(((AdbShellSessionMessage) adbMessage).getAction());
+    }
+
+    /**
+     * Runs the message on the command executor, the container thread returns as soon as the message is queued. Messages
+     * are not serialized, a client can pipeline several requests and match the responses, which are sent in completion
+     * order, using the requestId. Device commands wait for their turn in the {@link AdbDeviceScheduler}.
+     *
+     * @param adbMessage
+     * @param session
+     */
+    protected void dispatch(AdbWebsocketMessage adbMessage, Session session) {
+        if (this.requestsInFlight.incrementAndGet() > this.maxRequestsInFlight) {
+            this.requestsInFlight.decrementAndGet();
+            LOG.info("Too many requests in flight, rejecting message type: '{}'", adbMessage.getMessageType());
+            sendError("Too many requests in flight. Please wait for pending responses.", adbMessage, session);
+            return;
+        }
+
+        Runnable command = () -> {
+            long start = System.nanoTime();
+            try {
+                processMessage(adbMessage, session);
+            } finally {
+                this.requestsInFlight.decrementAndGet();
+                AdbWebsocketMetrics.recordLatency(adbMessage.getMessageType(), adbMessage.getDeviceSerial(), Phase.EXECUTE, System.nanoTime() - start);
+            }
+        };
+
+        try {
+            CommandClass commandClass = AdbDeviceScheduler.getCommandClass(adbMessage);
+            if (commandClass != null && adbMessage.getDeviceSerial() != null) {
+                AdbDeviceScheduler.execute(adbMessage.getDeviceSerial(), commandClass, session, this.commandExecutor, command,
+                        e -> rejectMessage(adbMessage, session, e));
+            } else {
+                this.commandExecutor.execute(command);
+            }
+        } catch (RejectedExecutionException e) {
+            rejectMessage(adbMessage, session, e);
+        }
+    }
+
+    private void rejectMessage(AdbWebsocketMessage adbMessage, Session session, RejectedExecutionException e) {
+        this.requestsInFlight.decrementAndGet();
+        AdbWebsocketMetrics.recordError(adbMessage.getMessageType(), e);
+        LOG.error("Error dispatching message for device, Error: '{}'", e.getMessage(), e);
+        sendError("Server busy. Please retry.", adbMessage, session);
+    }
+
+    protected Executor getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    public int getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
+    public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    /**
+     * @return file transfers of this session, used to configure the transfer limits
+     */
+    public AdbFileTransferRegistry getFileTransfers() {
+        return fileTransfers;
+    }
+
+    protected void processMessage(AdbWebsocketMessage adbMessage, Session session) {
+        try {
             switch (adbMessage.getMessageType()) {
 
                 case DIRECTORY_GET:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbDirectoryGetMessage.class);
                     handleDirectoryGet((AdbDirectoryGetMessage) adbMessage, session);
                     break;
 
                 case FILE_PUSH:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbFilePushMessage.class);
                     handleFilePush((AdbFilePushMessage) adbMessage, session);
                     break;
 
                 case FILE_PULL:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbFilePullMessage.class);
                     handleFilePull((AdbFilePullMessage) adbMessage, session);
                     break;
 
                 case REBOOT:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbRebootMessage.class);
                     handleReboot((AdbRebootMessage) adbMessage, session);
                     break;
 
                 case SHELL_COMMAND:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbShellCommandMessage.class);
                     handleShellCommand((AdbShellCommandMessage) adbMessage, session);
                     break;
 
                 case STATUS:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbStatusMessage.class);
                     handleStatus((AdbStatusMessage) adbMessage, session);
                     break;
 
+                case SUBSCRIBE:
+                    handleSubscribe((AdbSubscribeMessage) adbMessage, this.deviceSerial, session);
+                    break;
+
+                case SCREEN_STREAM:
+                    handleScreenStream((AdbScreenStreamMessage) adbMessage, session);
+                    break;
+
+                case LOGCAT_SUBSCRIBE:
+                    handleLogcatSubscribe((AdbLogcatMessage) adbMessage, session);
+                    break;
+
+                case FORWARD_OPEN:
+                    handleForwardOpen((AdbForwardOpenMessage) adbMessage, session);
+                    break;
+
+                case INSTALL:
+                    handleInstall((AdbInstallMessage) adbMessage, session);
+                    break;
+
+                case SHELL_SESSION:
+                    handleShellSession((AdbShellSessionMessage) adbMessage, session);
+                    break;
+
                 default:
                     sendError("Unknown ADB command.", adbMessage, session);
                     break;
             }
-        } catch (JAXBException | IOException | CornerstoneADBException e) {
+        } catch (JAXBException | IOException | CornerstoneADBException | RuntimeException e) {
+            AdbWebsocketMetrics.recordError(adbMessage.getMessageType(), e);
             LOG.error("Error processing message for device, Error: '{}'", e.getMessage(), e);
             LOG.trace("Error processing message for device serial '{}', Error: '{}'", adbMessage.getDeviceSerial(), e.getMessage());
 
             sendError("Error processing message. Error: " + e.getMessage(), adbMessage, session);
-            return;
         }
     }
 
@@ -183,29 +395,184 @@ public abstract class AdbWebsocket {
     @OnMessage
     public void onMessage(Session session, ByteBuffer message, boolean isLast) throws IOException, JAXBException {
         LOG.debug("Binary Message received.");
-        if (this.filePushProcessor == null) {
-            LOG.info("Unsolicited file transfer. Sending rejection to client.");
-            sendError("Unsolicited file transfer. Please initiate file transfer request.", new AdbFilePushMessage(getDeviceSerial()), session);
+        if (getSender(session).isBinaryProtocol()) {
+            onBinaryProtocolMessage(session, message, isLast);
+            return;
+        }
+
+        AdbWebsocketMetrics.recordRequest(null, message.remaining(), 0);
+        boolean firstPart = !this.partialPushMessage;
+        AdbFileTransferProcessor pushProcessor = firstPart ? this.fileTransfers.getPushFor(message) : this.partialPush;
+        this.partialPushMessage = !isLast;
+        this.partialPush = isLast ? null : pushProcessor;
+        if (pushProcessor == null) {
+            if (firstPart) {
+                LOG.info("Unsolicited file transfer. Sending rejection to client.");
+                sendError("Unsolicited file transfer. Please initiate file transfer request.", new AdbFilePushMessage(getDeviceSerial()), session);
+            }
+            return;
+        }
+
+        processFilePushData(pushProcessor, message, isLast, session);
+        // A push that failed is unregistered, the rest of its message is dropped.
+        if (!isLast && this.fileTransfers.getTransfer(pushProcessor.getTransferId()) == null) {
+            this.partialPush = null;
+        }
+    }
+
+    /**
+     * Decodes a message of the binary encoding, file data in the frame is written to the push it belongs to.
+     *
+     * @param session
+     * @param message
+     * @param isLast
+     * @throws IOException
+     */
+    private void onBinaryProtocolMessage(Session session, ByteBuffer message, boolean isLast) throws IOException {
+        ByteBuffer frame = message;
+        if (!isLast || this.partialFrame != null) {
+            if (!appendPartialFrame(message)) {
+                sendError("Message too large.", null, session);
+                return;
+            }
+            if (!isLast) {
+                return;
+            }
+            frame = this.partialFrame;
+            frame.flip();
+            this.partialFrame = null;
+        }
+
+        AdbWebsocketBinaryFrame binaryFrame;
+        long start = System.nanoTime();
+        try {
+            binaryFrame = AdbWebsocketMessageCborCodec.decode(frame);
+            // File data frames are counted as bytes only.
+            AdbWebsocketMessageType messageType = (binaryFrame.getData() == null) ? binaryFrame.getMessage().getMessageType() : null;
+            AdbWebsocketMetrics.recordRequest(messageType, frame.remaining(), System.nanoTime() - start);
+        } catch (DecodeException e) {
+            LOG.info("Error decoding binary message, Error: '{}'", e.getMessage(), e);
+            sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", null, session);
+            return;
+        }
+
+        AdbWebsocketMessage adbMessage = binaryFrame.getMessage();
+        if (binaryFrame.getData() != null && adbMessage instanceof AdbShellSessionMessage) {
+            handleShellInput((AdbShellSessionMessage) adbMessage, binaryFrame.getData(), session);
+            return;
+        }
+        if (binaryFrame.getData() != null && adbMessage instanceof AdbForwardMessage) {
+            handleForward((AdbForwardMessage) adbMessage, binaryFrame.getData(), session);
+            return;
+        }
+        if (binaryFrame.getData() != null && adbMessage instanceof AdbInstallMessage) {
+            handleInstallData((AdbInstallMessage) adbMessage, binaryFrame.getData(), session);
             return;
         }
+        if (binaryFrame.getData() != null) {
+            AdbFileTransferProcessor pushProcessor = (adbMessage instanceof AdbFilePushMessage) ? this.fileTransfers.getTransfer(((AdbFilePushMessage) adbMessage).getTransferId()) : null;
+            if (pushProcessor == null || !pushProcessor.isPush()) {
+                LOG.info("Unsolicited file transfer. Sending rejection to client.");
+                sendError("Unsolicited file transfer. Please initiate file transfer request.", adbMessage, session);
+                return;
+            }
+            processFilePushData(pushProcessor, (AdbFilePushMessage) adbMessage, binaryFrame.getData(), session);
+            return;
+        }
+
+        if (adbMessage.getMessageType() == null) {
+            sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", adbMessage, session);
+            return;
+        }
+        onAdbMessage(adbMessage, session);
+    }
+
+    private boolean appendPartialFrame(ByteBuffer message) {
+        int size = ((this.partialFrame == null) ? 0 : this.partialFrame.position()) + message.remaining();
+        if (size > MAX_BINARY_MESSAGE_SIZE) {
+            this.partialFrame = null;
+            return false;
+        }
 
+        if (this.partialFrame == null || this.partialFrame.remaining() < message.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_BINARY_MESSAGE_SIZE, Math.max(size, (this.partialFrame == null) ? 0 : this.partialFrame.capacity() * 2)));
+            if (this.partialFrame != null) {
+                this.partialFrame.flip();
+                grown.put(this.partialFrame);
+            }
+            this.partialFrame = grown;
+        }
+        this.partialFrame.put(message);
+        return true;
+    }
+
+    private void processFilePushData(AdbFileTransferProcessor pushProcessor, ByteBuffer message, boolean isLast, Session session) throws IOException {
+        processFilePushData(pushProcessor, session, () -> pushProcessor.processFilePush(message, isLast));
+    }
+
+    private void processFilePushData(AdbFileTransferProcessor pushProcessor, AdbFilePushMessage chunk, ByteBuffer data, Session session) throws IOException {
+        processFilePushData(pushProcessor, session, () -> pushProcessor.processFilePush(chunk, data));
+    }
+
+    private void processFilePushData(AdbFileTransferProcessor pushProcessor, Session session, FilePushAction pushAction) throws IOException {
         try {
-            this.filePushProcessor.processFilePush(message, isLast);
-//            if (isLast && this.filePushProcessor.isFileValid()) {
-            if (this.filePushProcessor.isFileValid()) {
-                this.filePushProcessor.pushFileToPhone(this.adbManager.getDevice(this.deviceSerial));
-                this.filePushProcessor.cleanup();
-                this.sendSuccess(200, "File push successful.", new AdbFilePushMessage(getDeviceSerial()), session);
-                this.filePushProcessor = null;
+            pushAction.run();
+//            if (isLast && pushProcessor.isComplete()) {
+            if (pushProcessor.isComplete()) {
+                if (!pushProcessor.isFileValid()) {
+                    LOG.info("File push checksum mismatch for transfer '{}'", pushProcessor.getTransferId());
+                    sendError("File Transfer error. Checksum mismatch.", newFilePushReply(pushProcessor), session);
+                    pushProcessor.cleanup();
+                    this.fileTransfers.unregister(pushProcessor);
+                    return;
+                }
+                if (pushProcessor.isStreaming()) {
+                    this.commandExecutor.execute(() -> pushFileToPhone(pushProcessor, session));
+                } else {
+                    AdbDeviceScheduler.execute(this.deviceSerial, CommandClass.SYNC, session, this.commandExecutor, () -> pushFileToPhone(pushProcessor, session),
+                            e -> abortFilePush(pushProcessor, newFilePushReply(pushProcessor), session, e));
+                }
             }
+        } catch (AdbFileChunkException e) {
+            LOG.info("File push chunk rejected for transfer '{}', Error: '{}'", pushProcessor.getTransferId(), e.getMessage());
+            AdbFilePushMessage reply = newFilePushReply(pushProcessor);
+            reply.setOffset(e.getExpectedOffset());
+            sendError("File Transfer error. " + e.getMessage(), reply, session);
         } catch (Exception e) {
             LOG.error("Error while transferring binary message, Error: '{}'", e.getMessage(), e);
-            sendError("File Transfer error.", new AdbFilePushMessage(getDeviceSerial()), session);
-            this.filePushProcessor.cleanup();
-            this.filePushProcessor = null;
+            sendError("File Transfer error.", newFilePushReply(pushProcessor), session);
+            pushProcessor.cleanup();
+            this.fileTransfers.unregister(pushProcessor);
         }
     }
 
+    private void pushFileToPhone(AdbFileTransferProcessor pushProcessor, Session session) {
+        try {
+            pushProcessor.pushFileToPhone(this.adbManager.getDevice(this.deviceSerial));
+            this.sendSuccess(200, "File push successful.", newFilePushReply(pushProcessor), session);
+        } catch (Exception e) {
+            LOG.error("Error while pushing file to device, Error: '{}'", e.getMessage(), e);
+            sendError("File Transfer error.", newFilePushReply(pushProcessor), session);
+        } finally {
+            try {
+                pushProcessor.cleanup();
+            } catch (IOException e) {
+                LOG.error("Error cleaning up file push, Error: '{}'", e.getMessage(), e);
+            }
+            this.fileTransfers.unregister(pushProcessor);
+            AdbDeviceCache.invalidatePath(this.deviceSerial, pushProcessor.getAdbMessage().getFullPath());
+        }
+    }
+
+    private AdbFilePushMessage newFilePushReply(AdbFileTransferProcessor pushProcessor) {
+        AdbFilePushMessage reply = new AdbFilePushMessage(getDeviceSerial());
+        reply.setRequestId(pushProcessor.getAdbMessage().getRequestId());
+        reply.setTransferId(pushProcessor.getTransferId());
+        reply.setOffset(pushProcessor.getTransferedSize());
+        reply.setChecksum(pushProcessor.getChecksum());
+        return reply;
+    }
+
     protected String getDeviceSerial() {
         return getDeviceSerial(null);
     }
@@ -216,7 +583,7 @@ public abstract class AdbWebsocket {
             if (serial == null) {
                 serial = adbMessage.getDeviceSerial();
             }
-            return (serial == null) ? "Device serial not available" : this.adbManager.getDevice(this.deviceSerial).getDeviceSerial();
+            return (serial == null) ? "Device serial not available" : serial;
         } catch (Exception e) {
             return "Device serial not available";
         }
@@ -229,10 +596,17 @@ public abstract class AdbWebsocket {
             }
             errorMessage.setStatusCode(400);
             errorMessage.setMessage(errorString);
-            session.getBasicRemote().sendText(JAXBUtils.marshalToJSON(errorMessage));
-            LOG.info("Sent error to client, Error: '{}'", errorString);
-            LOG.trace("Sent error to client: '{}', ErrorMessage: '{}'", getDeviceSerial(errorMessage), errorMessage);
-        } catch (IOException | JAXBException e) {
+            AdbWebsocketMessage sentMessage = errorMessage;
+            getSender(session).sendMessage(errorMessage).whenComplete((result, error) -> {
+                if (error != null) {
+                    LOG.error("Error sending message to client, Error: '{}'", error.getMessage(), error);
+                    LOG.trace("Error sending message to client: '{}', Error: '{}'", getDeviceSerial(sentMessage), error.getMessage());
+                    return;
+                }
+                LOG.info("Sent error to client, Error: '{}'", errorString);
+                LOG.trace("Sent error to client: '{}', ErrorMessage: '{}'", getDeviceSerial(sentMessage), sentMessage);
+            });
+        } catch (JAXBException e) {
             LOG.error("Error sending message to client, Error: '{}'", e.getMessage(), e);
             LOG.trace("Error sending message to client: '{}', Error: '{}'", getDeviceSerial(errorMessage), e.getMessage());
         }
@@ -241,9 +615,26 @@ public abstract class AdbWebsocket {
     protected void sendSuccess(Integer statusCode, String message, AdbWebsocketMessage adbMessage, Session session) throws IOException, JAXBException {
         adbMessage.setStatusCode(statusCode);
         adbMessage.setMessage(message);
-        session.getBasicRemote().sendText(JAXBUtils.marshalToJSON(adbMessage));
-        LOG.info("Success message sent to client for message type: '{}'", adbMessage.getMessageType());
-        LOG.trace("Success message sent to client for message: '{}' and device: '{}'", adbMessage, getDeviceSerial(adbMessage));
+        getSender(session).sendMessage(adbMessage).whenComplete((result, error) -> {
+            if (error != null) {
+                LOG.error("Error sending message to client, Error: '{}'", error.getMessage(), error);
+                LOG.trace("Error sending message to client: '{}', Error: '{}'", getDeviceSerial(adbMessage), error.getMessage());
+                return;
+            }
+            LOG.debug("Success message sent to client for message type: '{}'", adbMessage.getMessageType());
+            LOG.trace("Success message sent to client for message: '{}' and device: '{}'", adbMessage, getDeviceSerial(adbMessage));
+        });
+    }
+
+    protected synchronized AdbWebsocketSender getSender(Session session) {
+        if (this.sender == null) {
+            this.sender = new AdbWebsocketSender(session);
+        }
+        return this.sender;
+    }
+
+    protected AdbExecutor getAdbExecutor(AdbWebsocketMessage adbMessage) throws CornerstoneADBException {
+        return this.adbManager.getDevice(adbMessage.getDeviceSerial());
     }
 
     private void authenticate(AdbWebsocketMessage adbMessage, Session session) throws IOException, JAXBException, CornerstoneADBException {
@@ -267,53 +658,173 @@ public abstract class AdbWebsocket {
     }
 
     protected void handleDirectoryGet(AdbDirectoryGetMessage adbMessage, Session session) throws IOException, JAXBException, CornerstoneADBException {
-        FileNode pathDetail = this.adbManager.getDevice(this.deviceSerial).getPath(adbMessage.getPath(), adbMessage.getGetChildren());
+        if (adbMessage.getPaths() != null || adbMessage.getDepth() != null || adbMessage.getGlob() != null) {
+            walkDirectories(adbMessage, session);
+            return;
+        }
+
+        TtlCache<DirectoryKey, FileNode> directoryCache = AdbDeviceCache.getDirectoryCache();
+        DirectoryKey key = AdbDeviceCache.directoryKey(adbMessage.getDeviceSerial(), adbMessage.getPath(), adbMessage.getGetChildren());
+        FileNode pathDetail = directoryCache.getIfPresent(key);
+        if (pathDetail == null) {
+            long loadGeneration = directoryCache.getGeneration(key);
+            pathDetail = getAdbExecutor(adbMessage).getPath(adbMessage.getPath(), adbMessage.getGetChildren());
+            directoryCache.put(key, pathDetail, loadGeneration);
+        }
         adbMessage.setPathDetail(pathDetail);
         this.sendSuccess(200, "Directory get successful.", adbMessage, session);
     }
 
-    private void handleFilePush(AdbFilePushMessage adbMessage, Session session) throws IOException, JAXBException {
-        if (this.filePushProcessor != null) {
-            this.sendError("Only one file transfer allowed.", adbMessage, session);
+    private void walkDirectories(AdbDirectoryGetMessage adbMessage, Session session) throws IOException, JAXBException {
+        if (adbMessage.getPaths() == null && adbMessage.getPath() == null) {
+            this.sendError("Path or paths required.", adbMessage, session);
             return;
         }
 
+        AdbDirectoryWalker walker = new AdbDirectoryWalker(adbMessage, getSender(session));
+        if (!walker.walk(DdmlibDevices.getDevice(adbMessage.getDeviceSerial()))) {
+            LOG.info("Directory listing cancelled for device: '{}'", adbMessage.getDeviceSerial());
+            return;
+        }
+
+        adbMessage.setSequence(walker.getSequence());
+        this.sendSuccess(200, "Directory get successful.", adbMessage, session);
+    }
+
+    private synchronized void handleFilePush(AdbFilePushMessage adbMessage, Session session) throws IOException, JAXBException {
+        if (adbMessage.getTransferId() != null) {
+            resumeFilePush(adbMessage, session);
+            return;
+        }
+
+        AdbFileTransferProcessor pushProcessor = null;
         try {
-            this.filePushProcessor = new AdbFileTransferProcessor(adbMessage, session);
+            pushProcessor = new AdbFileTransferProcessor(adbMessage, session);
+            String rejection = this.fileTransfers.register(adbMessage.getDeviceSerial(), pushProcessor);
+            if (rejection != null) {
+                pushProcessor.cleanup();
+                this.sendError(rejection, adbMessage, session);
+                return;
+            }
+
+            adbMessage.setOffset(0L);
+            if (Boolean.TRUE.equals(adbMessage.getStream())) {
+                streamFilePush(pushProcessor, adbMessage, session);
+                return;
+            }
             this.sendSuccess(201, "Ready for push. Waiting for data.", adbMessage, session);
         } catch (Exception e) {
-            this.filePushProcessor = null;
+            if (pushProcessor != null) {
+                pushProcessor.cleanup();
+                this.fileTransfers.unregister(pushProcessor);
+            }
             LOG.error("File transfer Error for client, Error: '{}'", e.getMessage(), e);
             LOG.trace("File transfer Error for client: '{}', Error: '{}'", getDeviceSerial(), e.getMessage());
             this.sendError("File transfer Error.", adbMessage, session);
         }
     }
 
-    private void handleFilePull(AdbFilePullMessage adbMessage, Session session) throws IOException, JAXBException {
-        if (this.filePullProcessor != null) {
-            this.sendError("Only one file transfer allowed.", adbMessage, session);
+    /**
+     * Holds a sync slot of the device for the whole streamed push. The client is told it can send data once the slot is
+     * taken and the device accepted the push, so data never waits on a container thread for another push to finish.
+     *
+     * @param pushProcessor
+     * @param adbMessage
+     * @param session
+     */
+    private void streamFilePush(AdbFileTransferProcessor pushProcessor, AdbFilePushMessage adbMessage, Session session) {
+        AdbDeviceScheduler.execute(adbMessage.getDeviceSerial(), CommandClass.SYNC, session, this.commandExecutor, () -> {
+            try {
+                pushProcessor.openStreamingPush();
+                this.sendSuccess(201, "Ready for push. Waiting for data.", adbMessage, session);
+            } catch (Exception e) {
+                abortFilePush(pushProcessor, adbMessage, session, e);
+            }
+            pushProcessor.runStreamingPush();
+        }, e -> abortFilePush(pushProcessor, adbMessage, session, e));
+    }
+
+    /**
+     * Ends a push that did not reach the device, the temp file is removed and the client told.
+     *
+     * @param pushProcessor
+     * @param reply
+     * @param session
+     * @param error
+     */
+    private void abortFilePush(AdbFileTransferProcessor pushProcessor, AdbWebsocketMessage reply, Session session, Exception error) {
+        try {
+            pushProcessor.cleanup();
+        } catch (IOException cleanupError) {
+            LOG.error("Error cleaning up file push, Error: '{}'", cleanupError.getMessage(), cleanupError);
+        }
+        this.fileTransfers.unregister(pushProcessor);
+        LOG.error("File transfer Error for client, Error: '{}'", error.getMessage(), error);
+        LOG.trace("File transfer Error for client: '{}', Error: '{}'", getDeviceSerial(), error.getMessage());
+        this.sendError("File transfer Error.", reply, session);
+    }
+
+    private void resumeFilePush(AdbFilePushMessage adbMessage, Session session) throws IOException, JAXBException {
+        AdbFileTransferProcessor processor = AdbResumableTransfers.resume(adbMessage.getTransferId(), adbMessage.getDeviceSerial(), AdbFilePushMessage.class);
+        if (processor == null) {
+            this.sendError("File transfer not found or expired. Please start a new transfer.", adbMessage, session);
             return;
         }
 
+        processor.resume(adbMessage);
+        String rejection = this.fileTransfers.register(adbMessage.getDeviceSerial(), processor);
+        if (rejection != null) {
+            AdbResumableTransfers.park(adbMessage.getDeviceSerial(), processor);
+            this.sendError(rejection, adbMessage, session);
+            return;
+        }
+        this.sendSuccess(201, "Ready to resume push. Waiting for data.", adbMessage, session);
+    }
+
+    private void handleFilePull(AdbFilePullMessage adbMessage, Session session) throws IOException, JAXBException {
+        AdbFileTransferProcessor pullProcessor;
+        synchronized (this) {
+            if (adbMessage.getTransferId() != null) {
+                pullProcessor = AdbResumableTransfers.resume(adbMessage.getTransferId(), adbMessage.getDeviceSerial(), AdbFilePullMessage.class);
+                if (pullProcessor == null) {
+                    this.sendError("File transfer not found or expired. Please start a new transfer.", adbMessage, session);
+                    return;
+                }
+                pullProcessor.resume(adbMessage);
+            } else {
+                pullProcessor = new AdbFileTransferProcessor(adbMessage, session);
+            }
+
+            String rejection = this.fileTransfers.register(adbMessage.getDeviceSerial(), pullProcessor);
+            if (rejection != null) {
+                AdbResumableTransfers.park(adbMessage.getDeviceSerial(), pullProcessor);
+                this.sendError(rejection, adbMessage, session);
+                return;
+            }
+        }
+
         try {
-            this.filePullProcessor = new AdbFileTransferProcessor(adbMessage, session);
             this.sendSuccess(201, "Ready to pull. Starting data transfer.", adbMessage, session);
 //            OutputStream outputStream = session.getBasicRemote().getSendStream();
 //            this.filePullProcessor.processFilePull(deviceAdbExecutor, outputStream);
-            this.filePullProcessor.processFilePull(adbManager.getDevice(this.deviceSerial), session.getBasicRemote());
+            pullProcessor.processFilePull(getAdbExecutor(adbMessage), getSender(session));
+            pullProcessor.cleanup();
             this.sendSuccess(200, "File pull successful.", adbMessage, session);
         } catch (Exception e) {
             LOG.error("File transfer Error for client, Error: '{}'", e.getMessage(), e);
             LOG.trace("File transfer Error for client: '{}', Error: '{}'", getDeviceSerial(), e.getMessage());
+            // Keeps the pulled file so the client can resume from the last offset it received.
+            AdbResumableTransfers.park(adbMessage.getDeviceSerial(), pullProcessor);
             this.sendError("File transfer Error.", adbMessage, session);
         } finally {
-            this.filePullProcessor = null;
+            this.fileTransfers.unregister(pullProcessor);
         }
     }
 
     protected void handleReboot(AdbRebootMessage adbMessage, Session session) throws JAXBException, CornerstoneADBException {
         try {
-            this.adbManager.getDevice(this.deviceSerial).reboot();
+            getAdbExecutor(adbMessage).reboot();
+            AdbDeviceCache.invalidateDevice(adbMessage.getDeviceSerial());
             this.sendSuccess(200, "Phone reboot command successfully executed.", adbMessage, session);
         } catch (TimeoutException | AdbCommandRejectedException | IOException e) {
             LOG.error("Error running reboot command, Error: '{}'", e.getMessage(), e);
@@ -324,7 +835,19 @@ public abstract class AdbWebsocket {
 
     protected void handleShellCommand(AdbShellCommandMessage adbMessage, Session session) throws JAXBException, CornerstoneADBException {
         try {
-            String commandOutput = this.adbManager.getDevice(this.deviceSerial).executeShellCommand(adbMessage.getShellCommand());
+            if (Boolean.TRUE.equals(adbMessage.getStream())) {
+                streamShellCommand(adbMessage, session);
+                return;
+            }
+
+            AdbExecutor adbExecutor = getAdbExecutor(adbMessage);
+            String commandOutput;
+            if (Boolean.TRUE.equals(adbMessage.getCoalesce()) && AdbShellCommandCoalescer.isCoalescable(adbMessage.getShellCommand())) {
+                commandOutput = AdbShellCommandCoalescer.execute(adbMessage.getDeviceSerial(), adbMessage.getShellCommand(),
+                        () -> adbExecutor.executeShellCommand(adbMessage.getShellCommand()));
+            } else {
+                commandOutput = adbExecutor.executeShellCommand(adbMessage.getShellCommand());
+            }
             adbMessage.setShellCommandOutput(commandOutput);
             this.sendSuccess(200, "Command successfully executed.", adbMessage, session);
         } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
@@ -334,10 +857,289 @@ public abstract class AdbWebsocket {
         }
     }
 
+    private void streamShellCommand(AdbShellCommandMessage adbMessage, Session session)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, JAXBException {
+        AdbShellOutputStreamer streamer = new AdbShellOutputStreamer(adbMessage, getSender(session));
+        // No timeout, the output may pause for longer than ddmlib's default. The command runs until it exits or sending fails.
+        DdmlibDevices.getDevice(adbMessage.getDeviceSerial()).executeShellCommand(AdbShellOutputStreamer.withExitCode(adbMessage.getShellCommand()), streamer, 0, TimeUnit.MILLISECONDS);
+        Integer exitCode = streamer.finish();
+        if (streamer.isCancelled()) {
+            LOG.info("Shell command output streaming cancelled for command: '{}'", adbMessage.getShellCommand());
+            return;
+        }
+
+        adbMessage.setSequence(streamer.getSequence());
+        adbMessage.setExitCode(exitCode);
+        this.sendSuccess(200, "Command successfully executed.", adbMessage, session);
+    }
+
     protected void handleStatus(AdbStatusMessage adbMessage, Session session) throws IOException, JAXBException, CornerstoneADBException {
-        String status = this.adbManager.getDevice(this.deviceSerial).isOnline() ? "online" : "offline";
+        AdbExecutor adbExecutor = getAdbExecutor(adbMessage);
+        boolean online = AdbDeviceCache.getStatusCache().get(adbMessage.getDeviceSerial(), key -> adbExecutor.isOnline());
+        String status = online ? "online" : "offline";
         adbMessage.setStatus(status);
         this.sendSuccess(200, "Status successfully executed.", adbMessage, session);
     }
 
+    /**
+     * @param adbMessage
+     * @param deviceSerial only send events of this device, null for all devices
+     * @param session
+     * @throws IOException
+     * @throws JAXBException
+     */
+    protected void handleSubscribe(AdbSubscribeMessage adbMessage, String deviceSerial, Session session) throws IOException, JAXBException {
+        if (Boolean.FALSE.equals(adbMessage.getSubscribe())) {
+            AdbDeviceEvents.unsubscribe(session);
+            this.sendSuccess(200, "Unsubscribed from device events.", adbMessage, session);
+            return;
+        }
+
+        AdbDeviceEvents.subscribe(session, getSender(session), deviceSerial);
+        this.sendSuccess(200, "Subscribed to device events.", adbMessage, session);
+    }
+
+    protected void handleScreenStream(AdbScreenStreamMessage adbMessage, Session session) throws IOException, JAXBException {
+        if (Boolean.FALSE.equals(adbMessage.getStart())) {
+            AdbScreenCapture.unwatch(adbMessage.getDeviceSerial(), session);
+            this.sendSuccess(200, "Screen stream stopped.", adbMessage, session);
+            return;
+        }
+
+        // Frames carry their tile list in the same binary frame as the pixels.
+        if (!getSender(session).isBinaryProtocol()) {
+            this.sendError("Screen stream requires the " + AdbWebsocketMessageCborCodec.SUBPROTOCOL + " subprotocol.", adbMessage, session);
+            return;
+        }
+
+        this.sendSuccess(200, "Screen stream started.", adbMessage, session);
+        AdbScreenCapture.watch(adbMessage, getSender(session), session);
+    }
+
+    protected void handleLogcatSubscribe(AdbLogcatMessage adbMessage, Session session) throws IOException, JAXBException {
+        if (Boolean.FALSE.equals(adbMessage.getSubscribe())) {
+            AdbLogcatStream.unsubscribe(adbMessage.getDeviceSerial(), session);
+            this.sendSuccess(200, "Unsubscribed from logcat.", adbMessage, session);
+            return;
+        }
+
+        try {
+            AdbLogcatStream.subscribe(adbMessage, getSender(session), session);
+        } catch (IllegalArgumentException e) {
+            LOG.info("Invalid logcat filter, Error: '{}'", e.getMessage());
+            this.sendError("Invalid logcat filter. Error: " + e.getMessage(), adbMessage, session);
+            return;
+        }
+        this.sendSuccess(200, "Subscribed to logcat.", adbMessage, session);
+    }
+
+    protected void processShellSession(AdbShellSessionMessage adbMessage, Session session) {
+        try {
+            handleShellSession(adbMessage, session);
+        } catch (JAXBException | IOException | RuntimeException e) {
+            AdbWebsocketMetrics.recordError(adbMessage.getMessageType(), e);
+            LOG.error("Error processing shell session message for device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error processing shell session message for device serial '{}', Error: '{}'", adbMessage.getDeviceSerial(), e.getMessage());
+
+            sendError("Error processing message. Error: " + e.getMessage(), adbMessage, session);
+        }
+    }
+
+    protected void handleShellSession(AdbShellSessionMessage adbMessage, Session session) throws IOException, JAXBException {
+        String action = (adbMessage.getAction() == null) ? AdbShellSessionMessage.ACTION_INPUT : adbMessage.getAction();
+        if (AdbShellSessionMessage.ACTION_OPEN.equals(action)) {
+            AdbInteractiveShell shell = AdbInteractiveShell.open(adbMessage, getSender(session), session);
+            this.sendSuccess(200, "Shell opened.", adbMessage, session);
+            shell.start();
+            return;
+        }
+        if (AdbShellSessionMessage.ACTION_INPUT.equals(action)) {
+            byte[] input = (adbMessage.getInput() == null) ? new byte[0] : adbMessage.getInput().getBytes(StandardCharsets.UTF_8);
+            handleShellInput(adbMessage, ByteBuffer.wrap(input), session);
+            return;
+        }
+
+        AdbInteractiveShell shell = AdbInteractiveShell.get(session);
+        if (shell == null) {
+            this.sendError("No shell open. Please open a shell first.", adbMessage, session);
+            return;
+        }
+
+        switch (action) {
+            case AdbShellSessionMessage.ACTION_RESIZE:
+                if (adbMessage.getRows() == null || adbMessage.getCols() == null) {
+                    this.sendError("Shell resize requires rows and cols.", adbMessage, session);
+                    return;
+                }
+                if (!shell.resize(adbMessage.getRows(), adbMessage.getCols())) {
+                    this.sendError("Device does not support resizing the shell.", adbMessage, session);
+                    return;
+                }
+                this.sendSuccess(200, "Shell resized.", adbMessage, session);
+                break;
+
+            case AdbShellSessionMessage.ACTION_SIGNAL:
+                try {
+                    shell.signal(adbMessage.getSignal());
+                } catch (IllegalArgumentException e) {
+                    this.sendError(e.getMessage(), adbMessage, session);
+                    return;
+                }
+                this.sendSuccess(200, "Signal sent.", adbMessage, session);
+                break;
+
+            case AdbShellSessionMessage.ACTION_CLOSE:
+                // The shell replies with its last message once it has ended.
+                AdbInteractiveShell.close(session, "Shell closed.");
+                break;
+
+            default:
+                this.sendError("Unknown shell action.", adbMessage, session);
+                break;
+        }
+    }
+
+    /**
+     * Writes keystrokes to the shell of the session, they are not acknowledged.
+     *
+     * @param adbMessage
+     * @param input
+     * @param session
+     */
+    private void handleShellInput(AdbShellSessionMessage adbMessage, ByteBuffer input, Session session) {
+        AdbInteractiveShell shell = AdbInteractiveShell.get(session);
+        if (shell == null) {
+            sendError("No shell open. Please open a shell first.", adbMessage, session);
+            return;
+        }
+
+        byte[] bytes = new byte[input.remaining()];
+        input.get(bytes);
+        try {
+            shell.write(bytes);
+        } catch (IOException e) {
+            LOG.error("Error writing to shell of device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error writing to shell of device '{}', Error: '{}'", adbMessage.getDeviceSerial(), e.getMessage());
+            sendError("Error writing to shell.", adbMessage, session);
+        }
+    }
+
+    protected void handleForwardOpen(AdbForwardOpenMessage adbMessage, Session session) throws IOException, JAXBException {
+        // Stream bytes travel in binary frames next to the stream id.
+        if (!getSender(session).isBinaryProtocol()) {
+            this.sendError("Forward requires the " + AdbWebsocketMessageCborCodec.SUBPROTOCOL + " subprotocol.", adbMessage, session);
+            return;
+        }
+
+        AdbPortForward forward;
+        try {
+            forward = AdbPortForward.open(adbMessage, getSender(session), session);
+        } catch (IllegalArgumentException e) {
+            LOG.info("Forward rejected, Error: '{}'", e.getMessage());
+            this.sendError(e.getMessage(), adbMessage, session);
+            return;
+        }
+        adbMessage.setStreamId(forward.getStreamId());
+        adbMessage.setWindow(AdbPortForward.DEFAULT_WINDOW);
+        this.sendSuccess(200, "Forward opened.", adbMessage, session);
+        forward.start();
+    }
+
+    /**
+     * Relays bytes of the client or handles a window grant or close of one of the forward streams of the session.
+     *
+     * @param adbMessage
+     * @param data       bytes for the device or null for control messages
+     * @param session
+     */
+    protected void handleForward(AdbForwardMessage adbMessage, ByteBuffer data, Session session) {
+        AdbPortForward forward = AdbPortForward.get(session, adbMessage.getStreamId());
+        if (forward == null) {
+            sendError("Forward stream not found.", adbMessage, session);
+            return;
+        }
+
+        if (data != null) {
+            try {
+                forward.write(data);
+            } catch (IOException | JAXBException e) {
+                LOG.error("Error writing forward stream of device, Error: '{}'", e.getMessage(), e);
+                LOG.trace("Error writing forward stream {} of device '{}', Error: '{}'", adbMessage.getStreamId(), adbMessage.getDeviceSerial(), e.getMessage());
+                forward.close();
+                adbMessage.setAction(AdbForwardMessage.ACTION_CLOSE);
+                sendError("Forward stream error. Error: " + e.getMessage(), adbMessage, session);
+            }
+            return;
+        }
+
+        if (AdbForwardMessage.ACTION_WINDOW.equals(adbMessage.getAction()) && adbMessage.getWindow() != null) {
+            forward.addWindow(adbMessage.getWindow());
+        } else if (AdbForwardMessage.ACTION_CLOSE.equals(adbMessage.getAction())) {
+            forward.close();
+        } else {
+            sendError("Unknown forward action.", adbMessage, session);
+        }
+    }
+
+    protected void handleInstall(AdbInstallMessage adbMessage, Session session) throws IOException, JAXBException {
+        if (Boolean.TRUE.equals(adbMessage.getAbort())) {
+            AdbApkInstall install = AdbApkInstall.get(session, adbMessage.getInstallId());
+            if (install == null) {
+                this.sendError("Install not found.", adbMessage, session);
+                return;
+            }
+            // The install replies once it has been abandoned.
+            if (!install.abort()) {
+                this.sendError("Install is already being committed or has ended.", adbMessage, session);
+            }
+            return;
+        }
+
+        // APK data travels in binary frames next to the install id.
+        if (!getSender(session).isBinaryProtocol()) {
+            this.sendError("Install requires the " + AdbWebsocketMessageCborCodec.SUBPROTOCOL + " subprotocol.", adbMessage, session);
+            return;
+        }
+
+        AdbApkInstall install;
+        try {
+            install = AdbApkInstall.start(adbMessage, getSender(session), session);
+        } catch (IllegalArgumentException e) {
+            LOG.info("Install rejected, Error: '{}'", e.getMessage());
+            this.sendError(e.getMessage(), adbMessage, session);
+            return;
+        }
+        adbMessage.setInstallId(install.getInstallId());
+        adbMessage.setTotalSize(install.getTotalSize());
+        this.sendSuccess(200, "Install started.", adbMessage, session);
+    }
+
+    /**
+     * Writes APK data to the install it belongs to, in the order it was received.
+     *
+     * @param adbMessage
+     * @param data
+     * @param session
+     */
+    private void handleInstallData(AdbInstallMessage adbMessage, ByteBuffer data, Session session) {
+        AdbApkInstall install = AdbApkInstall.get(session, adbMessage.getInstallId());
+        if (install == null) {
+            sendError("Install not found.", adbMessage, session);
+            return;
+        }
+
+        try {
+            install.write(adbMessage.getApk(), data);
+        } catch (IOException e) {
+            LOG.error("Error writing APK to device, Error: '{}'", e.getMessage(), e);
+            LOG.trace("Error writing APK of install '{}' to device '{}', Error: '{}'", adbMessage.getInstallId(), adbMessage.getDeviceSerial(), e.getMessage());
+            install.fail("Install error. Error: " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface FilePushAction {
+        void run() throws IOException;
+    }
+
 }
@@ -0,0 +1,280 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+import com.github.cornerstonews.util.LatencyHistogram;
+
+/**
+ * Request counts, latencies, bytes and errors of the websocket endpoints. A request is timed in phases: decoding the
+ * message, executing it once the device scheduler started it, which includes building the reply, encoding the reply
+ * and sending it until the container completed the write. The metrics are published as the {@link #OBJECT_NAME}
+ * MXBean, listeners receive each measurement to feed another metrics library.
+ */
+public abstract class AdbWebsocketMetrics {
+
+    private static final Logger LOG = LogManager.getLogger(AdbWebsocketMetrics.class);
+
+    public static final String OBJECT_NAME = "com.github.cornerstonews.adb:type=AdbWebsocketMetrics";
+
+    public enum Phase {
+        DECODE, EXECUTE, ENCODE, SEND
+    }
+
+    private static final Map<AdbWebsocketMessageType, LongAdder> requests = new ConcurrentHashMap<>();
+    private static final Map<AdbWebsocketMessageType, Map<Phase, LatencyHistogram>> latencies = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> deviceExecution = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final TransferRate transferRate = new TransferRate();
+    private static final List<AdbMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    private static boolean registered;
+
+    public static void recordRequest(AdbWebsocketMessageType messageType, long bytes, long decodeNanos) {
+        bytesIn.add(bytes);
+        if (messageType == null) {
+            return;
+        }
+        requests.computeIfAbsent(messageType, key -> new LongAdder()).increment();
+        getHistogram(messageType, Phase.DECODE).record(decodeNanos);
+        for (AdbMetricsListener listener : listeners) {
+            listener.onRequest(messageType, bytes);
+            listener.onLatency(messageType, null, Phase.DECODE, decodeNanos);
+        }
+    }
+
+    /**
+     * @param messageType  null for frames that are not a message, only listeners see them
+     * @param deviceSerial device the execution time is also recorded for, or null
+     * @param phase
+     * @param nanos
+     */
+    public static void recordLatency(AdbWebsocketMessageType messageType, String deviceSerial, Phase phase, long nanos) {
+        if (messageType != null) {
+            getHistogram(messageType, phase).record(nanos);
+        }
+        if (deviceSerial != null && phase == Phase.EXECUTE) {
+            deviceExecution.computeIfAbsent(deviceSerial, key -> new LatencyHistogram()).record(nanos);
+        }
+        for (AdbMetricsListener listener : listeners) {
+            listener.onLatency(messageType, deviceSerial, phase, nanos);
+        }
+    }
+
+    public static void recordBytesSent(long bytes) {
+        bytesOut.add(bytes);
+        for (AdbMetricsListener listener : listeners) {
+            listener.onBytesSent(bytes);
+        }
+    }
+
+    /**
+     * @param bytes file data pushed to or pulled from a device
+     */
+    public static void recordTransferBytes(long bytes) {
+        transferRate.add(bytes);
+        for (AdbMetricsListener listener : listeners) {
+            listener.onTransferBytes(bytes);
+        }
+    }
+
+    public static void recordError(AdbWebsocketMessageType messageType, Throwable error) {
+        errors.computeIfAbsent(error.getClass().getName(), key -> new LongAdder()).increment();
+        for (AdbMetricsListener listener : listeners) {
+            listener.onError(messageType, error);
+        }
+    }
+
+    public static long getRequestCount(AdbWebsocketMessageType messageType) {
+        LongAdder count = requests.get(messageType);
+        return (count == null) ? 0 : count.sum();
+    }
+
+    /**
+     * @param messageType
+     * @param phase
+     * @return histogram of the phase, created empty when nothing was recorded yet
+     */
+    public static LatencyHistogram getHistogram(AdbWebsocketMessageType messageType, Phase phase) {
+        return latencies.computeIfAbsent(messageType, key -> {
+            Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+            for (Phase histogramPhase : Phase.values()) {
+                phases.put(histogramPhase, new LatencyHistogram());
+            }
+            return phases;
+        }).get(phase);
+    }
+
+    public static Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    public static long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public static long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * @return file transfer throughput over the last 10 seconds
+     */
+    public static double getTransferBytesPerSecond() {
+        return transferRate.getBytesPerSecond();
+    }
+
+    public static void addListener(AdbMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(AdbMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server, once.
+     */
+    public static synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBean(), name);
+            }
+            registered = true;
+        } catch (JMException e) {
+            LOG.error("Error registering websocket metrics MBean, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static Map<String, Double> getLatencyPercentiles(double percentile) {
+        Map<String, Double> percentiles = new TreeMap<>();
+        latencies.forEach((messageType, phases) -> phases.forEach((phase, histogram) -> {
+            if (histogram.getCount() > 0) {
+                percentiles.put(messageType + "." + phase, toMillis(histogram.getPercentileNanos(percentile)));
+            }
+        }));
+        return percentiles;
+    }
+
+    private static class MXBean implements AdbWebsocketMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getRequestCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            requests.forEach((messageType, count) -> counts.put(messageType.name(), count.sum()));
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getErrorCounts() {
+            return AdbWebsocketMetrics.getErrorCounts();
+        }
+
+        @Override
+        public long getBytesIn() {
+            return AdbWebsocketMetrics.getBytesIn();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return AdbWebsocketMetrics.getBytesOut();
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP50Millis() {
+            return getLatencyPercentiles(50);
+        }
+
+        @Override
+        public Map<String, Double> getLatencyP99Millis() {
+            return getLatencyPercentiles(99);
+        }
+
+        @Override
+        public Map<String, Double> getDeviceExecutionP99Millis() {
+            Map<String, Double> percentiles = new TreeMap<>();
+            deviceExecution.forEach((deviceSerial, histogram) -> percentiles.put(deviceSerial, toMillis(histogram.getPercentileNanos(99))));
+            return percentiles;
+        }
+
+        @Override
+        public Map<String, Integer> getDeviceQueueDepths() {
+            return new TreeMap<>(AdbDeviceScheduler.getQueuedCounts());
+        }
+
+        @Override
+        public int getActiveTransfers() {
+            return AdbFileTransferRegistry.getActiveTransferCount();
+        }
+
+        @Override
+        public double getTransferBytesPerSecond() {
+            return AdbWebsocketMetrics.getTransferBytesPerSecond();
+        }
+
+        @Override
+        public double getLatencyPercentileMillis(String messageType, String phase, double percentile) {
+            return toMillis(getHistogram(AdbWebsocketMessageType.valueOf(messageType), Phase.valueOf(phase)).getPercentileNanos(percentile));
+        }
+    }
+
+    /**
+     * Bytes per second over a sliding window of one second slots.
+     */
+    private static class TransferRate {
+        private static final int WINDOW_SECONDS = 10;
+
+        private final long[] slotSeconds = new long[WINDOW_SECONDS];
+        private final long[] slotBytes = new long[WINDOW_SECONDS];
+
+        private synchronized void add(long bytes) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            int slot = (int) (second % WINDOW_SECONDS);
+            if (slotSeconds[slot] != second) {
+                slotSeconds[slot] = second;
+                slotBytes[slot] = 0;
+            }
+            slotBytes[slot] += bytes;
+        }
+
+        private synchronized double getBytesPerSecond() {
+            long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            long bytes = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (second - slotSeconds[i] < WINDOW_SECONDS) {
+                    bytes += slotBytes[i];
+                }
+            }
+            return (double) bytes / WINDOW_SECONDS;
+        }
+    }
+}
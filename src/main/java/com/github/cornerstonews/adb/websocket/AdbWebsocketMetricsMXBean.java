@@ -0,0 +1,34 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link AdbWebsocketMetrics}. Latencies are keyed by "MESSAGE_TYPE.PHASE".
+ */
+public interface AdbWebsocketMetricsMXBean {
+
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getErrorCounts();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    Map<String, Double> getLatencyP50Millis();
+
+    Map<String, Double> getLatencyP99Millis();
+
+    /**
+     * @return p99 of the command execution time per device
+     */
+    Map<String, Double> getDeviceExecutionP99Millis();
+
+    Map<String, Integer> getDeviceQueueDepths();
+
+    int getActiveTransfers();
+
+    double getTransferBytesPerSecond();
+
+    double getLatencyPercentileMillis(String messageType, String phase, double percentile);
+}
@@ -0,0 +1,555 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Extension;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import javax.xml.bind.JAXBException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.websocket.AdbWebsocketMetrics.Phase;
+import com.github.cornerstonews.adb.websocket.message.AdbSubscribeMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageCborCodec;
+import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Sends messages through the async remote of a session. Websocket containers allow only one outstanding async write per
+ * session, so messages are queued and the next one is written from the completion callback of the previous one.
+ *
+ * The queue is bounded by the bytes it holds, including the message being written. What happens when a slow client lets
+ * it fill up is decided by the {@link OverflowPolicy}, a client that stops reading never holds more than the bound in
+ * memory nor the sending threads for longer than the block timeout. Threads that must never wait, such as the ddmlib
+ * listener and the logcat reader, use the try methods: their messages are best effort and dropped rather than waited
+ * for, only the CLOSE policy closes the session for them.
+ */
+public class AdbWebsocketSender {
+
+    private static final Logger LOG = LogManager.getLogger(AdbWebsocketSender.class);
+
+    public enum OverflowPolicy {
+        // The sending thread waits for the client to catch up, the session is closed when it does not in time.
+        BLOCK,
+        // Queued updates are replaced by a newer update with the same supersede key, other messages block.
+        DROP_SUPERSEDED,
+        // The session is closed.
+        CLOSE
+    }
+
+    private enum Reservation {
+        QUEUED, DROPPED, OVERFLOW
+    }
+
+    public static final String PER_MESSAGE_DEFLATE = "permessage-deflate";
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 1000 * 30;
+
+    private static volatile long defaultMaxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private static volatile OverflowPolicy defaultOverflowPolicy = OverflowPolicy.DROP_SUPERSEDED;
+    private static volatile long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+
+    private final Session session;
+    private final boolean binaryProtocol;
+    private final boolean compression;
+    private final Queue<PendingMessage> pendingMessages = new ArrayDeque<>();
+    // Waiting in synchronized would pin the virtual threads commands run on.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private volatile long maxQueuedBytes = defaultMaxQueuedBytes;
+    private volatile OverflowPolicy overflowPolicy = defaultOverflowPolicy;
+    private boolean writing;
+    private boolean closed;
+    private long queuedBytes;
+    private long droppedCount;
+
+    public AdbWebsocketSender(Session session) {
+        this.session = session;
+        String subprotocol = session.getNegotiatedSubprotocol();
+        this.binaryProtocol = AdbWebsocketMessageCborCodec.isBinarySubprotocol(subprotocol);
+        // Frames compressed by permessage-deflate would be compressed twice.
+        this.compression = AdbWebsocketMessageCborCodec.SUBPROTOCOL_COMPRESSED.equals(subprotocol) && !isPerMessageDeflate(session);
+    }
+
+    private static boolean isPerMessageDeflate(Session session) {
+        List<Extension> extensions = session.getNegotiatedExtensions();
+        if (extensions == null) {
+            return false;
+        }
+        for (Extension extension : extensions) {
+            if (PER_MESSAGE_DEFLATE.equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true when the client negotiated the binary encoding, messages are then sent as binary frames
+     */
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    /**
+     * Sends the message in the encoding negotiated by the client.
+     *
+     * @param message
+     * @return
+     * @throws JAXBException
+     */
+    public CompletableFuture<Void> sendMessage(AdbWebsocketMessage message) throws JAXBException {
+        return enqueue(encode(message), true);
+    }
+
+    /**
+     * Sends the message without ever waiting for room in the queue. When there is none the message is dropped and the
+     * returned future is cancelled, unless the policy is CLOSE.
+     *
+     * @param message
+     * @return
+     * @throws JAXBException
+     */
+    public CompletableFuture<Void> trySendMessage(AdbWebsocketMessage message) throws JAXBException {
+        return enqueue(encode(message), false);
+    }
+
+    private PendingMessage encode(AdbWebsocketMessage message) throws JAXBException {
+        String supersedeKey = getSupersedeKey(message);
+        long start = System.nanoTime();
+        if (!binaryProtocol) {
+            String text = JAXBUtils.marshalToJSON(message);
+            AdbWebsocketMetrics.recordLatency(message.getMessageType(), null, Phase.ENCODE, System.nanoTime() - start);
+            return new PendingMessage(text, null, text.length(), supersedeKey, message.getMessageType());
+        }
+
+        ByteBuffer frame = AdbWebsocketMessageCborCodec.encode(message);
+        if (compression && AdbMessageCompression.shouldCompress(message.getMessageType(), frame.remaining())) {
+            frame = compress(frame);
+        }
+        AdbWebsocketMetrics.recordLatency(message.getMessageType(), null, Phase.ENCODE, System.nanoTime() - start);
+        return new PendingMessage(null, frame, frame.remaining(), supersedeKey, message.getMessageType());
+    }
+
+    /**
+     * Status replies and device events carry the whole state of a device, a newer one replaces a queued one of the same
+     * device. A status reply to a request with a requestId is only replaced by a reply to the same request, so every
+     * request still gets its reply. Progress updates of a request replace each other. Errors, other final replies and
+     * updates that carry data such as logcat entries are always delivered.
+     *
+     * @param message
+     * @return key shared by updates that replace each other, null when the message must always be delivered
+     */
+    public static String getSupersedeKey(AdbWebsocketMessage message) {
+        if (message.getMessageType() == null || message.getDeviceSerial() == null) {
+            return null;
+        }
+
+        String key = message.getMessageType() + "/" + message.getDeviceSerial();
+        switch (message.getMessageType()) {
+            case STATUS:
+                if (!Integer.valueOf(200).equals(message.getStatusCode())) {
+                    return null;
+                }
+                return (message.getRequestId() == null) ? key : key + "/" + message.getRequestId();
+            case SUBSCRIBE:
+                String event = ((AdbSubscribeMessage) message).getEvent();
+                return (event == null) ? null : key + "/" + event;
+            case INSTALL:
+                if (message.getRequestId() == null || !Integer.valueOf(206).equals(message.getStatusCode())) {
+                    return null;
+                }
+                return key + "/" + message.getRequestId();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true when the client accepts compressed frames
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sends file data in the same binary encoding frame as the message it belongs to. The data is copied, the buffer can
+     * be reused once this method returns.
+     *
+     * @param message
+     * @param data
+     * @return
+     * @throws JAXBException
+     */
+    public CompletableFuture<Void> sendMessage(AdbWebsocketMessage message, ByteBuffer data) throws JAXBException {
+        return sendMessage(message, data, false);
+    }
+
+    /**
+     * @param message
+     * @param data
+     * @param compress compress the frame if the client accepts compressed frames and it is over the threshold
+     * @return
+     * @throws JAXBException
+     */
+    public CompletableFuture<Void> sendMessage(AdbWebsocketMessage message, ByteBuffer data, boolean compress) throws JAXBException {
+        long start = System.nanoTime();
+        ByteBuffer frame = AdbWebsocketMessageCborCodec.encode(message, data);
+        if (compress && compression && frame.remaining() >= AdbMessageCompression.getThreshold()) {
+            frame = compress(frame);
+        }
+        AdbWebsocketMetrics.recordLatency(message.getMessageType(), null, Phase.ENCODE, System.nanoTime() - start);
+        return enqueue(new PendingMessage(null, frame, frame.remaining(), null, message.getMessageType()), true);
+    }
+
+    private ByteBuffer compress(ByteBuffer frame) {
+        ByteBuffer compressed = AdbMessageCompression.compress(frame);
+        return (compressed == null) ? frame : AdbWebsocketMessageCborCodec.encodeCompressed(AdbMessageCompression.DEFLATE, compressed);
+    }
+
+    public CompletableFuture<Void> sendText(String text) {
+        return sendText(text, null);
+    }
+
+    /**
+     * @param text
+     * @param supersedeKey see {@link #getSupersedeKey(AdbWebsocketMessage)}
+     * @return
+     */
+    public CompletableFuture<Void> sendText(String text, String supersedeKey) {
+        // Chars rather than UTF-8 bytes, close enough for the bound and avoids encoding the text twice.
+        return enqueue(new PendingMessage(text, null, text.length(), supersedeKey, null), true);
+    }
+
+    /**
+     * @param text
+     * @param supersedeKey see {@link #getSupersedeKey(AdbWebsocketMessage)}
+     * @return
+     * @see #trySendMessage(AdbWebsocketMessage)
+     */
+    public CompletableFuture<Void> trySendText(String text, String supersedeKey) {
+        return enqueue(new PendingMessage(text, null, text.length(), supersedeKey, null), false);
+    }
+
+    /**
+     * Queues binary data to be sent. The buffer must not be modified until the returned future completes.
+     *
+     * @param data
+     * @return
+     */
+    public CompletableFuture<Void> sendBinary(ByteBuffer data) {
+        return sendBinary(data, null);
+    }
+
+    /**
+     * @param data
+     * @param supersedeKey see {@link #getSupersedeKey(AdbWebsocketMessage)}
+     * @return
+     */
+    public CompletableFuture<Void> sendBinary(ByteBuffer data, String supersedeKey) {
+        return enqueue(new PendingMessage(null, data, data.remaining(), supersedeKey, null), true);
+    }
+
+    /**
+     * @param data
+     * @param supersedeKey see {@link #getSupersedeKey(AdbWebsocketMessage)}
+     * @return
+     * @see #trySendMessage(AdbWebsocketMessage)
+     */
+    public CompletableFuture<Void> trySendBinary(ByteBuffer data, String supersedeKey) {
+        return enqueue(new PendingMessage(null, data, data.remaining(), supersedeKey, null), false);
+    }
+
+    private CompletableFuture<Void> enqueue(PendingMessage pendingMessage, boolean wait) {
+        Reservation reservation;
+        lock.lock();
+        try {
+            reservation = reserve(pendingMessage, wait);
+            if (reservation == Reservation.QUEUED) {
+                pendingMessages.add(pendingMessage);
+            } else if (reservation == Reservation.DROPPED) {
+                droppedCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (reservation == Reservation.OVERFLOW) {
+            close(pendingMessage);
+        } else if (reservation == Reservation.DROPPED) {
+            LOG.debug("Dropped message of session '{}', client is not reading messages fast enough.", session.getId());
+            pendingMessage.future.cancel(false);
+        } else {
+            writeNext();
+        }
+        return pendingMessage.future;
+    }
+
+    /**
+     * Makes room for the message in the queue, waiting for the client if the policy says so. Must hold the lock.
+     *
+     * @param pendingMessage
+     * @param wait           false to drop the message rather than wait for room
+     * @return OVERFLOW when the session has to be closed
+     */
+    private Reservation reserve(PendingMessage pendingMessage, boolean wait) {
+        if (closed) {
+            return Reservation.OVERFLOW;
+        }
+        if (isFull(pendingMessage.size)) {
+            if (overflowPolicy == OverflowPolicy.CLOSE) {
+                return Reservation.OVERFLOW;
+            }
+            // The update takes the place of the ones it replaces rather than waiting.
+            if (overflowPolicy == OverflowPolicy.DROP_SUPERSEDED && pendingMessage.supersedeKey != null && dropSuperseded(pendingMessage.supersedeKey)) {
+                queuedBytes += pendingMessage.size;
+                return Reservation.QUEUED;
+            }
+            if (!wait) {
+                return Reservation.DROPPED;
+            }
+        }
+
+        long remaining = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        while (!closed && isFull(pendingMessage.size)) {
+            if (remaining <= 0) {
+                return Reservation.OVERFLOW;
+            }
+            try {
+                remaining = released.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Reservation.OVERFLOW;
+            }
+        }
+        if (closed) {
+            return Reservation.OVERFLOW;
+        }
+
+        queuedBytes += pendingMessage.size;
+        return Reservation.QUEUED;
+    }
+
+    private boolean isFull(long size) {
+        // A single message larger than the bound is still sent once everything before it is written.
+        return queuedBytes > 0 && queuedBytes + size > maxQueuedBytes;
+    }
+
+    /**
+     * @param supersedeKey
+     * @return true when at least one queued update was dropped
+     */
+    private boolean dropSuperseded(String supersedeKey) {
+        boolean dropped = false;
+        Iterator<PendingMessage> queued = pendingMessages.iterator();
+        while (queued.hasNext()) {
+            PendingMessage pendingMessage = queued.next();
+            if (Objects.equals(supersedeKey, pendingMessage.supersedeKey)) {
+                queued.remove();
+                queuedBytes -= pendingMessage.size;
+                droppedCount++;
+                dropped = true;
+                // The newer update delivers the same information.
+                pendingMessage.future.complete(null);
+            }
+        }
+        return dropped;
+    }
+
+    private void close(PendingMessage overflowed) {
+        List<PendingMessage> failed = new ArrayList<>();
+        long queued;
+        boolean alreadyClosed;
+        lock.lock();
+        try {
+            for (PendingMessage pendingMessage : pendingMessages) {
+                queuedBytes -= pendingMessage.size;
+                failed.add(pendingMessage);
+            }
+            failed.add(overflowed);
+            pendingMessages.clear();
+            queued = queuedBytes;
+            alreadyClosed = closed;
+            closed = true;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (alreadyClosed) {
+            overflowed.future.completeExceptionally(new IllegalStateException("Session '" + session.getId() + "' is closed."));
+            return;
+        }
+
+        LOG.info("Closing session '{}', client is not reading messages fast enough. Bytes being written: {}", session.getId(), queued);
+        IllegalStateException error = new IllegalStateException("Outbound queue of session '" + session.getId() + "' is full, session closed.");
+        for (PendingMessage pendingMessage : failed) {
+            pendingMessage.future.completeExceptionally(error);
+        }
+        try {
+            session.close(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Client is not reading messages fast enough."));
+        } catch (IOException e) {
+            LOG.error("Error closing session, Error: '{}'", e.getMessage(), e);
+        }
+    }
+
+    private void writeNext() {
+        PendingMessage next;
+        lock.lock();
+        try {
+            if (writing || pendingMessages.isEmpty()) {
+                return;
+            }
+            writing = true;
+            next = pendingMessages.poll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (!session.isOpen()) {
+                throw new IllegalStateException("Session '" + session.getId() + "' is closed.");
+            }
+
+            RemoteEndpoint.Async remote = session.getAsyncRemote();
+            SendHandler handler = result -> onComplete(next, result);
+            if (next.text != null) {
+                remote.sendText(next.text, handler);
+            } else {
+                remote.sendBinary(next.data, handler);
+            }
+        } catch (RuntimeException e) {
+            release(next);
+            next.future.completeExceptionally(e);
+            writeNext();
+        }
+    }
+
+    private void onComplete(PendingMessage pendingMessage, SendResult result) {
+        release(pendingMessage);
+
+        if (result.isOK()) {
+            AdbWebsocketMetrics.recordBytesSent(pendingMessage.size);
+            AdbWebsocketMetrics.recordLatency(pendingMessage.messageType, null, Phase.SEND, System.nanoTime() - pendingMessage.queuedNanos);
+            pendingMessage.future.complete(null);
+        } else {
+            pendingMessage.future.completeExceptionally(result.getException());
+        }
+        writeNext();
+    }
+
+    private void release(PendingMessage written) {
+        lock.lock();
+        try {
+            writing = false;
+            queuedBytes -= written.size;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of updates dropped because a newer one replaced them, and of best effort messages dropped because
+     *         the queue was full
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public static long getDefaultMaxQueuedBytes() {
+        return defaultMaxQueuedBytes;
+    }
+
+    /**
+     * @param maxQueuedBytes bound of the queue of senders created from now on
+     */
+    public static void setDefaultMaxQueuedBytes(long maxQueuedBytes) {
+        AdbWebsocketSender.defaultMaxQueuedBytes = maxQueuedBytes;
+    }
+
+    public static OverflowPolicy getDefaultOverflowPolicy() {
+        return defaultOverflowPolicy;
+    }
+
+    public static void setDefaultOverflowPolicy(OverflowPolicy overflowPolicy) {
+        AdbWebsocketSender.defaultOverflowPolicy = overflowPolicy;
+    }
+
+    public static long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * @param blockTimeoutMillis how long a sending thread waits for room in the queue before the session is closed
+     */
+    public static void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        AdbWebsocketSender.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    private static class PendingMessage {
+        private final String text;
+        private final ByteBuffer data;
+        private final long size;
+        private final String supersedeKey;
+        private final AdbWebsocketMessageType messageType;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(String text, ByteBuffer data, long size, String supersedeKey, AdbWebsocketMessageType messageType) {
+            this.text = text;
+            this.data = data;
+            this.size = size;
+            this.supersedeKey = supersedeKey;
+            this.messageType = messageType;
+        }
+    }
+}
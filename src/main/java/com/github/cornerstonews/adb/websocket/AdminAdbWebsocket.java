@@ -3,7 +3,10 @@ package com.github.cornerstonews.adb.websocket;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
 
+import javax.websocket.DecodeException;
 import javax.websocket.OnMessage;
 import javax.websocket.Session;
 import javax.xml.bind.JAXBException;
@@ -11,18 +14,26 @@ import javax.xml.bind.JAXBException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.android.ddmlib.IDevice;
 import com.github.cornerstonews.adb.AdbExecutor;
 import com.github.cornerstonews.adb.AdbManager;
 import com.github.cornerstonews.adb.CornerstoneADBException;
 import com.github.cornerstonews.adb.DeviceDO;
+import com.github.cornerstonews.adb.websocket.message.AdbBatchMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbDevicesGetMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbForwardMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbForwardOpenMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbRebootMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbScreenStreamMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellSessionMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbSubscribeMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessage;
 import com.github.cornerstonews.adb.websocket.message.AdbWebsocketMessageType;
-import com.github.cornerstonews.util.JAXBUtils;
 
 //@ServerEndpoint(value = "/admin/adb")
 public abstract class AdminAdbWebsocket extends AdbWebsocket {
@@ -33,68 +44,114 @@ public abstract class AdminAdbWebsocket extends AdbWebsocket {
         super(adbManager);
     }
 
+    public AdminAdbWebsocket(AdbManager adbManager, Executor commandExecutor) {
+        super(adbManager, commandExecutor);
+    }
+
     @OnMessage
     public void onMessage(Session session, String message, boolean isLast) {
-        LOG.info("Received a string message.");
         LOG.debug("Message received: '{}'", message);
 
         AdbWebsocketMessage adbMessage;
         try {
-            adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbWebsocketMessage.class);
+            adbMessage = decodeTextMessage(message);
 
             if (adbMessage == null || adbMessage.getMessageType() == null) {
                 LOG.info("Invalid message received, rejecting and sending error client. Message is not Adb Websocket Message Type. ");
                 sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", adbMessage, session);
                 return;
             }
-        } catch (JAXBException e) {
+        } catch (DecodeException e) {
             LOG.info("Error unmarshalling message: '{}', Error: '{}'", message, e.getMessage(), e);
             sendError("Invalid message. Please make sure message is formatted properly and includes a messageType.", null, session);
             return;
         }
 
-        LOG.info("Message Type: '{}'", adbMessage.getMessageType());
+        onAdbMessage(adbMessage, session);
+    }
+
+    @Override
+    protected void onAdbMessage(AdbWebsocketMessage adbMessage, Session session) {
+        LOG.debug("Message Type: '{}'", adbMessage.getMessageType());
+        if (isShellControl(adbMessage)) {
+            processShellSession((AdbShellSessionMessage) adbMessage, session);
+            return;
+        }
+        if (AdbWebsocketMessageType.FORWARD == adbMessage.getMessageType()) {
+            handleForward((AdbForwardMessage) adbMessage, null, session);
+            return;
+        }
+        dispatch(adbMessage, session);
+    }
+
+    @Override
+    protected void processMessage(AdbWebsocketMessage adbMessage, Session session) {
         try {
             if (AdbWebsocketMessageType.DEVICES_GET == adbMessage.getMessageType()) {
-                adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbDevicesGetMessage.class);
                 handleDevicesGet((AdbDevicesGetMessage) adbMessage, session);
                 return;
             }
 
+            if (AdbWebsocketMessageType.BATCH == adbMessage.getMessageType()) {
+                handleBatch((AdbBatchMessage) adbMessage, session);
+                return;
+            }
+
+            if (AdbWebsocketMessageType.SUBSCRIBE == adbMessage.getMessageType()) {
+                handleSubscribe((AdbSubscribeMessage) adbMessage, adbMessage.getDeviceSerial(), session);
+                return;
+            }
+
             AdbExecutor deviceAdbExecutor = this.adbManager.getDevice(adbMessage.getDeviceSerial());
             if (deviceAdbExecutor == null) {
                 sendError("Device not found.", adbMessage, session);
                 return;
             }
-            this.deviceSerial = adbMessage.getDeviceSerial();
 
             switch (adbMessage.getMessageType()) {
 
                 case DIRECTORY_GET:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbDirectoryGetMessage.class);
                     handleDirectoryGet((AdbDirectoryGetMessage) adbMessage, session);
                     break;
 
                 case REBOOT:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbRebootMessage.class);
                     handleReboot((AdbRebootMessage) adbMessage, session);
                     break;
 
                 case SHELL_COMMAND:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbShellCommandMessage.class);
                     handleShellCommand((AdbShellCommandMessage) adbMessage, session);
                     break;
 
                 case STATUS:
-                    adbMessage = JAXBUtils.unmarshalFromJSON(message, AdbStatusMessage.class);
                     handleStatus((AdbStatusMessage) adbMessage, session);
                     break;
 
+                case SCREEN_STREAM:
+                    handleScreenStream((AdbScreenStreamMessage) adbMessage, session);
+                    break;
+
+                case LOGCAT_SUBSCRIBE:
+                    handleLogcatSubscribe((AdbLogcatMessage) adbMessage, session);
+                    break;
+
+                case FORWARD_OPEN:
+                    handleForwardOpen((AdbForwardOpenMessage) adbMessage, session);
+                    break;
+
+                case INSTALL:
+                    handleInstall((AdbInstallMessage) adbMessage, session);
+                    break;
+
+                case SHELL_SESSION:
+                    handleShellSession((AdbShellSessionMessage) adbMessage, session);
+                    break;
+
                 default:
                     sendError("Unknown ADB command.", adbMessage, session);
                     break;
             }
-        } catch (JAXBException | IOException | CornerstoneADBException e) {
+        } catch (JAXBException | IOException | CornerstoneADBException | RuntimeException e) {
+            AdbWebsocketMetrics.recordError(adbMessage.getMessageType(), e);
             LOG.error("Error processing message for device, Error: '{}'", e.getMessage(), e);
             LOG.trace("Error processing message for device serial '{}', Error: '{}'", adbMessage.getDeviceSerial(), e.getMessage());
             sendError("Error processing message. Error: " + e.getMessage(), adbMessage, session);
@@ -104,8 +161,53 @@ public abstract class AdminAdbWebsocket extends AdbWebsocket {
 
     private void handleDevicesGet(AdbDevicesGetMessage adbMessage, Session session) throws IOException, JAXBException, CornerstoneADBException {
         List<DeviceDO> devices = new ArrayList<DeviceDO>();
-        this.adbManager.getDevices().forEach((entry) -> devices.add(entry.getDeviceInfo()));
+        for (AdbExecutor entry : this.adbManager.getDevices()) {
+            devices.add(AdbDeviceCache.getDeviceInfoCache().get(entry.getDeviceSerial(), key -> entry.getDeviceInfo()));
+        }
         adbMessage.setDevices(devices);
         this.sendSuccess(200, "Devices get successful.", adbMessage, session);
     }
+
+    private void handleBatch(AdbBatchMessage adbMessage, Session session) throws IOException, JAXBException, CornerstoneADBException {
+        AdbWebsocketMessageType command = adbMessage.getCommand();
+        if (command != AdbWebsocketMessageType.SHELL_COMMAND && command != AdbWebsocketMessageType.REBOOT && command != AdbWebsocketMessageType.STATUS) {
+            sendError("Batch command must be SHELL_COMMAND, REBOOT or STATUS.", adbMessage, session);
+            return;
+        }
+        if (command == AdbWebsocketMessageType.SHELL_COMMAND && adbMessage.getShellCommand() == null) {
+            sendError("Batch shell command required.", adbMessage, session);
+            return;
+        }
+
+        List<String> deviceSerials = (adbMessage.getDeviceSerials() != null) ? adbMessage.getDeviceSerials() : selectDevices(adbMessage);
+        LOG.info("Running batch '{}' on {} devices.", command, deviceSerials.size());
+        new AdbBatchRunner(this, this.adbManager, getCommandExecutor(), adbMessage, session).start(deviceSerials);
+    }
+
+    private List<String> selectDevices(AdbBatchMessage adbMessage) throws CornerstoneADBException {
+        List<String> deviceSerials = new ArrayList<String>();
+        for (AdbExecutor entry : this.adbManager.getDevices()) {
+            String serial = entry.getDeviceSerial();
+            if (Boolean.TRUE.equals(adbMessage.getOnlineOnly()) && !AdbDeviceCache.getStatusCache().get(serial, key -> entry.isOnline())) {
+                continue;
+            }
+
+            if (adbMessage.getModel() != null || adbMessage.getPropertyName() != null) {
+                IDevice device;
+                try {
+                    device = DdmlibDevices.getDevice(serial);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (adbMessage.getModel() != null && !adbMessage.getModel().equals(device.getProperty(IDevice.PROP_DEVICE_MODEL))) {
+                    continue;
+                }
+                if (adbMessage.getPropertyName() != null && !Objects.equals(adbMessage.getPropertyValue(), device.getProperty(adbMessage.getPropertyName()))) {
+                    continue;
+                }
+            }
+            deviceSerials.add(serial);
+        }
+        return deviceSerials;
+    }
 }
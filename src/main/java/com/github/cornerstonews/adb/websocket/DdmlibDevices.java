@@ -0,0 +1,27 @@
+package com.github.cornerstonews.adb.websocket;
+
+import java.io.IOException;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.IDevice;
+
+/**
+ * Access to the ddmlib device for features that need more than {@link com.github.cornerstonews.adb.AdbExecutor}
+ * offers, like streaming shell output or sync channels. Uses the bridge created by the AdbManager.
+ */
+public abstract class DdmlibDevices {
+
+    public static IDevice getDevice(String deviceSerial) throws IOException {
+        AndroidDebugBridge bridge = AndroidDebugBridge.getBridge();
+        if (bridge == null || !bridge.isConnected()) {
+            throw new IOException("ADB bridge is not connected.");
+        }
+
+        for (IDevice device : bridge.getDevices()) {
+            if (device.getSerialNumber().equals(deviceSerial)) {
+                return device;
+            }
+        }
+        throw new IOException("Device not found: " + deviceSerial);
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Runs a command on several devices. The devices are the listed serials, or when none are listed all devices matching
+ * the online, model and property filters. Each device result is sent as its own message, followed by a BATCH summary.
+ */
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbBatchMessage extends AdbWebsocketMessage {
+
+    @XmlElement
+    private List<String> deviceSerials;
+
+    @XmlElement
+    private Boolean onlineOnly = true;
+
+    @XmlElement
+    private String model;
+
+    @XmlElement
+    private String propertyName;
+
+    @XmlElement
+    private String propertyValue;
+
+    // SHELL_COMMAND, REBOOT or STATUS
+    @XmlElement
+    private AdbWebsocketMessageType command;
+
+    @XmlElement
+    private String shellCommand;
+
+    @XmlElement
+    private Integer maxConcurrency;
+
+    // Summary, set on the final message.
+    @XmlElement
+    private Integer total;
+
+    @XmlElement
+    private Integer succeeded;
+
+    @XmlElement
+    private List<String> failedDevices;
+
+    public AdbBatchMessage() {
+        this(null);
+    }
+
+    public AdbBatchMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.BATCH, deviceSerial);
+    }
+
+    public List<String> getDeviceSerials() {
+        return deviceSerials;
+    }
+
+    public void setDeviceSerials(List<String> deviceSerials) {
+        this.deviceSerials = deviceSerials;
+    }
+
+    public Boolean getOnlineOnly() {
+        return onlineOnly;
+    }
+
+    public void setOnlineOnly(Boolean onlineOnly) {
+        this.onlineOnly = onlineOnly;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public void setPropertyName(String propertyName) {
+        this.propertyName = propertyName;
+    }
+
+    public String getPropertyValue() {
+        return propertyValue;
+    }
+
+    public void setPropertyValue(String propertyValue) {
+        this.propertyValue = propertyValue;
+    }
+
+    public AdbWebsocketMessageType getCommand() {
+        return command;
+    }
+
+    public void setCommand(AdbWebsocketMessageType command) {
+        this.command = command;
+    }
+
+    public String getShellCommand() {
+        return shellCommand;
+    }
+
+    public void setShellCommand(String shellCommand) {
+        this.shellCommand = shellCommand;
+    }
+
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public Integer getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(Integer succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public List<String> getFailedDevices() {
+        return failedDevices;
+    }
+
+    public void setFailedDevices(List<String> failedDevices) {
+        this.failedDevices = failedDevices;
+    }
+}
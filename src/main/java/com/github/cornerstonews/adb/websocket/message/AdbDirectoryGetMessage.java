@@ -1,5 +1,7 @@
 package com.github.cornerstonews.adb.websocket.message;
 
+import java.util.List;
+
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlType;
 
@@ -17,6 +19,24 @@ public class AdbDirectoryGetMessage extends AdbWebsocketMessage {
     @XmlElement
     private FileNode pathDetail;
 
+    // Batch and recursive listing, results are streamed as 206 messages with the entries of one directory each.
+    @XmlElement
+    private List<String> paths;
+
+    // Directory levels listed below each path, 1 lists the direct children.
+    @XmlElement
+    private Integer depth;
+
+    // Only entries with a matching name are returned, directories are walked regardless.
+    @XmlElement
+    private String glob;
+
+    @XmlElement
+    private List<AdbFileEntry> entries;
+
+    @XmlElement
+    private Long sequence;
+
     public AdbDirectoryGetMessage() {
         this(null);
     }
@@ -48,4 +68,44 @@ public class AdbDirectoryGetMessage extends AdbWebsocketMessage {
     public void setPathDetail(FileNode pathDetail) {
         this.pathDetail = pathDetail;
     }
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(List<String> paths) {
+        this.paths = paths;
+    }
+
+    public Integer getDepth() {
+        return depth;
+    }
+
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    public void setGlob(String glob) {
+        this.glob = glob;
+    }
+
+    public List<AdbFileEntry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<AdbFileEntry> entries) {
+        this.entries = entries;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
 }
@@ -0,0 +1,121 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * A file or directory listed by a batch or recursive {@link AdbDirectoryGetMessage}.
+ */
+@XmlType(name = "")
+public class AdbFileEntry {
+
+    @XmlElement
+    private String name;
+
+    @XmlElement
+    private String fullPath;
+
+    @XmlElement
+    private Boolean directory;
+
+    @XmlElement
+    private Boolean link;
+
+    @XmlElement
+    private Long size;
+
+    @XmlElement
+    private String permissions;
+
+    @XmlElement
+    private String owner;
+
+    @XmlElement
+    private String group;
+
+    @XmlElement
+    private String date;
+
+    @XmlElement
+    private String time;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getFullPath() {
+        return fullPath;
+    }
+
+    public void setFullPath(String fullPath) {
+        this.fullPath = fullPath;
+    }
+
+    public Boolean getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(Boolean directory) {
+        this.directory = directory;
+    }
+
+    public Boolean getLink() {
+        return link;
+    }
+
+    public void setLink(Boolean link) {
+        this.link = link;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getPermissions() {
+        return permissions;
+    }
+
+    public void setPermissions(String permissions) {
+        this.permissions = permissions;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public void setDate(String date) {
+        this.date = date;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    public void setTime(String time) {
+        this.time = time;
+    }
+}
@@ -11,7 +11,29 @@ public abstract class AdbFileMessage extends AdbWebsocketMessage {
     private String fileName;
     
     @XmlElement
-    private Integer size;
+    private Long size;
+
+    // Assigned by the server when a transfer is accepted, sent back by the client to resume it after a reconnect.
+    @XmlElement
+    private String transferId;
+
+    @XmlElement
+    private Long offset;
+
+    // Assigned by the server, multiplexed transfers prefix every binary frame with it as a 4 byte int.
+    @XmlElement
+    private Integer channel;
+
+    @XmlElement
+    private Boolean multiplexed;
+
+    // When true every binary frame starts with the 8 byte offset and 4 byte CRC32C of its data.
+    @XmlElement
+    private Boolean chunked;
+
+    // CRC32C of the whole file as hex, optional for pushes and always returned for completed transfers.
+    @XmlElement
+    private String checksum;
 
     public AdbFileMessage() {
     }
@@ -36,12 +58,60 @@ public abstract class AdbFileMessage extends AdbWebsocketMessage {
         this.fileName = fileName;
     }
 
-    public Integer getSize() {
+    public Long getSize() {
         return size;
     }
 
-    public void setSize(Integer size) {
+    public void setSize(Long size) {
         this.size = size;
     }
 
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    public Long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Long offset) {
+        this.offset = offset;
+    }
+
+    public Integer getChannel() {
+        return channel;
+    }
+
+    public void setChannel(Integer channel) {
+        this.channel = channel;
+    }
+
+    public Boolean getMultiplexed() {
+        return multiplexed;
+    }
+
+    public void setMultiplexed(Boolean multiplexed) {
+        this.multiplexed = multiplexed;
+    }
+
+    public Boolean getChunked() {
+        return chunked;
+    }
+
+    public void setChunked(Boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
 }
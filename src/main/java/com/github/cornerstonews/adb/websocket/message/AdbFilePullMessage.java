@@ -1,7 +1,13 @@
 package com.github.cornerstonews.adb.websocket.message;
 
+import javax.xml.bind.annotation.XmlElement;
+
 public class AdbFilePullMessage extends AdbFileMessage {
 
+    // When true chunks of text files are compressed, only for clients that accept compressed binary frames.
+    @XmlElement
+    private Boolean compress;
+
     public AdbFilePullMessage() {
         this(null);
     }
@@ -10,4 +16,11 @@ public class AdbFilePullMessage extends AdbFileMessage {
         super(AdbWebsocketMessageType.FILE_PULL, deviceSerial);
     }
 
+    public Boolean getCompress() {
+        return compress;
+    }
+
+    public void setCompress(Boolean compress) {
+        this.compress = compress;
+    }
 }
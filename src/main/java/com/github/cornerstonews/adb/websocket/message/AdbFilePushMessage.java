@@ -1,7 +1,13 @@
 package com.github.cornerstonews.adb.websocket.message;
 
+import javax.xml.bind.annotation.XmlElement;
+
 public class AdbFilePushMessage extends AdbFileMessage {
 
+    // When true the data is written to the device as it is received instead of being staged in a temp file first.
+    @XmlElement
+    private Boolean stream;
+
     public AdbFilePushMessage() {
         this(null);
     }
@@ -10,4 +16,12 @@ public class AdbFilePushMessage extends AdbFileMessage {
         super(AdbWebsocketMessageType.FILE_PUSH, deviceSerial);
     }
 
+    public Boolean getStream() {
+        return stream;
+    }
+
+    public void setStream(Boolean stream) {
+        this.stream = stream;
+    }
+
 }
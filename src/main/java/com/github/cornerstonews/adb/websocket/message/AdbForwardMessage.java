@@ -0,0 +1,54 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbForwardMessage extends AdbWebsocketMessage {
+
+    public static final String ACTION_WINDOW = "WINDOW";
+    public static final String ACTION_CLOSE = "CLOSE";
+
+    @XmlElement
+    private Integer streamId;
+
+    // WINDOW or CLOSE. Frames carrying stream bytes have no action.
+    @XmlElement
+    private String action;
+
+    // Set on WINDOW, bytes the sender of the message accepts in addition to its current window.
+    @XmlElement
+    private Integer window;
+
+    public AdbForwardMessage() {
+        this(null);
+    }
+
+    public AdbForwardMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.FORWARD, deviceSerial);
+    }
+
+    public Integer getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(Integer streamId) {
+        this.streamId = streamId;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public Integer getWindow() {
+        return window;
+    }
+
+    public void setWindow(Integer window) {
+        this.window = window;
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbForwardOpenMessage extends AdbWebsocketMessage {
+
+    // Socket on the device, tcp:<port> or localabstract:<name>.
+    @XmlElement
+    private String remote;
+
+    // Bytes the receiver accepts before granting more with a FORWARD WINDOW message. On the request the window of the
+    // client, on the reply the window of the server.
+    @XmlElement
+    private Integer window;
+
+    // Set on the reply, identifies the stream in FORWARD messages.
+    @XmlElement
+    private Integer streamId;
+
+    public AdbForwardOpenMessage() {
+        this(null);
+    }
+
+    public AdbForwardOpenMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.FORWARD_OPEN, deviceSerial);
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public void setRemote(String remote) {
+        this.remote = remote;
+    }
+
+    public Integer getWindow() {
+        return window;
+    }
+
+    public void setWindow(Integer window) {
+        this.window = window;
+    }
+
+    public Integer getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(Integer streamId) {
+        this.streamId = streamId;
+    }
+}
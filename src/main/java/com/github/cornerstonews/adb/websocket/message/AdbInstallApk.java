@@ -0,0 +1,54 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * One APK of an {@link AdbInstallMessage}, the base APK or a split.
+ */
+@XmlType(name = "")
+public class AdbInstallApk {
+
+    // File name in the install session, for example base.apk or split_config.arm64_v8a.apk.
+    @XmlElement
+    private String name;
+
+    @XmlElement
+    private Long size;
+
+    // Set on progress messages, bytes of this APK written to the device.
+    @XmlElement
+    private Long transferredSize;
+
+    public AdbInstallApk() {
+    }
+
+    public AdbInstallApk(String name, Long size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Long getTransferredSize() {
+        return transferredSize;
+    }
+
+    public void setTransferredSize(Long transferredSize) {
+        this.transferredSize = transferredSize;
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbInstallMessage extends AdbWebsocketMessage {
+
+    // The APKs of the app with their sizes, set to start an install.
+    @XmlElement
+    private List<AdbInstallApk> apks;
+
+    // Flags passed to the package manager, for example -r, -g or -t.
+    @XmlElement
+    private List<String> options;
+
+    // Assigned by the server when the install is started, sent with the APK data.
+    @XmlElement
+    private String installId;
+
+    // Index in apks of the APK the frame data belongs to.
+    @XmlElement
+    private Integer apk;
+
+    // True cancels the install.
+    @XmlElement
+    private Boolean abort;
+
+    // Set on progress messages.
+    @XmlElement
+    private Long transferredSize;
+
+    @XmlElement
+    private Long totalSize;
+
+    // Set on the last message, output of the package manager.
+    @XmlElement
+    private String output;
+
+    public AdbInstallMessage() {
+        this(null);
+    }
+
+    public AdbInstallMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.INSTALL, deviceSerial);
+    }
+
+    public List<AdbInstallApk> getApks() {
+        return apks;
+    }
+
+    public void setApks(List<AdbInstallApk> apks) {
+        this.apks = apks;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    public void setOptions(List<String> options) {
+        this.options = options;
+    }
+
+    public String getInstallId() {
+        return installId;
+    }
+
+    public void setInstallId(String installId) {
+        this.installId = installId;
+    }
+
+    public Integer getApk() {
+        return apk;
+    }
+
+    public void setApk(Integer apk) {
+        this.apk = apk;
+    }
+
+    public Boolean getAbort() {
+        return abort;
+    }
+
+    public void setAbort(Boolean abort) {
+        this.abort = abort;
+    }
+
+    public Long getTransferredSize() {
+        return transferredSize;
+    }
+
+    public void setTransferredSize(Long transferredSize) {
+        this.transferredSize = transferredSize;
+    }
+
+    public Long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(Long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * A logcat line sent to the subscribers of {@link AdbLogcatMessage}, parsed from the threadtime format.
+ */
+@XmlType(name = "")
+public class AdbLogcatEntry {
+
+    @XmlElement
+    private Long sequence;
+
+    @XmlElement
+    private String timestamp;
+
+    @XmlElement
+    private Integer pid;
+
+    @XmlElement
+    private Integer tid;
+
+    @XmlElement
+    private String priority;
+
+    @XmlElement
+    private String tag;
+
+    @XmlElement
+    private String message;
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Integer getPid() {
+        return pid;
+    }
+
+    public void setPid(Integer pid) {
+        this.pid = pid;
+    }
+
+    public Integer getTid() {
+        return tid;
+    }
+
+    public void setTid(Integer tid) {
+        this.tid = tid;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbLogcatMessage extends AdbWebsocketMessage {
+
+    // False removes the subscription.
+    @XmlElement
+    private Boolean subscribe = true;
+
+    // Filters, an entry is sent when it matches all that are set.
+    @XmlElement
+    private List<String> tags;
+
+    // Lowest priority sent, one of V, D, I, W, E, F.
+    @XmlElement
+    private String minPriority;
+
+    // Searched for in the message of each entry.
+    @XmlElement
+    private String regex;
+
+    // Set on batches sent to subscribers.
+    @XmlElement
+    private List<AdbLogcatEntry> entries;
+
+    // Entries overwritten in the ring buffer before this subscriber could be sent them.
+    @XmlElement
+    private Long dropped;
+
+    public AdbLogcatMessage() {
+        this(null);
+    }
+
+    public AdbLogcatMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.LOGCAT_SUBSCRIBE, deviceSerial);
+    }
+
+    public Boolean getSubscribe() {
+        return subscribe;
+    }
+
+    public void setSubscribe(Boolean subscribe) {
+        this.subscribe = subscribe;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public String getMinPriority() {
+        return minPriority;
+    }
+
+    public void setMinPriority(String minPriority) {
+        this.minPriority = minPriority;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    public void setRegex(String regex) {
+        this.regex = regex;
+    }
+
+    public List<AdbLogcatEntry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<AdbLogcatEntry> entries) {
+        this.entries = entries;
+    }
+
+    public Long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(Long dropped) {
+        this.dropped = dropped;
+    }
+}
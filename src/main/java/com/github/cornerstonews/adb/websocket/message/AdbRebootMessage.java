@@ -10,7 +10,7 @@ public class AdbRebootMessage extends AdbWebsocketMessage {
     }
 
     public AdbRebootMessage(String deviceSerial) {
-        super(AdbWebsocketMessageType.DIRECTORY_GET, deviceSerial);
+        super(AdbWebsocketMessageType.REBOOT, deviceSerial);
     }
 
 }
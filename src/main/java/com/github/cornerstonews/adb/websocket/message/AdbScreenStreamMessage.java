@@ -0,0 +1,110 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbScreenStreamMessage extends AdbWebsocketMessage {
+
+    public static final String PIXEL_FORMAT_RGBA_8888 = "RGBA_8888";
+
+    // False stops the stream. Starting again restarts it with a key frame.
+    @XmlElement
+    private Boolean start = true;
+
+    @XmlElement
+    private Integer maxFps;
+
+    // Set on frames: the screen size, the tiles carried in the frame data in order and how their pixels are encoded.
+    @XmlElement
+    private Integer width;
+
+    @XmlElement
+    private Integer height;
+
+    @XmlElement
+    private Integer tileSize;
+
+    @XmlElement
+    private List<Integer> tiles;
+
+    @XmlElement
+    private String pixelFormat;
+
+    @XmlElement
+    private Long sequence;
+
+    public AdbScreenStreamMessage() {
+        this(null);
+    }
+
+    public AdbScreenStreamMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.SCREEN_STREAM, deviceSerial);
+    }
+
+    public Boolean getStart() {
+        return start;
+    }
+
+    public void setStart(Boolean start) {
+        this.start = start;
+    }
+
+    public Integer getMaxFps() {
+        return maxFps;
+    }
+
+    public void setMaxFps(Integer maxFps) {
+        this.maxFps = maxFps;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public Integer getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(Integer tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public List<Integer> getTiles() {
+        return tiles;
+    }
+
+    public void setTiles(List<Integer> tiles) {
+        this.tiles = tiles;
+    }
+
+    public String getPixelFormat() {
+        return pixelFormat;
+    }
+
+    public void setPixelFormat(String pixelFormat) {
+        this.pixelFormat = pixelFormat;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+}
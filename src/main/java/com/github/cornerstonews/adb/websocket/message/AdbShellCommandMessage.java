@@ -11,6 +11,20 @@ public class AdbShellCommandMessage extends AdbWebsocketMessage {
     
     @XmlElement
     private String shellCommandOutput;
+
+    // When true the output is sent in chunks as it is produced, followed by a final message with the exit code.
+    @XmlElement
+    private Boolean stream;
+
+    @XmlElement
+    private Long sequence;
+
+    @XmlElement
+    private Integer exitCode;
+
+    // When true an allow-listed read-only command may share the result of an identical command run at the same time.
+    @XmlElement
+    private Boolean coalesce;
     
     public AdbShellCommandMessage() {
         this(null);
@@ -35,5 +49,36 @@ public class AdbShellCommandMessage extends AdbWebsocketMessage {
     public void setShellCommandOutput(String shellCommandOutput) {
         this.shellCommandOutput = shellCommandOutput;
     }
-    
+
+    public Boolean getStream() {
+        return stream;
+    }
+
+    public void setStream(Boolean stream) {
+        this.stream = stream;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public void setExitCode(Integer exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public Boolean getCoalesce() {
+        return coalesce;
+    }
+
+    public void setCoalesce(Boolean coalesce) {
+        this.coalesce = coalesce;
+    }
 }
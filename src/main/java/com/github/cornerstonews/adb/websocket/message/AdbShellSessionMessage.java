@@ -0,0 +1,116 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbShellSessionMessage extends AdbWebsocketMessage {
+
+    public static final String ACTION_OPEN = "OPEN";
+    public static final String ACTION_INPUT = "INPUT";
+    public static final String ACTION_RESIZE = "RESIZE";
+    public static final String ACTION_SIGNAL = "SIGNAL";
+    public static final String ACTION_CLOSE = "CLOSE";
+
+    // One of OPEN, INPUT, RESIZE, SIGNAL or CLOSE. Binary frames carrying keystrokes are INPUT.
+    @XmlElement
+    private String action;
+
+    // Terminal size, set on OPEN and RESIZE.
+    @XmlElement
+    private Integer rows;
+
+    @XmlElement
+    private Integer cols;
+
+    // INT, QUIT, TSTP or EOF, sent to the shell as the control character the terminal maps to it.
+    @XmlElement
+    private String signal;
+
+    // Keystrokes of clients without the binary subprotocol.
+    @XmlElement
+    private String input;
+
+    // Output of the shell for clients without the binary subprotocol, binary clients receive it as frame data.
+    @XmlElement
+    private String output;
+
+    @XmlElement
+    private Long sequence;
+
+    // Set on the last message once the shell exited, null when the exit code is unknown.
+    @XmlElement
+    private Integer exitCode;
+
+    public AdbShellSessionMessage() {
+        this(null);
+    }
+
+    public AdbShellSessionMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.SHELL_SESSION, deviceSerial);
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public Integer getRows() {
+        return rows;
+    }
+
+    public void setRows(Integer rows) {
+        this.rows = rows;
+    }
+
+    public Integer getCols() {
+        return cols;
+    }
+
+    public void setCols(Integer cols) {
+        this.cols = cols;
+    }
+
+    public String getSignal() {
+        return signal;
+    }
+
+    public void setSignal(String signal) {
+        this.signal = signal;
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public void setExitCode(Integer exitCode) {
+        this.exitCode = exitCode;
+    }
+}
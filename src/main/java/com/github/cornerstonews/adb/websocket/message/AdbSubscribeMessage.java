@@ -0,0 +1,55 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlType(name = "") // To remove type field from JSON when class is extends other class.
+public class AdbSubscribeMessage extends AdbWebsocketMessage {
+
+    public static final String EVENT_ADDED = "ADDED";
+    public static final String EVENT_REMOVED = "REMOVED";
+    public static final String EVENT_STATE_CHANGED = "STATE_CHANGED";
+
+    // False removes the subscription.
+    @XmlElement
+    private Boolean subscribe = true;
+
+    // Set on events sent to subscribers, one of ADDED, REMOVED or STATE_CHANGED.
+    @XmlElement
+    private String event;
+
+    @XmlElement
+    private String state;
+
+    public AdbSubscribeMessage() {
+        this(null);
+    }
+
+    public AdbSubscribeMessage(String deviceSerial) {
+        super(AdbWebsocketMessageType.SUBSCRIBE, deviceSerial);
+    }
+
+    public Boolean getSubscribe() {
+        return subscribe;
+    }
+
+    public void setSubscribe(Boolean subscribe) {
+        this.subscribe = subscribe;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public void setEvent(String event) {
+        this.event = event;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+}
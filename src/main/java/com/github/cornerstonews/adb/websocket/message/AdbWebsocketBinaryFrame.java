@@ -0,0 +1,28 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message received in the binary encoding, with the file data sent in the same frame.
+ */
+public class AdbWebsocketBinaryFrame {
+
+    private final AdbWebsocketMessage message;
+    private final ByteBuffer data;
+
+    public AdbWebsocketBinaryFrame(AdbWebsocketMessage message, ByteBuffer data) {
+        this.message = message;
+        this.data = data;
+    }
+
+    public AdbWebsocketMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * @return file data or null when the frame has none
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+}
@@ -7,6 +7,10 @@ public class AdbWebsocketMessage {
     @XmlElement
     private AdbWebsocketMessageType messageType;
 
+    // Optional, set by the client and echoed back in every response to the message.
+    @XmlElement
+    private String requestId;
+
     @XmlElement
     private Integer statusCode;
 
@@ -32,6 +36,14 @@ public class AdbWebsocketMessage {
         this.messageType = messageType;
     }
 
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
     public Integer getStatusCode() {
         return statusCode;
     }
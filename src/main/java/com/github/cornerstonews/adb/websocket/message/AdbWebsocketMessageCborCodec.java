@@ -0,0 +1,678 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.websocket.DecodeException;
+import javax.xml.bind.JAXBException;
+
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Compact binary encoding of {@link AdbWebsocketMessage}, selected by the client with the {@link #SUBPROTOCOL}
+ * websocket subprotocol. A frame is a CBOR (RFC 8949) map with the same fields as the JSON encoding, strings such as
+ * shell output are carried as raw UTF-8 without escaping. File data travels in the same frame as the message it
+ * belongs to, as a byte string under the {@link #DATA_FIELD} key.
+ *
+ * With the {@link #SUBPROTOCOL_COMPRESSED} subprotocol the server may also send a compressed frame, a map with the
+ * {@link #COMPRESSION_FIELD} naming the algorithm and the compressed message frame as byte string under
+ * {@link #PAYLOAD_FIELD}.
+ */
+public abstract class AdbWebsocketMessageCborCodec {
+
+    public static final String SUBPROTOCOL = "adb.cbor.v1";
+    public static final String SUBPROTOCOL_COMPRESSED = "adb.cbor.deflate.v1";
+    public static final String DATA_FIELD = "data";
+    public static final String COMPRESSION_FIELD = "compression";
+    public static final String PAYLOAD_FIELD = "payload";
+    // Byte string header of data read in place, always the 4 byte length form.
+    public static final int DATA_LENGTH_SIZE = 5;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int FLOAT_16 = 25;
+    private static final int FLOAT_32 = 26;
+    private static final int FLOAT_64 = 27;
+
+    private static final int MAX_NESTING = 64;
+
+    public static ByteBuffer encode(AdbWebsocketMessage message) throws JAXBException {
+        return encode(message, null);
+    }
+
+    /**
+     * @param message
+     * @param data    file data sent with the message, or null
+     * @return buffer ready to be sent
+     * @throws JAXBException
+     */
+    public static ByteBuffer encode(AdbWebsocketMessage message, ByteBuffer data) throws JAXBException {
+        Writer writer = new Writer(256 + ((data == null) ? 0 : data.remaining()));
+        writer.writeMessage(message, data != null);
+        if (data != null) {
+            writer.writeHeader(MAJOR_BYTES, data.remaining());
+            writer.write(data.duplicate());
+        }
+        return writer.toByteBuffer();
+    }
+
+    /**
+     * Encodes the message up to its data, for frames whose data is read in place behind the message instead of being
+     * copied into the frame. A frame is the prefix, the data length written with
+     * {@link #putDataLength(ByteBuffer, int, int)} and the data.
+     *
+     * @param message
+     * @return
+     * @throws JAXBException
+     */
+    public static byte[] encodeDataPrefix(AdbWebsocketMessage message) throws JAXBException {
+        Writer writer = new Writer(256);
+        writer.writeMessage(message, true);
+        return Arrays.copyOf(writer.bytes, writer.length);
+    }
+
+    /**
+     * @param frame
+     * @param index  position right after the prefix
+     * @param length of the data, which takes the {@link #DATA_LENGTH_SIZE} bytes after the index
+     */
+    public static void putDataLength(ByteBuffer frame, int index, int length) {
+        frame.put(index, (byte) ((MAJOR_BYTES << 5) | 26));
+        frame.putInt(index + 1, length);
+    }
+
+    /**
+     * @param compression algorithm the payload is compressed with
+     * @param payload     compressed message frame
+     * @return buffer ready to be sent
+     */
+    public static ByteBuffer encodeCompressed(String compression, ByteBuffer payload) {
+        Writer writer = new Writer(32 + payload.remaining());
+        writer.writeHeader(MAJOR_MAP, 2);
+        writer.writeText(COMPRESSION_FIELD);
+        writer.writeText(compression);
+        writer.writeText(PAYLOAD_FIELD);
+        writer.writeHeader(MAJOR_BYTES, payload.remaining());
+        writer.write(payload.duplicate());
+        return writer.toByteBuffer();
+    }
+
+    /**
+     * @param subprotocol negotiated subprotocol of a session
+     * @return true when the subprotocol selects the binary encoding
+     */
+    public static boolean isBinarySubprotocol(String subprotocol) {
+        return SUBPROTOCOL.equals(subprotocol) || SUBPROTOCOL_COMPRESSED.equals(subprotocol);
+    }
+
+    /**
+     * @param frame
+     * @return the message and the file data it carries, the data shares the frame buffer
+     * @throws DecodeException
+     */
+    public static AdbWebsocketBinaryFrame decode(ByteBuffer frame) throws DecodeException {
+        Reader reader = new Reader(frame.duplicate());
+        try {
+            if (reader.peekMajorType() != MAJOR_MAP) {
+                throw new DecodeException(frame, "Message must be a CBOR map.");
+            }
+
+            ByteBuffer data = null;
+            JsonObjectBuilder builder = Json.createObjectBuilder();
+            long size = reader.readLength(MAJOR_MAP);
+            for (long i = 0; i < size; i++) {
+                String key = reader.readText();
+                if (DATA_FIELD.equals(key) && reader.peekMajorType() == MAJOR_BYTES) {
+                    data = reader.readBytes();
+                } else {
+                    builder.add(key, reader.readValue(1));
+                }
+            }
+
+            JsonObject json = builder.build();
+            AdbWebsocketMessageType messageType = toMessageType(json.get("messageType"));
+            Class<? extends AdbWebsocketMessage> messageClass = (messageType == null) ? AdbWebsocketMessage.class : messageType.getMessageClass();
+            return new AdbWebsocketBinaryFrame(JAXBUtils.unmarshalFromJsonStructure(json, messageClass), data);
+        } catch (RuntimeException | JAXBException e) {
+            throw new DecodeException(frame, "Invalid CBOR message: " + e.getMessage(), e);
+        }
+    }
+
+    private static AdbWebsocketMessageType toMessageType(JsonValue value) {
+        if (!(value instanceof JsonString)) {
+            return null;
+        }
+        try {
+            return AdbWebsocketMessageType.valueOf(((JsonString) value).getString());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Streams the marshalled message straight into CBOR. Maps and arrays are opened with a one byte header that is
+     * patched with the entry count when they end, the rare container with 24 or more entries is shifted to make room
+     * for the longer header.
+     */
+    private static class Writer implements JsonGenerator {
+        private byte[] bytes;
+        private int length;
+
+        // Header position and entry count of each open container, the innermost last.
+        private int[] containerStarts = new int[8];
+        private int[] containerSizes = new int[8];
+        private boolean[] containerIsMap = new boolean[8];
+        private int depth;
+        // Entries added to the root map after the marshaller has ended it.
+        private int rootExtraEntries;
+
+        private Writer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * Writes the message fields, followed by the data key when the message carries data.
+         */
+        private void writeMessage(AdbWebsocketMessage message, boolean withData) throws JAXBException {
+            rootExtraEntries = withData ? 1 : 0;
+            JAXBUtils.marshalToJsonGenerator(message, this);
+            if (depth != 0) {
+                throw new JAXBException("Message was not completely marshalled.");
+            }
+            if (withData) {
+                writeText(DATA_FIELD);
+            }
+        }
+
+        @Override
+        public JsonGenerator writeStartObject() {
+            return startContainer(true);
+        }
+
+        @Override
+        public JsonGenerator writeStartObject(String name) {
+            writeKey(name);
+            return startContainer(true);
+        }
+
+        @Override
+        public JsonGenerator writeKey(String name) {
+            containerSizes[depth - 1]++;
+            writeText(name);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator writeStartArray() {
+            return startContainer(false);
+        }
+
+        @Override
+        public JsonGenerator writeStartArray(String name) {
+            writeKey(name);
+            return startContainer(false);
+        }
+
+        @Override
+        public JsonGenerator write(String name, JsonValue value) {
+            writeKey(name);
+            writeValue(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, String value) {
+            writeKey(name);
+            writeText(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, BigInteger value) {
+            writeKey(name);
+            writeNumber(new BigDecimal(value));
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, BigDecimal value) {
+            writeKey(name);
+            writeNumber(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, int value) {
+            writeKey(name);
+            writeInteger(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, long value) {
+            writeKey(name);
+            writeInteger(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, double value) {
+            writeKey(name);
+            writeDouble(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String name, boolean value) {
+            writeKey(name);
+            writeByte((MAJOR_SIMPLE << 5) | (value ? SIMPLE_TRUE : SIMPLE_FALSE));
+            return this;
+        }
+
+        @Override
+        public JsonGenerator writeNull(String name) {
+            writeKey(name);
+            writeByte((MAJOR_SIMPLE << 5) | SIMPLE_NULL);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator writeEnd() {
+            if (depth == 0) {
+                throw new IllegalStateException("No open object or array to end.");
+            }
+            depth--;
+            int start = containerStarts[depth];
+            int size = containerSizes[depth] + ((depth == 0) ? rootExtraEntries : 0);
+            int majorType = containerIsMap[depth] ? MAJOR_MAP : MAJOR_ARRAY;
+            if (size < 24) {
+                bytes[start] = (byte) ((majorType << 5) | size);
+                return this;
+            }
+
+            // Make room for the longer header and write it over the placeholder.
+            int headerSize = (size <= 0xff) ? 2 : (size <= 0xffff) ? 3 : 5;
+            ensureCapacity(headerSize - 1);
+            System.arraycopy(bytes, start + 1, bytes, start + headerSize, length - start - 1);
+            int end = length + headerSize - 1;
+            length = start;
+            writeHeader(majorType, size);
+            length = end;
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(JsonValue value) {
+            countValue();
+            writeValue(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(String value) {
+            countValue();
+            writeText(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(BigDecimal value) {
+            countValue();
+            writeNumber(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(BigInteger value) {
+            countValue();
+            writeNumber(new BigDecimal(value));
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(int value) {
+            countValue();
+            writeInteger(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(long value) {
+            countValue();
+            writeInteger(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(double value) {
+            countValue();
+            writeDouble(value);
+            return this;
+        }
+
+        @Override
+        public JsonGenerator write(boolean value) {
+            countValue();
+            writeByte((MAJOR_SIMPLE << 5) | (value ? SIMPLE_TRUE : SIMPLE_FALSE));
+            return this;
+        }
+
+        @Override
+        public JsonGenerator writeNull() {
+            countValue();
+            writeByte((MAJOR_SIMPLE << 5) | SIMPLE_NULL);
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        private JsonGenerator startContainer(boolean isMap) {
+            if (depth > 0 && !containerIsMap[depth - 1]) {
+                containerSizes[depth - 1]++;
+            }
+            if (depth == containerStarts.length) {
+                containerStarts = Arrays.copyOf(containerStarts, depth * 2);
+                containerSizes = Arrays.copyOf(containerSizes, depth * 2);
+                containerIsMap = Arrays.copyOf(containerIsMap, depth * 2);
+            }
+            containerStarts[depth] = length;
+            containerSizes[depth] = 0;
+            containerIsMap[depth] = isMap;
+            depth++;
+            // Placeholder, replaced by writeEnd once the size is known.
+            writeByte(0);
+            return this;
+        }
+
+        /**
+         * Values in an array are counted here, values in a map are counted with their key.
+         */
+        private void countValue() {
+            if (depth > 0 && !containerIsMap[depth - 1]) {
+                containerSizes[depth - 1]++;
+            }
+        }
+
+        private void writeValue(JsonValue value) {
+            switch (value.getValueType()) {
+                case OBJECT:
+                    JsonObject object = (JsonObject) value;
+                    writeHeader(MAJOR_MAP, object.size());
+                    for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+                        writeText(entry.getKey());
+                        writeValue(entry.getValue());
+                    }
+                    break;
+
+                case ARRAY:
+                    JsonArray array = (JsonArray) value;
+                    writeHeader(MAJOR_ARRAY, array.size());
+                    for (JsonValue element : array) {
+                        writeValue(element);
+                    }
+                    break;
+
+                case STRING:
+                    writeText(((JsonString) value).getString());
+                    break;
+
+                case NUMBER:
+                    writeNumber(((JsonNumber) value).bigDecimalValue());
+                    break;
+
+                case TRUE:
+                    writeByte((MAJOR_SIMPLE << 5) | SIMPLE_TRUE);
+                    break;
+
+                case FALSE:
+                    writeByte((MAJOR_SIMPLE << 5) | SIMPLE_FALSE);
+                    break;
+
+                default:
+                    writeByte((MAJOR_SIMPLE << 5) | SIMPLE_NULL);
+                    break;
+            }
+        }
+
+        private void writeNumber(BigDecimal number) {
+            if (number.scale() == 0) {
+                try {
+                    writeInteger(number.longValueExact());
+                    return;
+                } catch (ArithmeticException e) {
+                    // Larger than a long, sent as a double.
+                }
+            }
+            writeDouble(number.doubleValue());
+        }
+
+        private void writeInteger(long value) {
+            if (value >= 0) {
+                writeHeader(MAJOR_UNSIGNED, value);
+            } else {
+                writeHeader(MAJOR_NEGATIVE, -1 - value);
+            }
+        }
+
+        private void writeDouble(double value) {
+            writeByte((MAJOR_SIMPLE << 5) | FLOAT_64);
+            ensureCapacity(8);
+            ByteBuffer.wrap(bytes, length, 8).putDouble(value);
+            length += 8;
+        }
+
+        private void writeText(String text) {
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            writeHeader(MAJOR_TEXT, utf8.length);
+            write(ByteBuffer.wrap(utf8));
+        }
+
+        private void writeHeader(int majorType, long value) {
+            int type = majorType << 5;
+            if (value < 24) {
+                writeByte(type | (int) value);
+            } else if (value <= 0xff) {
+                writeByte(type | 24);
+                writeByte((int) value);
+            } else if (value <= 0xffff) {
+                writeByte(type | 25);
+                writeByte((int) (value >>> 8));
+                writeByte((int) value);
+            } else if (value <= 0xffffffffL) {
+                writeByte(type | 26);
+                ensureCapacity(4);
+                ByteBuffer.wrap(bytes, length, 4).putInt((int) value);
+                length += 4;
+            } else {
+                writeByte(type | 27);
+                ensureCapacity(8);
+                ByteBuffer.wrap(bytes, length, 8).putLong(value);
+                length += 8;
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) value;
+        }
+
+        private void write(ByteBuffer data) {
+            int size = data.remaining();
+            ensureCapacity(size);
+            data.get(bytes, length, size);
+            length += size;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer buffer;
+
+        private Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int peekMajorType() {
+            return (buffer.get(buffer.position()) & 0xff) >>> 5;
+        }
+
+        private JsonValue readValue(int nesting) {
+            if (nesting > MAX_NESTING) {
+                throw new IllegalArgumentException("Message is nested too deeply.");
+            }
+
+            int initialByte = buffer.get(buffer.position()) & 0xff;
+            int majorType = initialByte >>> 5;
+            switch (majorType) {
+                case MAJOR_UNSIGNED:
+                    return Json.createValue(readUnsigned(readLength(MAJOR_UNSIGNED)));
+                case MAJOR_NEGATIVE:
+                    return Json.createValue(-1 - readUnsigned(readLength(MAJOR_NEGATIVE)));
+                case MAJOR_TEXT:
+                    return Json.createValue(readText());
+                case MAJOR_BYTES:
+                    throw new IllegalArgumentException("Byte strings are only allowed for the data field.");
+                case MAJOR_ARRAY:
+                    JsonArrayBuilder array = Json.createArrayBuilder();
+                    long arraySize = readLength(MAJOR_ARRAY);
+                    for (long i = 0; i < arraySize; i++) {
+                        array.add(readValue(nesting + 1));
+                    }
+                    return array.build();
+                case MAJOR_MAP:
+                    JsonObjectBuilder object = Json.createObjectBuilder();
+                    long mapSize = readLength(MAJOR_MAP);
+                    for (long i = 0; i < mapSize; i++) {
+                        object.add(readText(), readValue(nesting + 1));
+                    }
+                    return object.build();
+                default:
+                    return readSimple();
+            }
+        }
+
+        private JsonValue readSimple() {
+            int additionalInfo = buffer.get() & 0x1f;
+            switch (additionalInfo) {
+                case SIMPLE_FALSE:
+                    return JsonValue.FALSE;
+                case SIMPLE_TRUE:
+                    return JsonValue.TRUE;
+                case SIMPLE_NULL:
+                    return JsonValue.NULL;
+                case FLOAT_16:
+                    return Json.createValue(BigDecimal.valueOf(halfToFloat(buffer.getShort())));
+                case FLOAT_32:
+                    return Json.createValue(BigDecimal.valueOf(buffer.getFloat()));
+                case FLOAT_64:
+                    return Json.createValue(BigDecimal.valueOf(buffer.getDouble()));
+                default:
+                    throw new IllegalArgumentException("Unsupported CBOR simple value: " + additionalInfo);
+            }
+        }
+
+        private String readText() {
+            ByteBuffer text = readBytes(MAJOR_TEXT);
+            return StandardCharsets.UTF_8.decode(text).toString();
+        }
+
+        private ByteBuffer readBytes() {
+            return readBytes(MAJOR_BYTES);
+        }
+
+        private ByteBuffer readBytes(int majorType) {
+            long size = readLength(majorType);
+            if (size > buffer.remaining()) {
+                throw new IllegalArgumentException("Truncated message.");
+            }
+            ByteBuffer bytes = buffer.slice();
+            bytes.limit((int) size);
+            buffer.position(buffer.position() + (int) size);
+            return bytes;
+        }
+
+        /**
+         * Reads the header of the next item, indefinite lengths are not supported.
+         */
+        private long readLength(int expectedMajorType) {
+            int initialByte = buffer.get() & 0xff;
+            if (initialByte >>> 5 != expectedMajorType) {
+                throw new IllegalArgumentException("Unexpected CBOR major type " + (initialByte >>> 5) + ", expected " + expectedMajorType);
+            }
+
+            int additionalInfo = initialByte & 0x1f;
+            if (additionalInfo < 24) {
+                return additionalInfo;
+            }
+            switch (additionalInfo) {
+                case 24:
+                    return buffer.get() & 0xff;
+                case 25:
+                    return buffer.getShort() & 0xffff;
+                case 26:
+                    return buffer.getInt() & 0xffffffffL;
+                case 27:
+                    long value = buffer.getLong();
+                    if (value < 0 && expectedMajorType != MAJOR_UNSIGNED && expectedMajorType != MAJOR_NEGATIVE) {
+                        throw new IllegalArgumentException("Length too large.");
+                    }
+                    return value;
+                default:
+                    throw new IllegalArgumentException("Unsupported CBOR length encoding: " + additionalInfo);
+            }
+        }
+
+        private static long readUnsigned(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Integer too large.");
+            }
+            return value;
+        }
+
+        private static float halfToFloat(short half) {
+            int exponent = (half >>> 10) & 0x1f;
+            int mantissa = half & 0x3ff;
+            float value = (exponent == 0) ? mantissa * (float) Math.pow(2, -24)
+                    : (exponent == 31) ? ((mantissa == 0) ? Float.POSITIVE_INFINITY : Float.NaN)
+                    : (float) Math.pow(2, exponent - 15) * (1 + mantissa / 1024f);
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+}
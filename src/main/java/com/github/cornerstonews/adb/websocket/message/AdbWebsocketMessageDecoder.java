@@ -0,0 +1,99 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import java.io.StringReader;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.EndpointConfig;
+import javax.xml.bind.JAXBException;
+
+import com.github.cornerstonews.util.JAXBUtils;
+
+/**
+ * Decodes a text frame into the concrete {@link AdbWebsocketMessage} subclass in a single pass. The messageType is
+ * peeked with a streaming parser, which stops as soon as the field is found, and the frame is then bound directly to
+ * the class registered for that type in {@link AdbWebsocketMessageType}.
+ */
+public class AdbWebsocketMessageDecoder implements Decoder.Text<AdbWebsocketMessage> {
+
+    private static final String MESSAGE_TYPE_FIELD = "messageType";
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+
+    @Override
+    public void init(EndpointConfig config) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public AdbWebsocketMessage decode(String message) throws DecodeException {
+        if (message == null || message.isEmpty()) {
+            throw new DecodeException(message, "Message must be provided to decode.");
+        }
+
+        try {
+            AdbWebsocketMessageType messageType = readMessageType(message);
+            Class<? extends AdbWebsocketMessage> messageClass = (messageType == null) ? AdbWebsocketMessage.class : messageType.getMessageClass();
+            return JAXBUtils.unmarshalFromJSON(message, messageClass);
+        } catch (JsonParsingException | JAXBException e) {
+            throw new DecodeException(message, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean willDecode(String message) {
+        return message != null && !message.isEmpty();
+    }
+
+    /**
+     * Reads the top level messageType without building the JSON tree.
+     *
+     * @param message
+     * @return message type or null when it is missing or unknown
+     */
+    static AdbWebsocketMessageType readMessageType(String message) {
+        try (JsonParser parser = PARSER_FACTORY.createParser(new StringReader(message))) {
+            int depth = 0;
+            while (parser.hasNext()) {
+                Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        break;
+
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+
+                    case KEY_NAME:
+                        if (depth == 1 && MESSAGE_TYPE_FIELD.equals(parser.getString())) {
+                            return (parser.next() == Event.VALUE_STRING) ? toMessageType(parser.getString()) : null;
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static AdbWebsocketMessageType toMessageType(String value) {
+        try {
+            return AdbWebsocketMessageType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
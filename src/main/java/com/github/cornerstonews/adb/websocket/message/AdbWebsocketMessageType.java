@@ -2,14 +2,48 @@ package com.github.cornerstonews.adb.websocket.message;
 
 public enum AdbWebsocketMessageType {
 
-	DEVICES_GET,
+	DEVICES_GET(AdbDevicesGetMessage.class),
 	
-    AUTH,
-    DIRECTORY_GET,
-    FILE_PUSH,
-    FILE_PULL,
-    REBOOT,
-    SHELL_COMMAND,
-    STATUS,
+    AUTH(AdbAuthMessage.class),
+    DIRECTORY_GET(AdbDirectoryGetMessage.class),
+    FILE_PUSH(AdbFilePushMessage.class),
+    FILE_PULL(AdbFilePullMessage.class),
+    REBOOT(AdbRebootMessage.class),
+    SHELL_COMMAND(AdbShellCommandMessage.class),
+    STATUS(AdbStatusMessage.class),
+    SUBSCRIBE(AdbSubscribeMessage.class),
+    BATCH(AdbBatchMessage.class),
+    SCREEN_STREAM(AdbScreenStreamMessage.class),
+    LOGCAT_SUBSCRIBE(AdbLogcatMessage.class),
+    SHELL_SESSION(AdbShellSessionMessage.class),
+    FORWARD_OPEN(AdbForwardOpenMessage.class),
+    FORWARD(AdbForwardMessage.class),
+    INSTALL(AdbInstallMessage.class),
 
+    ;
+
+    private final Class<? extends AdbWebsocketMessage> messageClass;
+
+    private AdbWebsocketMessageType(Class<? extends AdbWebsocketMessage> messageClass) {
+        this.messageClass = messageClass;
+    }
+
+    public Class<? extends AdbWebsocketMessage> getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * Every class that can be sent or received on the websocket, used to warm up the JAXB contexts at startup.
+     *
+     * @return
+     */
+    public static Class<?>[] getMessageClasses() {
+        AdbWebsocketMessageType[] types = values();
+        Class<?>[] classes = new Class<?>[types.length + 1];
+        classes[0] = AdbWebsocketMessage.class;
+        for (int i = 0; i < types.length; i++) {
+            classes[i + 1] = types[i].getMessageClass();
+        }
+        return classes;
+    }
 }
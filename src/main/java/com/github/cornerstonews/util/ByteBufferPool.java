@@ -0,0 +1,37 @@
+package com.github.cornerstonews.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of direct buffers of a fixed size. Direct buffers are expensive to allocate and are only released by the
+ * garbage collector, so they are reused for file and stream transfers instead of allocating one per transfer.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return (buffer == null) ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
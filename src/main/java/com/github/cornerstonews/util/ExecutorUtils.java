@@ -0,0 +1,38 @@
+package com.github.cornerstonews.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public abstract class ExecutorUtils {
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task when the runtime supports it (Java 21+).
+     * Older runtimes get a cached pool of daemon threads, which grows and shrinks with the number of running tasks.
+     *
+     * @param threadNamePrefix used for platform threads when virtual threads are not available
+     * @return
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String threadNamePrefix) {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (Throwable t) {
+            return Executors.newCachedThreadPool(newDaemonThreadFactory(threadNamePrefix));
+        }
+    }
+
+    public static ThreadFactory newDaemonThreadFactory(String threadNamePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
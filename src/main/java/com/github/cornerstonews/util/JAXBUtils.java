@@ -3,9 +3,13 @@ package com.github.cornerstonews.util;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.json.JsonStructure;
+import javax.json.stream.JsonGenerator;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -16,14 +20,21 @@ import javax.xml.transform.stream.StreamSource;
 import org.eclipse.persistence.jaxb.JAXBContextFactory;
 import org.eclipse.persistence.jaxb.MarshallerProperties;
 import org.eclipse.persistence.oxm.XMLConstants;
+import org.eclipse.persistence.oxm.json.JsonGeneratorResult;
+import org.eclipse.persistence.oxm.json.JsonStructureSource;
 
 
 
 public abstract class JAXBUtils {
 
-    private final static Map<Class<?>, JAXBContext> contextMap = new HashMap<>();
+    private final static Map<Class<?>, JAXBContext> contextMap = new ConcurrentHashMap<>();
+    private final static Map<JAXBContext, Queue<Marshaller>> marshallerPool = new ConcurrentHashMap<>();
+    private final static Map<JAXBContext, Queue<Unmarshaller>> unmarshallerPool = new ConcurrentHashMap<>();
     private final static String APPLICATION_JSON = "application/json";
 
+    // Marshallers are not thread safe, keep a small number of idle ones per context and drop the rest.
+    private final static int MAX_POOLED_PER_CONTEXT = 32;
+
     public static String marshalToJSON(Object jaxbElement) throws JAXBException {
 
         return marshalToJSON(jaxbElement, false);
@@ -44,16 +55,20 @@ public abstract class JAXBUtils {
             jaxbContext = getContext(jaxbElement.getClass());
         }
 
-        Marshaller marshaller = jaxbContext.createMarshaller();
-        marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, APPLICATION_JSON);
-        marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, Boolean.FALSE);
-        marshaller.setProperty(MarshallerProperties.JSON_NAMESPACE_SEPARATOR, XMLConstants.DOT);
+        StringWriter writer = new StringWriter();
         if (formattedOutput) {
+            Marshaller marshaller = createMarshaller(jaxbContext);
             marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            marshaller.marshal(jaxbElement, writer);
+            return writer.toString();
         }
 
-        StringWriter writer = new StringWriter();
+        Marshaller marshaller = acquire(marshallerPool, jaxbContext);
+        if (marshaller == null) {
+            marshaller = createMarshaller(jaxbContext);
+        }
         marshaller.marshal(jaxbElement, writer);
+        release(marshallerPool, jaxbContext, marshaller);
         return writer.toString();
     }
 
@@ -72,26 +87,132 @@ public abstract class JAXBUtils {
             ctx = getContext(expectedType);
         }
 
-        Unmarshaller unmarshaller = ctx.createUnmarshaller();
-        unmarshaller.setProperty(MarshallerProperties.MEDIA_TYPE, APPLICATION_JSON);
-        unmarshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, Boolean.FALSE);
+        Unmarshaller unmarshaller = acquire(unmarshallerPool, ctx);
+        if (unmarshaller == null) {
+            unmarshaller = createUnmarshaller(ctx);
+        }
 
         Reader reader = new StringReader(jsonObjectString);
         StreamSource source = new StreamSource(reader);
 
         JAXBElement<T> jaxbElement = unmarshaller.unmarshal(source, expectedType);
+        release(unmarshallerPool, ctx, unmarshaller);
         return jaxbElement.getValue();
+    }
 
+    /**
+     * Marshals to a streaming generator instead of text, used by the binary encodings.
+     *
+     * @param jaxbElement
+     * @param generator
+     * @throws JAXBException
+     */
+    public static void marshalToJsonGenerator(Object jaxbElement, JsonGenerator generator) throws JAXBException {
+        if (jaxbElement == null) {
+            throw new JAXBException("Object must be provided to marshal to JSON");
+        }
+
+        JAXBContext jaxbContext = getContext(jaxbElement.getClass());
+        Marshaller marshaller = acquire(marshallerPool, jaxbContext);
+        if (marshaller == null) {
+            marshaller = createMarshaller(jaxbContext);
+        }
+
+        marshaller.marshal(jaxbElement, new JsonGeneratorResult(generator));
+        release(marshallerPool, jaxbContext, marshaller);
+    }
+
+    public static <T> T unmarshalFromJsonStructure(JsonStructure json, Class<T> expectedType) throws JAXBException {
+        if (json == null) {
+            throw new JAXBException("JSON must be provided to unmarshal.");
+        }
+
+        JAXBContext ctx = getContext(expectedType);
+        Unmarshaller unmarshaller = acquire(unmarshallerPool, ctx);
+        if (unmarshaller == null) {
+            unmarshaller = createUnmarshaller(ctx);
+        }
+
+        JAXBElement<T> jaxbElement = unmarshaller.unmarshal(new JsonStructureSource(json), expectedType);
+        release(unmarshallerPool, ctx, unmarshaller);
+        return jaxbElement.getValue();
+    }
+
+    /**
+     * Eagerly creates and caches the contexts for given types so the first message of each type does not pay the MOXy
+     * context creation cost.
+     *
+     * @param types
+     * @throws JAXBException
+     */
+    public static void preloadContexts(Class<?>... types) throws JAXBException {
+        for (Class<?> type : types) {
+            JAXBContext context = getContext(type);
+            release(marshallerPool, context, createMarshaller(context));
+            release(unmarshallerPool, context, createUnmarshaller(context));
+        }
     }
 
     private static <T> JAXBContext getContext(Class<T> type) throws JAXBException {
-        if (!contextMap.containsKey(type)) {
-            contextMap.put(type, JAXBContextFactory.createContext(new Class[] { type }, null));
+        JAXBContext context = contextMap.get(type);
+        if (context != null) {
+            return context;
+        }
+
+        try {
+            return contextMap.computeIfAbsent(type, key -> {
+                try {
+                    JAXBContext created = JAXBContextFactory.createContext(new Class[] { key }, null);
+                    marshallerPool.put(created, new ArrayBlockingQueue<>(MAX_POOLED_PER_CONTEXT));
+                    unmarshallerPool.put(created, new ArrayBlockingQueue<>(MAX_POOLED_PER_CONTEXT));
+                    return created;
+                } catch (JAXBException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Marshaller createMarshaller(JAXBContext jaxbContext) throws JAXBException {
+        Marshaller marshaller = jaxbContext.createMarshaller();
+        marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, APPLICATION_JSON);
+        marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, Boolean.FALSE);
+        marshaller.setProperty(MarshallerProperties.JSON_NAMESPACE_SEPARATOR, XMLConstants.DOT);
+        return marshaller;
+    }
+
+    private static Unmarshaller createUnmarshaller(JAXBContext jaxbContext) throws JAXBException {
+        Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+        unmarshaller.setProperty(MarshallerProperties.MEDIA_TYPE, APPLICATION_JSON);
+        unmarshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, Boolean.FALSE);
+        return unmarshaller;
+    }
+
+    private static <M> M acquire(Map<JAXBContext, Queue<M>> pool, JAXBContext jaxbContext) {
+        Queue<M> queue = pool.get(jaxbContext);
+        return (queue == null) ? null : queue.poll();
+    }
+
+    /**
+     * Returns an instance to the pool after a successful call. One that threw may have been left half way through a
+     * document and is dropped instead.
+     */
+    private static <M> void release(Map<JAXBContext, Queue<M>> pool, JAXBContext jaxbContext, M instance) {
+        // Only contexts created by getContext have a pool, caller supplied contexts are never retained.
+        Queue<M> queue = pool.get(jaxbContext);
+        if (queue != null) {
+            queue.offer(instance);
         }
-        return contextMap.get(type);
     }
 
     public static void clearJAXBContexts() {
         contextMap.clear();
+        marshallerPool.clear();
+        unmarshallerPool.clear();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package com.github.cornerstonews.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations with power of two microsecond buckets. Recording is a couple of adds, percentiles are
+ * approximate and report the upper bound of the bucket they fall in, which is within a factor of two.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos) / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(Math.max(0, nanos));
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public double getMeanNanos() {
+        long samples = count.sum();
+        return (samples == 0) ? 0 : (double) totalNanos.sum() / samples;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound in nanoseconds of the bucket the percentile falls in, 0 when nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long samples = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            samples += counts[i];
+        }
+        if (samples == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(samples * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return (1L << i) * 1000;
+            }
+        }
+        return (1L << (BUCKETS - 1)) * 1000;
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.cornerstonews.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Cache whose entries expire a fixed time after they were loaded. When the cache grows past its maximum size, expired
+ * entries are dropped first and then the entries that expire soonest. Null values are never cached.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class TtlCache<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<K, V, E extends Exception> {
+        V load(K key) throws E;
+    }
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // Generation of each key, a value is only cached if the generation of its key did not change while it was loaded.
+    // Invalidations set a new generation from the clock, so an invalidated key never gets an earlier generation back.
+    private final Map<K, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    private volatile long ttlMillis;
+    private volatile int maxSize;
+
+    public TtlCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached value or loads it. A TTL of 0 or less disables the cache.
+     *
+     * @param key
+     * @param loader
+     * @return
+     * @throws E when the loader fails, failures are not cached
+     */
+    public <E extends Exception> V get(K key, Loader<? super K, ? extends V, E> loader) throws E {
+        V value = getIfPresent(key);
+        if (value == null) {
+            long loadGeneration = getGeneration(key);
+            value = loader.load(key);
+            put(key, value, loadGeneration);
+        }
+        return value;
+    }
+
+    /**
+     * For loaders throwing more than one exception type, a miss is followed by {@link #put(Object, Object, long)}.
+     *
+     * @param key
+     * @return cached value or null
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param key
+     * @return generation of the key to pass to {@link #put(Object, Object, long)}, read before loading the value
+     */
+    public long getGeneration(K key) {
+        if (generations.size() > maxSize * 2) {
+            pruneGenerations();
+        }
+        return generations.computeIfAbsent(key, k -> clock.get());
+    }
+
+    /**
+     * Caches a loaded value, unless its key was invalidated while it was loaded.
+     *
+     * @param key
+     * @param value
+     * @param loadGeneration
+     */
+    public void put(K key, V value, long loadGeneration) {
+        if (value == null || ttlMillis <= 0 || !isGeneration(key, loadGeneration)) {
+            return;
+        }
+
+        Entry<V> loaded = new Entry<>(value, System.nanoTime() + ttlMillis * 1_000_000);
+        entries.put(key, loaded);
+        if (!isGeneration(key, loadGeneration)) {
+            entries.remove(key, loaded);
+        } else if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    private boolean isGeneration(K key, long loadGeneration) {
+        return Objects.equals(generations.get(key), loadGeneration);
+    }
+
+    public void invalidate(K key) {
+        generations.put(key, clock.incrementAndGet());
+        entries.remove(key);
+    }
+
+    /**
+     * Invalidates the cached keys and the keys being loaded that match the predicate.
+     *
+     * @param predicate
+     */
+    public void invalidateIf(Predicate<? super K> predicate) {
+        long invalidated = clock.incrementAndGet();
+        generations.replaceAll((key, keyGeneration) -> predicate.test(key) ? invalidated : keyGeneration);
+        entries.keySet().removeIf(predicate);
+    }
+
+    public void invalidateAll() {
+        // Keys being loaded get a new generation from the clock when they are loaded again.
+        clock.incrementAndGet();
+        generations.clear();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Drops the generations of keys that are not cached, a load of such a key that is still running is not cached.
+     */
+    private synchronized void pruneGenerations() {
+        generations.keySet().removeIf(key -> !entries.containsKey(key));
+    }
+
+    private synchronized void evict() {
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(mapEntry -> {
+            boolean expired = mapEntry.getValue().expiresAt - now <= 0;
+            if (expired) {
+                evictions.increment();
+            }
+            return expired;
+        });
+
+        while (entries.size() > maxSize) {
+            Map.Entry<K, Entry<V>> oldest = null;
+            for (Map.Entry<K, Entry<V>> mapEntry : entries.entrySet()) {
+                if (oldest == null || mapEntry.getValue().expiresAt - oldest.getValue().expiresAt < 0) {
+                    oldest = mapEntry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            if (entries.remove(oldest.getKey(), oldest.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.cornerstonews.adb.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.cornerstonews.adb.websocket.AdbDeviceScheduler.CommandClass;
+import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbShellCommandMessage;
+
+public class AdbDeviceSchedulerTest {
+
+    // Commands handed to the executor, run by the test one at a time.
+    private final Queue<Runnable> started = new ArrayDeque<>();
+    private final Executor executor = started::add;
+    private final List<String> ran = new ArrayList<>();
+
+    private String deviceSerial;
+    private int shellConcurrency;
+    private int maxQueuedPerDevice;
+
+    @BeforeEach
+    public void setUp() {
+        // The queues are static, each test uses its own device.
+        deviceSerial = UUID.randomUUID().toString();
+        shellConcurrency = AdbDeviceScheduler.getMaxConcurrency(CommandClass.SHELL);
+        maxQueuedPerDevice = AdbDeviceScheduler.getMaxQueuedPerDevice();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, shellConcurrency);
+        AdbDeviceScheduler.setMaxQueuedPerDevice(maxQueuedPerDevice);
+    }
+
+    @Test
+    public void testSessionsTakeTurns() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, 1);
+        Object first = new Object();
+        Object second = new Object();
+        for (int i = 1; i <= 4; i++) {
+            submit(CommandClass.SHELL, first, "first-" + i);
+        }
+        submit(CommandClass.SHELL, second, "second-1");
+
+        assertEquals(1, started.size());
+        runAll();
+        assertEquals(List.of("first-1", "first-2", "second-1", "first-3", "first-4"), ran);
+    }
+
+    @Test
+    public void testConcurrencyLimitPerClass() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, 2);
+        Object owner = new Object();
+        for (int i = 0; i < 5; i++) {
+            submit(CommandClass.SHELL, owner, "shell");
+        }
+        submit(CommandClass.SYNC, owner, "sync");
+
+        assertEquals(2, AdbDeviceScheduler.getRunningCount(deviceSerial, CommandClass.SHELL));
+        assertEquals(1, AdbDeviceScheduler.getRunningCount(deviceSerial, CommandClass.SYNC));
+        assertEquals(3, AdbDeviceScheduler.getQueuedCount(deviceSerial));
+
+        runAll();
+        assertEquals(6, ran.size());
+        assertEquals(0, AdbDeviceScheduler.getRunningCount(deviceSerial, CommandClass.SHELL));
+        assertEquals(0, AdbDeviceScheduler.getQueuedCount(deviceSerial));
+    }
+
+    @Test
+    public void testStreamedCommandsDoNotHoldShellSlots() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, 1);
+        AdbShellCommandMessage streamed = new AdbShellCommandMessage("serial");
+        streamed.setStream(true);
+        assertEquals(CommandClass.STREAM, AdbDeviceScheduler.getCommandClass(streamed));
+        assertEquals(CommandClass.STREAM, AdbDeviceScheduler.getCommandClass(new AdbDirectoryGetMessage("serial")));
+        assertEquals(CommandClass.SHELL, AdbDeviceScheduler.getCommandClass(new AdbShellCommandMessage("serial")));
+
+        Object owner = new Object();
+        submit(AdbDeviceScheduler.getCommandClass(streamed), owner, "streamed");
+        submit(CommandClass.SHELL, owner, "shell");
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, 1);
+        AdbDeviceScheduler.setMaxQueuedPerDevice(2);
+        Object owner = new Object();
+        submit(CommandClass.SHELL, owner, "running");
+        submit(CommandClass.SHELL, owner, "queued-1");
+        submit(CommandClass.SHELL, owner, "queued-2");
+
+        long rejected = AdbDeviceScheduler.getRejectedCount();
+        assertThrows(RejectedExecutionException.class, () -> submit(CommandClass.SHELL, owner, "rejected"));
+        assertEquals(rejected + 1, AdbDeviceScheduler.getRejectedCount());
+    }
+
+    @Test
+    public void testLaterRejectionIsReported() {
+        AdbDeviceScheduler.setMaxConcurrency(CommandClass.SHELL, 1);
+        Object owner = new Object();
+        submit(CommandClass.SHELL, owner, "running");
+        List<String> rejected = new ArrayList<>();
+        AdbDeviceScheduler.execute(deviceSerial, CommandClass.SHELL, owner, command -> {
+            throw new RejectedExecutionException("Executor shut down.");
+        }, () -> ran.add("queued"), e -> rejected.add(e.getMessage()));
+
+        // Started, and rejected, on the thread of the command that frees the slot.
+        assertTrue(rejected.isEmpty());
+        runAll();
+        assertEquals(List.of("running"), ran);
+        assertEquals(List.of("Executor shut down."), rejected);
+        assertEquals(0, AdbDeviceScheduler.getQueuedCount(deviceSerial));
+    }
+
+    @Test
+    public void testIdleDeviceQueueIsRemoved() {
+        Object owner = new Object();
+        submit(CommandClass.SHELL, owner, "shell");
+        assertTrue(AdbDeviceScheduler.getQueuedCounts().containsKey(deviceSerial));
+
+        runAll();
+        assertFalse(AdbDeviceScheduler.getQueuedCounts().containsKey(deviceSerial));
+
+        // A new command gets a new queue.
+        submit(CommandClass.SHELL, owner, "again");
+        runAll();
+        assertEquals(List.of("shell", "again"), ran);
+    }
+
+    private void submit(CommandClass commandClass, Object owner, String name) {
+        AdbDeviceScheduler.execute(deviceSerial, commandClass, owner, executor, () -> ran.add(name), e -> ran.add("rejected " + name));
+    }
+
+    private void runAll() {
+        Runnable command;
+        while ((command = started.poll()) != null) {
+            command.run();
+        }
+    }
+}
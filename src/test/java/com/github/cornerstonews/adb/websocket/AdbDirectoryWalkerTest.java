@@ -0,0 +1,147 @@
+package com.github.cornerstonews.adb.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.Test;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.github.cornerstonews.adb.websocket.message.AdbDirectoryGetMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbFileEntry;
+
+public class AdbDirectoryWalkerTest {
+
+    // Output of the commands the fake device answers, anything else is denied like /data on a device that is not rooted.
+    private static final Map<String, String> OUTPUTS = Map.of(
+            "ls -l -d /data/local/tmp", "drwxrwx--x 3 shell shell 4096 2026-10-17 12:34 /data/local/tmp\n",
+            "ls -l /data/local/tmp/", "total 8\n"
+                    + "-rw-rw-rw- 1 shell shell 12 2026-10-17 12:34 a.txt\n"
+                    + "lrwxrwxrwx 1 shell shell 3 2026-10-17 12:34 logs -> dir\n",
+            "ls -l -d /data/local/tmp/logs/", "drwxrwx--x 2 shell shell 4096 2026-10-17 12:34 /data/local/tmp/logs/\n");
+
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testWalkDoesNotListAncestors() throws Exception {
+        AdbDirectoryGetMessage request = new AdbDirectoryGetMessage("serial");
+        request.setPaths(List.of("/data/local/tmp/", "/data/missing"));
+        request.setDepth(1);
+
+        assertTrue(new AdbDirectoryWalker(request, new AdbWebsocketSender(newSession())).walk(newDevice()));
+        assertFalse(commands.contains("ls -l /") || commands.contains("ls -l /data/"));
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(0).contains("\"fullPath\":\"/data/local/tmp/a.txt\""));
+        // A link to a directory is listed as one, but not followed.
+        assertTrue(sent.get(0).contains("\"fullPath\":\"/data/local/tmp/logs\",\"directory\":true,\"link\":true"));
+        assertTrue(sent.get(1).contains("\"statusCode\":404"));
+    }
+
+    @Test
+    public void testParseLink() {
+        AdbFileEntry entry = AdbDirectoryWalker.parse("lrwxrwxrwx 1 root root 21 2026-10-17 12:34 sdcard -> /storage/self/primary", "");
+        assertEquals("sdcard", entry.getName());
+        assertEquals("/sdcard", entry.getFullPath());
+        assertTrue(entry.getLink());
+        assertFalse(entry.getDirectory());
+
+        assertNull(AdbDirectoryWalker.parse("total 8", ""));
+        assertNull(AdbDirectoryWalker.parse("ls: /data: Permission denied", ""));
+    }
+
+    @Test
+    public void testWildcards() {
+        Pattern pattern = AdbDirectoryWalker.globToPattern("*.apk");
+        assertTrue(matches(pattern, "base.apk"));
+        assertTrue(matches(pattern, ".apk"));
+        assertFalse(matches(pattern, "base.apk.bak"));
+
+        pattern = AdbDirectoryWalker.globToPattern("IMG_????.jpg");
+        assertTrue(matches(pattern, "IMG_0001.jpg"));
+        assertFalse(matches(pattern, "IMG_001.jpg"));
+    }
+
+    @Test
+    public void testRegexCharactersAreLiteral() {
+        Pattern pattern = AdbDirectoryWalker.globToPattern("a.b+(c)$^{1}|d\\e");
+        assertTrue(matches(pattern, "a.b+(c)$^{1}|d\\e"));
+        assertFalse(matches(pattern, "aXb+(c)$^{1}|d\\e"));
+    }
+
+    @Test
+    public void testBrackets() {
+        Pattern pattern = AdbDirectoryWalker.globToPattern("log[0-9].txt");
+        assertTrue(matches(pattern, "log3.txt"));
+        assertFalse(matches(pattern, "logx.txt"));
+
+        pattern = AdbDirectoryWalker.globToPattern("[!.]*");
+        assertTrue(matches(pattern, "visible"));
+        assertFalse(matches(pattern, ".hidden"));
+
+        pattern = AdbDirectoryWalker.globToPattern("[[\\]x");
+        assertTrue(matches(pattern, "[x"));
+        assertTrue(matches(pattern, "\\x"));
+    }
+
+    @Test
+    public void testWildcardMatchesNewline() {
+        assertTrue(matches(AdbDirectoryWalker.globToPattern("a*b"), "a\nb"));
+    }
+
+    private static boolean matches(Pattern pattern, String name) {
+        return pattern.matcher(name).matches();
+    }
+
+    private IDevice newDevice() {
+        return (IDevice) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IDevice.class }, (proxy, method, args) -> {
+            if (method.getName().equals("executeShellCommand")) {
+                String command = (String) args[0];
+                commands.add(command);
+                byte[] output = OUTPUTS.getOrDefault(command, "ls: " + command + ": Permission denied\n").getBytes(StandardCharsets.UTF_8);
+                IShellOutputReceiver receiver = (IShellOutputReceiver) args[1];
+                receiver.addOutput(output, 0, output.length);
+                receiver.flush();
+            }
+            return null;
+        });
+    }
+
+    private Session newSession() {
+        RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText") && args.length == 2) {
+                        sent.add((String) args[0]);
+                        ((SendHandler) args[1]).onResult(new SendResult());
+                    }
+                    return null;
+                });
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAsyncRemote":
+                    return remote;
+                case "isOpen":
+                    return true;
+                case "getId":
+                    return "session";
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.cornerstonews.adb.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.cornerstonews.adb.websocket.message.AdbFilePushMessage;
+
+public class AdbFileTransferProcessorTest {
+
+    private static final byte[] DATA = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    private AdbFileTransferProcessor processor;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        AdbFilePushMessage message = new AdbFilePushMessage("serial");
+        message.setSize((long) DATA.length);
+        message.setChunked(true);
+        processor = new AdbFileTransferProcessor(message, null);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        processor.cleanup();
+    }
+
+    @Test
+    public void testChunkInOnePart() throws IOException {
+        processor.processFilePush(chunk(0, DATA, checksum(DATA)), true);
+
+        assertEquals(DATA.length, processor.getTransferedSize());
+        assertTrue(processor.isComplete());
+    }
+
+    @Test
+    public void testChunkInPartialFrames() throws IOException {
+        ByteBuffer chunk = chunk(0, DATA, checksum(DATA));
+
+        // The first part ends inside the header, only the first part carries it.
+        processor.processFilePush(part(chunk, 5), false);
+        processor.processFilePush(part(chunk, 20), false);
+        assertEquals(0, processor.getTransferedSize());
+        processor.processFilePush(part(chunk, chunk.remaining()), true);
+
+        assertEquals(DATA.length, processor.getTransferedSize());
+        assertTrue(processor.isComplete());
+    }
+
+    @Test
+    public void testChecksumCoversAllPartialFrames() throws IOException {
+        ByteBuffer chunk = chunk(0, DATA, checksum(DATA) + 1);
+
+        processor.processFilePush(part(chunk, 16), false);
+        assertThrows(AdbFileChunkException.class, () -> processor.processFilePush(part(chunk, chunk.remaining()), true));
+        assertEquals(0, processor.getTransferedSize());
+
+        // The client resends the chunk from the expected offset.
+        processor.processFilePush(chunk(0, DATA, checksum(DATA)), true);
+        assertTrue(processor.isComplete());
+    }
+
+    @Test
+    public void testChunksInPartialFramesFollowEachOther() throws IOException {
+        byte[] first = new byte[10];
+        byte[] second = new byte[DATA.length - first.length];
+        System.arraycopy(DATA, 0, first, 0, first.length);
+        System.arraycopy(DATA, first.length, second, 0, second.length);
+
+        ByteBuffer chunk = chunk(0, first, checksum(first));
+        processor.processFilePush(part(chunk, 14), false);
+        processor.processFilePush(part(chunk, chunk.remaining()), true);
+        assertEquals(first.length, processor.getTransferedSize());
+        assertFalse(processor.isComplete());
+
+        chunk = chunk(first.length, second, checksum(second));
+        processor.processFilePush(part(chunk, 3), false);
+        processor.processFilePush(part(chunk, chunk.remaining()), true);
+        assertTrue(processor.isComplete());
+    }
+
+    @Test
+    public void testResumeDiscardsPartialFrames() throws IOException {
+        ByteBuffer cutOff = chunk(0, DATA, checksum(DATA));
+        processor.processFilePush(part(cutOff, 20), false);
+
+        AdbFilePushMessage resume = new AdbFilePushMessage("serial");
+        resume.setChunked(true);
+        processor.resume(resume);
+        assertEquals(0L, resume.getOffset());
+
+        processor.processFilePush(chunk(0, DATA, checksum(DATA)), true);
+        assertTrue(processor.isComplete());
+    }
+
+    private static ByteBuffer chunk(long offset, byte[] data, int checksum) {
+        ByteBuffer chunk = ByteBuffer.allocate(12 + data.length);
+        chunk.putLong(offset).putInt(checksum).put(data);
+        return chunk.flip();
+    }
+
+    private static ByteBuffer part(ByteBuffer chunk, int length) {
+        ByteBuffer part = chunk.slice();
+        part.limit(length);
+        chunk.position(chunk.position() + length);
+        return part;
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data, 0, data.length);
+        return (int) checksum.getValue();
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.cornerstonews.adb.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatEntry;
+
+public class AdbLogcatStreamTest {
+
+    @Test
+    public void testParseThreadtime() {
+        AdbLogcatEntry entry = AdbLogcatStream.parse("10-17 12:34:56.789  1234  5678 I ActivityManager: Start proc 4321:com.example/u0a123");
+
+        assertNotNull(entry);
+        assertEquals("10-17 12:34:56.789", entry.getTimestamp());
+        assertEquals(1234, entry.getPid());
+        assertEquals(5678, entry.getTid());
+        assertEquals("I", entry.getPriority());
+        assertEquals("ActivityManager", entry.getTag());
+        assertEquals("Start proc 4321:com.example/u0a123", entry.getMessage());
+    }
+
+    @Test
+    public void testParseTagWithSpacesAndEmptyMessage() {
+        AdbLogcatEntry entry = AdbLogcatStream.parse("01-02 03:04:05.006     1     2 E My Tag  : ");
+
+        assertNotNull(entry);
+        assertEquals("E", entry.getPriority());
+        assertEquals("My Tag", entry.getTag());
+        assertEquals("", entry.getMessage());
+    }
+
+    @Test
+    public void testParseMessageWithSeparator() {
+        AdbLogcatEntry entry = AdbLogcatStream.parse("01-02 03:04:05.006   100   100 W Tag: key: value");
+
+        assertNotNull(entry);
+        assertEquals("Tag", entry.getTag());
+        assertEquals("key: value", entry.getMessage());
+    }
+
+    @Test
+    public void testParseIgnoresNonEntries() {
+        assertNull(AdbLogcatStream.parse("--------- beginning of main"));
+        assertNull(AdbLogcatStream.parse(""));
+        assertNull(AdbLogcatStream.parse("01-02 03:04:05.006   100   100 X Tag: unknown priority"));
+    }
+}
@@ -0,0 +1,245 @@
+package com.github.cornerstonews.adb.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.cornerstonews.adb.websocket.AdbWebsocketSender.OverflowPolicy;
+import com.github.cornerstonews.adb.websocket.message.AdbInstallMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbLogcatMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbStatusMessage;
+import com.github.cornerstonews.adb.websocket.message.AdbSubscribeMessage;
+
+public class AdbWebsocketSenderTest {
+
+    private final List<SendHandler> handlers = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    private volatile CloseReason closeReason;
+    private long blockTimeoutMillis;
+
+    private AdbWebsocketSender sender;
+
+    @BeforeEach
+    public void setUp() {
+        blockTimeoutMillis = AdbWebsocketSender.getBlockTimeoutMillis();
+        sender = new AdbWebsocketSender(newSession());
+        sender.setMaxQueuedBytes(10);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        AdbWebsocketSender.setBlockTimeoutMillis(blockTimeoutMillis);
+    }
+
+    @Test
+    public void testCloseOnOverflow() {
+        sender.setOverflowPolicy(OverflowPolicy.CLOSE);
+        sender.sendText("12345678");
+        CompletableFuture<Void> second = sender.sendText("12345678");
+        CompletableFuture<Void> third = sender.sendText("1");
+
+        assertNotNull(closeReason);
+        assertTrue(second.isCompletedExceptionally());
+        assertTrue(third.isCompletedExceptionally());
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testBlockUntilWritten() throws Exception {
+        sender.setOverflowPolicy(OverflowPolicy.BLOCK);
+        sender.sendText("12345678");
+
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture.supplyAsync(() -> {
+            started.countDown();
+            return sender.sendText("abcdefgh");
+        });
+        started.await();
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+
+        complete(0);
+        CompletableFuture<Void> second = blocked.get(5, TimeUnit.SECONDS);
+        complete(1);
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(List.of("12345678", "abcdefgh"), sent);
+        assertNull(closeReason);
+    }
+
+    @Test
+    public void testBlockTimesOut() {
+        AdbWebsocketSender.setBlockTimeoutMillis(50);
+        sender.setOverflowPolicy(OverflowPolicy.BLOCK);
+        sender.sendText("12345678");
+
+        assertTrue(sender.sendText("abcdefgh").isCompletedExceptionally());
+        assertNotNull(closeReason);
+    }
+
+    @Test
+    public void testTrySendDropsInsteadOfBlocking() {
+        sender.setOverflowPolicy(OverflowPolicy.BLOCK);
+        sender.sendText("12345678");
+
+        assertTrue(sender.trySendText("abcdefgh", null).isCancelled());
+        assertEquals(1, sender.getDroppedCount());
+        assertNull(closeReason);
+
+        complete(0);
+        assertFalse(sender.trySendText("abcdefgh", null).isDone());
+        assertEquals(List.of("12345678", "abcdefgh"), sent);
+    }
+
+    @Test
+    public void testTrySendClosesOnOverflow() {
+        sender.setOverflowPolicy(OverflowPolicy.CLOSE);
+        sender.sendText("12345678");
+
+        assertTrue(sender.trySendText("abcdefgh", null).isCompletedExceptionally());
+        assertNotNull(closeReason);
+    }
+
+    @Test
+    public void testDropSupersededStatus() throws Exception {
+        sender.setMaxQueuedBytes(1024);
+        sender.setOverflowPolicy(OverflowPolicy.DROP_SUPERSEDED);
+        sender.sendText("written first");
+        CompletableFuture<Void> stale = sender.sendMessage(status("offline"));
+        sender.setMaxQueuedBytes(sender.getQueuedBytes());
+
+        CompletableFuture<Void> current = sender.sendMessage(status("online"));
+        assertTrue(stale.isDone() && !stale.isCompletedExceptionally());
+        assertEquals(1, sender.getDroppedCount());
+
+        complete(0);
+        complete(1);
+        assertTrue(current.isDone());
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(1).contains("\"status\":\"online\""));
+        assertNull(closeReason);
+    }
+
+    @Test
+    public void testDropSupersededProgressUpdate() throws Exception {
+        sender.setMaxQueuedBytes(1024);
+        sender.setOverflowPolicy(OverflowPolicy.DROP_SUPERSEDED);
+        sender.sendText("written first");
+        CompletableFuture<Void> older = sender.sendMessage(progress("install-1", 1));
+        sender.setMaxQueuedBytes(sender.getQueuedBytes());
+
+        // Does not wait, the update takes the place of the one it replaces.
+        CompletableFuture<Void> newer = sender.trySendMessage(progress("install-1", 2));
+        assertTrue(older.isDone() && !older.isCompletedExceptionally());
+        assertEquals(1, sender.getDroppedCount());
+        assertNull(closeReason);
+
+        complete(0);
+        complete(1);
+        assertTrue(newer.isDone());
+        assertTrue(sent.get(1).contains("\"transferredSize\":2"));
+    }
+
+    @Test
+    public void testSupersedeKey() {
+        assertNotNull(AdbWebsocketSender.getSupersedeKey(progress("install-1", 1)));
+
+        AdbInstallMessage withoutRequestId = progress(null, 1);
+        assertNull(AdbWebsocketSender.getSupersedeKey(withoutRequestId));
+
+        AdbInstallMessage finalReply = progress("install-1", 1);
+        finalReply.setStatusCode(200);
+        assertNull(AdbWebsocketSender.getSupersedeKey(finalReply));
+
+        assertEquals("STATUS/serial", AdbWebsocketSender.getSupersedeKey(status("online")));
+        AdbStatusMessage statusRequest = status("online");
+        statusRequest.setRequestId("status-1");
+        assertEquals("STATUS/serial/status-1", AdbWebsocketSender.getSupersedeKey(statusRequest));
+        AdbStatusMessage statusError = status(null);
+        statusError.setStatusCode(500);
+        assertNull(AdbWebsocketSender.getSupersedeKey(statusError));
+
+        AdbSubscribeMessage event = new AdbSubscribeMessage("serial");
+        event.setEvent(AdbSubscribeMessage.EVENT_STATE_CHANGED);
+        event.setStatusCode(200);
+        assertEquals("SUBSCRIBE/serial/" + AdbSubscribeMessage.EVENT_STATE_CHANGED, AdbWebsocketSender.getSupersedeKey(event));
+        assertNull(AdbWebsocketSender.getSupersedeKey(new AdbSubscribeMessage("serial")));
+
+        AdbLogcatMessage entries = new AdbLogcatMessage("serial");
+        entries.setRequestId("logcat-1");
+        entries.setStatusCode(206);
+        assertNull(AdbWebsocketSender.getSupersedeKey(entries));
+    }
+
+    private static AdbStatusMessage status(String status) {
+        AdbStatusMessage message = new AdbStatusMessage("serial");
+        message.setStatus(status);
+        message.setStatusCode(200);
+        return message;
+    }
+
+    private static AdbInstallMessage progress(String requestId, long transferredSize) {
+        AdbInstallMessage message = new AdbInstallMessage("serial");
+        message.setRequestId(requestId);
+        message.setStatusCode(206);
+        message.setTransferredSize(transferredSize);
+        return message;
+    }
+
+    private void complete(int index) {
+        handlers.get(index).onResult(new SendResult());
+    }
+
+    private Session newSession() {
+        RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RemoteEndpoint.Async.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText") && args.length == 2) {
+                        sent.add((String) args[0]);
+                        handlers.add((SendHandler) args[1]);
+                    } else if (method.getName().equals("sendBinary") && args.length == 2) {
+                        sent.add(String.valueOf(((ByteBuffer) args[0]).remaining()));
+                        handlers.add((SendHandler) args[1]);
+                    }
+                    return null;
+                });
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getAsyncRemote":
+                    return remote;
+                case "isOpen":
+                    return closeReason == null;
+                case "getId":
+                    return "session";
+                case "close":
+                    closeReason = (args != null && args.length == 1) ? (CloseReason) args[0] : null;
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+}
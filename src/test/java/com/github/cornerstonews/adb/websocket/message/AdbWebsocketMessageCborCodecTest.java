@@ -0,0 +1,128 @@
+package com.github.cornerstonews.adb.websocket.message;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.DecodeException;
+
+import org.junit.jupiter.api.Test;
+
+public class AdbWebsocketMessageCborCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AdbShellCommandMessage message = new AdbShellCommandMessage("emulator-5554");
+        message.setRequestId("request-1");
+        message.setShellCommand("ls -l /sdcard/\u00dcn\u00efcode");
+        message.setStream(true);
+        message.setSequence(5_000_000_000L);
+        message.setExitCode(-1);
+        message.setStatusCode(206);
+
+        AdbWebsocketBinaryFrame frame = AdbWebsocketMessageCborCodec.decode(AdbWebsocketMessageCborCodec.encode(message));
+
+        assertTrue(frame.getMessage() instanceof AdbShellCommandMessage);
+        AdbShellCommandMessage decoded = (AdbShellCommandMessage) frame.getMessage();
+        assertEquals(AdbWebsocketMessageType.SHELL_COMMAND, decoded.getMessageType());
+        assertEquals("emulator-5554", decoded.getDeviceSerial());
+        assertEquals("request-1", decoded.getRequestId());
+        assertEquals("ls -l /sdcard/\u00dcn\u00efcode", decoded.getShellCommand());
+        assertEquals(Boolean.TRUE, decoded.getStream());
+        assertEquals(5_000_000_000L, decoded.getSequence());
+        assertEquals(-1, decoded.getExitCode());
+        assertEquals(206, decoded.getStatusCode());
+        assertNull(decoded.getCoalesce());
+        assertNull(frame.getData());
+    }
+
+    @Test
+    public void testRoundTripNestedObjects() throws Exception {
+        AdbInstallMessage message = new AdbInstallMessage("serial");
+        message.setApks(List.of(new AdbInstallApk("base.apk", 1024L), new AdbInstallApk("split_config.en.apk", 12L)));
+        message.setOptions(List.of("-r", "-g"));
+
+        AdbInstallMessage decoded = (AdbInstallMessage) AdbWebsocketMessageCborCodec.decode(AdbWebsocketMessageCborCodec.encode(message)).getMessage();
+
+        assertEquals(2, decoded.getApks().size());
+        assertEquals("split_config.en.apk", decoded.getApks().get(1).getName());
+        assertEquals(1024L, decoded.getApks().get(0).getSize());
+        assertEquals(List.of("-r", "-g"), decoded.getOptions());
+    }
+
+    @Test
+    public void testRoundTripLargeArray() throws Exception {
+        // More than 255 entries, the array header outgrows the placeholder written when the array was opened.
+        List<AdbLogcatEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            AdbLogcatEntry entry = new AdbLogcatEntry();
+            entry.setSequence((long) i);
+            entry.setTag("Tag" + i);
+            entries.add(entry);
+        }
+        AdbLogcatMessage message = new AdbLogcatMessage("serial");
+        message.setEntries(entries);
+        message.setDropped(7L);
+
+        AdbWebsocketBinaryFrame frame = AdbWebsocketMessageCborCodec.decode(AdbWebsocketMessageCborCodec.encode(message, ByteBuffer.wrap(new byte[] { 1, 2 })));
+
+        AdbLogcatMessage decoded = (AdbLogcatMessage) frame.getMessage();
+        assertEquals(300, decoded.getEntries().size());
+        assertEquals(299L, decoded.getEntries().get(299).getSequence());
+        assertEquals("Tag150", decoded.getEntries().get(150).getTag());
+        assertEquals(7L, decoded.getDropped());
+        assertArrayEquals(new byte[] { 1, 2 }, toArray(frame.getData()));
+    }
+
+    @Test
+    public void testRoundTripWithData() throws Exception {
+        byte[] data = "file data".getBytes(StandardCharsets.US_ASCII);
+        AdbFilePushMessage message = new AdbFilePushMessage("serial");
+        message.setTransferId("transfer-1");
+
+        AdbWebsocketBinaryFrame frame = AdbWebsocketMessageCborCodec.decode(AdbWebsocketMessageCborCodec.encode(message, ByteBuffer.wrap(data)));
+
+        assertEquals("transfer-1", ((AdbFilePushMessage) frame.getMessage()).getTransferId());
+        assertArrayEquals(data, toArray(frame.getData()));
+    }
+
+    @Test
+    public void testDataReadInPlaceBehindPrefix() throws Exception {
+        byte[] data = new byte[70_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        AdbForwardMessage message = new AdbForwardMessage("serial");
+
+        byte[] prefix = AdbWebsocketMessageCborCodec.encodeDataPrefix(message);
+        ByteBuffer frame = ByteBuffer.allocate(prefix.length + AdbWebsocketMessageCborCodec.DATA_LENGTH_SIZE + data.length);
+        frame.put(prefix);
+        AdbWebsocketMessageCborCodec.putDataLength(frame, prefix.length, data.length);
+        frame.position(prefix.length + AdbWebsocketMessageCborCodec.DATA_LENGTH_SIZE);
+        frame.put(data).flip();
+
+        AdbWebsocketBinaryFrame decoded = AdbWebsocketMessageCborCodec.decode(frame);
+        assertTrue(decoded.getMessage() instanceof AdbForwardMessage);
+        assertArrayEquals(data, toArray(decoded.getData()));
+    }
+
+    @Test
+    public void testDecodeRejectsInvalidFrames() {
+        assertThrows(DecodeException.class, () -> AdbWebsocketMessageCborCodec.decode(ByteBuffer.wrap(new byte[] { (byte) 0x83, 1, 2, 3 })));
+        // Map of one entry whose text key is cut short.
+        assertThrows(DecodeException.class, () -> AdbWebsocketMessageCborCodec.decode(ByteBuffer.wrap(new byte[] { (byte) 0xa1, 0x65, 'a' })));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
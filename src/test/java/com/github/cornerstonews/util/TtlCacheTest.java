@@ -0,0 +1,99 @@
+package com.github.cornerstonews.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+public class TtlCacheTest {
+
+    @Test
+    public void testGetLoadsOnce() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 16);
+        int[] loads = new int[1];
+
+        TtlCache.Loader<String, String, RuntimeException> loader = key -> {
+            loads[0]++;
+            return key + "-value";
+        };
+
+        assertEquals("a-value", cache.get("a", loader));
+        assertEquals("a-value", cache.get("a", loader));
+        assertEquals(1, loads[0]);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidatedWhileLoadingIsNotCached() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 16);
+        long loadGeneration = cache.getGeneration("a");
+        cache.invalidate("a");
+        cache.put("a", "stale", loadGeneration);
+
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void testInvalidatingOtherKeyKeepsLoad() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 16);
+        long loadGeneration = cache.getGeneration("a");
+        cache.invalidate("b");
+        cache.invalidateIf(key -> key.startsWith("b"));
+        cache.put("a", "value", loadGeneration);
+
+        assertEquals("value", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void testInvalidateIfMatchesKeysBeingLoaded() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 16);
+        long first = cache.getGeneration("device-1/a");
+        long second = cache.getGeneration("device-2/a");
+        cache.invalidateIf(key -> key.startsWith("device-1/"));
+        cache.put("device-1/a", "stale", first);
+        cache.put("device-2/a", "value", second);
+
+        assertNull(cache.getIfPresent("device-1/a"));
+        assertEquals("value", cache.getIfPresent("device-2/a"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 16);
+        cache.put("a", "value", cache.getGeneration("a"));
+        long loadGeneration = cache.getGeneration("b");
+        cache.invalidateAll();
+        cache.put("b", "stale", loadGeneration);
+
+        assertNull(cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+
+        // A load started after the invalidation is cached again.
+        cache.put("b", "value", cache.getGeneration("b"));
+        assertEquals("value", cache.getIfPresent("b"));
+    }
+
+    @Test
+    public void testDisabledAndExpired() throws InterruptedException {
+        TtlCache<String, String> cache = new TtlCache<>(0, 16);
+        cache.put("a", "value", cache.getGeneration("a"));
+        assertNull(cache.getIfPresent("a"));
+
+        cache.setTtlMillis(1);
+        cache.put("a", "value", cache.getGeneration("a"));
+        Thread.sleep(5);
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void testEvictsPastMaxSize() {
+        TtlCache<Integer, String> cache = new TtlCache<>(60_000, 4);
+        for (int i = 0; i < 20; i++) {
+            cache.put(i, "value", cache.getGeneration(i));
+        }
+
+        assertEquals(4, cache.size());
+        assertEquals(16, cache.getEvictionCount());
+        assertEquals("value", cache.getIfPresent(19));
+    }
+}